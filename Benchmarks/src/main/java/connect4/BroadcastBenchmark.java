@@ -0,0 +1,107 @@
+package connect4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One message queued for many connections, encoded per recipient against encoded once. A lobby
+// delta is the tick LobbyFeed sends every idle client on the same page, each with its own
+// version, so the shared path restamps a copy; a move delta is what a game's spectators get,
+// where every recipient queues the same bytes. The connections drain as soon as they are
+// scheduled, so each operation also pays the queue, as Connection.send does in the server.
+//
+//   java -jar target/benchmarks.jar BroadcastBenchmark -prof gc
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BroadcastBenchmark {
+	@Param({"1", "10", "100", "1000"})
+	int recipients;
+
+	private Connection[] connections;
+	private int[] versions;
+	private List<String> added;
+	private List<String> removed;
+	private Message move;
+
+	// Writes nothing; a frame is gone as soon as it is queued
+	static final class Sink extends Connection {
+		@Override
+		void scheduleFlush() {
+			do {
+				while (pollFrame() != null) {
+				}
+			} while (finishFlush());
+		}
+
+		@Override
+		void close() {
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		connections = new Connection[recipients];
+		versions = new int[recipients];
+		for (int i = 0; i < recipients; i++) {
+			connections[i] = new Sink();
+		}
+		// A busy tick: ten logins and five players starting games on one page
+		added = new ArrayList<>();
+		removed = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			added.add("player" + (100 + i));
+		}
+		for (int i = 0; i < 5; i++) {
+			removed.add("player" + (200 + i));
+		}
+		move = new Message(3, 2, 1, 21, 22, false);
+	}
+
+	@Benchmark
+	public void lobbyPerRecipient() throws IOException {
+		for (int i = 0; i < recipients; i++) {
+			connections[i].send(new Message(added, removed, ++versions[i]));
+		}
+	}
+
+	@Benchmark
+	public void lobbyRestamped() throws IOException {
+		byte[] template = MessageCodec.encode(new Message(added, removed, 0));
+		for (int i = 0; i < recipients; i++) {
+			connections[i].send(MessageCodec.restamp(template, ++versions[i]), MessageType.LOBBY_DELTA);
+		}
+	}
+
+	@Benchmark
+	public void movePerRecipient() throws IOException {
+		for (int i = 0; i < recipients; i++) {
+			connections[i].send(move);
+		}
+	}
+
+	@Benchmark
+	public void moveShared() throws IOException {
+		byte[] frame = MessageCodec.encode(move);
+		for (int i = 0; i < recipients; i++) {
+			connections[i].send(frame, MessageType.GAME_DELTA);
+		}
+	}
+}
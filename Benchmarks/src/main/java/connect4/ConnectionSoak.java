@@ -0,0 +1,139 @@
+package connect4;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Load test for the server transports: opens N idle connections against an in-process
+// Server and reports platform thread count and heap once every socket has been accepted.
+// Not a JMH benchmark, but it lives here to build against the same copy of the server.
+// Run once per transport, e.g.
+//   java -Dconnect4.transport=virtual -cp target/benchmarks.jar connect4.ConnectionSoak 20000
+// With a message count the connections log in and keep talking instead of idling, and heap
+// after GC is sampled as the exchange goes on, so anything a connection retains per message
+// shows up as growth. Run it in either wire format:
+//   java -Dconnect4.wireFormat=serialized -cp target/benchmarks.jar connect4.ConnectionSoak 10 100000
+public class ConnectionSoak {
+	public static void main(String[] args) throws Exception {
+		int connections = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		String transport = System.getProperty("connect4.transport", "nio");
+		if (args.length > 1) {
+			chatter(connections, Integer.parseInt(args[1]));
+			return;
+		}
+
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		System.gc();
+		long heapBefore = memory.getHeapMemoryUsage().getUsed();
+		int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+		Server server = new Server(message -> { });
+		InetSocketAddress address = new InetSocketAddress("127.0.0.1", Server.PORT);
+
+		// Client sockets are plain blocking channels that never read, so they add no threads
+		List<SocketChannel> sockets = new ArrayList<>(connections);
+		long start = System.nanoTime();
+		for (int i = 0; i < connections; i++) {
+			sockets.add(connect(address));
+		}
+		while (server.clients.size() < connections) {
+			Thread.sleep(100);
+		}
+		long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+		Thread.sleep(2000);
+		System.gc();
+		System.gc();
+		long heapAfter = memory.getHeapMemoryUsage().getUsed();
+		int threadsAfter = ManagementFactory.getThreadMXBean().getThreadCount();
+
+		System.out.printf("transport=%s connections=%d accepted in %d ms%n", transport, connections, elapsedMs);
+		System.out.printf("platform threads: %d before, %d with all clients connected%n", threadsBefore, threadsAfter);
+		System.out.printf("heap after GC: %.1f MB before, %.1f MB with all clients connected (%.2f KB per connection)%n",
+				heapBefore / 1048576.0, heapAfter / 1048576.0,
+				(heapAfter - heapBefore) / 1024.0 / connections);
+		System.exit(0);
+	}
+
+	// Each client logs in, then asks for its lobby page again and again, reading the snapshot
+	// (a name list) before asking for the next. Both ends of every connection live in this
+	// process, so the samples cover what the server and the client side each hold on to
+	private static void chatter(int connections, int messages) throws Exception {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		new Server(message -> { });
+		InetSocketAddress address = new InetSocketAddress("127.0.0.1", Server.PORT);
+		AtomicLong exchanged = new AtomicLong();
+		List<Thread> clients = new ArrayList<>();
+		for (int i = 0; i < connections; i++) {
+			SocketChannel channel = connect(address);
+			String name = "soak" + i;
+			Thread client = new Thread(() -> {
+				try (Socket socket = channel.socket()) {
+					DataInputStream in = new DataInputStream(socket.getInputStream());
+					OutputStream out = socket.getOutputStream();
+					out.write(MessageCodec.encode(new Message(MessageType.LOGIN, name)));
+					awaitSnapshot(in);
+					byte[] resync = MessageCodec.encode(new Message(MessageType.LOBBY_RESYNC, (String) null));
+					for (int m = 0; m < messages; m++) {
+						out.write(resync);
+						awaitSnapshot(in);
+						exchanged.incrementAndGet();
+					}
+				} catch (IOException e) {
+					System.err.println(name + ": " + e);
+				}
+			}, name);
+			clients.add(client);
+		}
+		for (Thread client : clients) {
+			client.start();
+		}
+
+		long total = (long) connections * messages;
+		System.out.printf("wire format %s, %d connections, %d round trips each%n",
+				MessageCodec.WIRE_VERSION == MessageCodec.SERIALIZED ? "serialized" : "binary", connections, messages);
+		System.out.printf("%14s %16s%n", "per connection", "heap after GC MB");
+		for (int step = 0; step <= 10; step++) {
+			while (exchanged.get() < total * step / 10 && clients.stream().anyMatch(Thread::isAlive)) {
+				Thread.sleep(10);
+			}
+			System.gc();
+			System.gc();
+			System.out.printf("%14d %16.1f%n", exchanged.get() / connections, memory.getHeapMemoryUsage().getUsed() / 1048576.0);
+		}
+		System.exit(0);
+	}
+
+	// Skips login results and deltas up to the next lobby snapshot
+	private static void awaitSnapshot(DataInputStream in) throws IOException {
+		while (true) {
+			byte[] payload = new byte[in.readInt()];
+			in.readFully(payload);
+			if (MessageCodec.decode(payload, 0, payload.length).type == MessageType.LOBBY_UPDATE) {
+				return;
+			}
+		}
+	}
+
+	// The acceptor thread may not have bound the port yet on the first few attempts
+	private static SocketChannel connect(InetSocketAddress address) throws Exception {
+		for (int attempt = 0; ; attempt++) {
+			try {
+				return SocketChannel.open(address);
+			} catch (java.net.ConnectException e) {
+				if (attempt == 50) {
+					throw e;
+				}
+				Thread.sleep(100);
+			}
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package connect4;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// The Game calls the server makes for every move: the move itself, the win and draw checks
+// that follow it, and the board copy sent in snapshots. Positions use the same column notation
+// as Game.fromMoves.
+//
+//   java -jar target/benchmarks.jar GameBenchmark -prof gc
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GameBenchmark {
+	// 42 moves that fill the board without anyone connecting four
+	static final String DRAWN = "153233145111176477634234566773467642222555";
+
+	private int[] columns;
+	private Game playing;
+
+	// A position partway through DRAWN for the checks and the board copy
+	@State(Scope.Thread)
+	public static class Position {
+		@Param({"0", "21", "42"})
+		int moves;
+
+		Game game;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			game = Game.fromMoves(DRAWN.substring(0, moves));
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		columns = new int[DRAWN.length()];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = DRAWN.charAt(i) - '1';
+		}
+		playing = new Game("alice", "bob");
+	}
+
+	// A whole game per invocation, reported per move and including the reset. The win test
+	// runs in here; checkWin only reads its result
+	@Benchmark
+	@OperationsPerInvocation(42)
+	public void makeMove(Blackhole blackhole) {
+		playing.reset();
+		for (int column : columns) {
+			blackhole.consume(playing.makeMove(playing.getCurrentPlayer(), column));
+		}
+	}
+
+	@Benchmark
+	public boolean checkWin(Position position) {
+		return position.game.checkWin();
+	}
+
+	@Benchmark
+	public boolean checkDraw(Position position) {
+		return position.game.checkDraw();
+	}
+
+	@Benchmark
+	public int[][] getBoard(Position position) {
+		return position.game.getBoard();
+	}
+}
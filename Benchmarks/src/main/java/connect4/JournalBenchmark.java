@@ -0,0 +1,246 @@
+package connect4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Sustained moves per second with every move journaled, each thread playing random games back
+// to back and recording them as Server does: without a journal, through the group-committed
+// Journal, and through a baseline that writes and forces every record on its own. Records per
+// fsync and the fsync p99 are printed after each run. recover times reopening a journal of
+// 100,000 finished games and 1,000 open ones.
+//
+//   java -jar target/benchmarks.jar JournalBenchmark -t 8
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class JournalBenchmark {
+	static final long SEGMENT_BYTES = 64L << 20;
+	static final int BUFFER_BYTES = 1 << 20;
+
+	interface Recorder {
+		void start(Game game);
+
+		void move(Game game, int column);
+
+		void result(Game game, int winner);
+	}
+
+	@State(Scope.Benchmark)
+	public static class Shared {
+		@Param({"off", "group", "per-record"})
+		String mode;
+
+		Path dir;
+		Journal journal;
+		PerRecordFsync perRecord;
+		Recorder recorder;
+
+		@Setup(Level.Trial)
+		public void open() throws IOException {
+			dir = Files.createTempDirectory("journal-bench");
+			if ("group".equals(mode)) {
+				journal = Journal.open(dir, SEGMENT_BYTES, BUFFER_BYTES, true);
+				recorder = new Recorder() {
+					public void start(Game game) {
+						game.id = journal.newGameId();
+						journal.start(game);
+					}
+
+					public void move(Game game, int column) {
+						journal.move(game, column);
+					}
+
+					public void result(Game game, int winner) {
+						journal.result(game, winner);
+					}
+				};
+			} else if ("per-record".equals(mode)) {
+				perRecord = new PerRecordFsync(dir.resolve("per-record.log"));
+				recorder = perRecord;
+			} else {
+				recorder = new Recorder() {
+					public void start(Game game) {
+					}
+
+					public void move(Game game, int column) {
+					}
+
+					public void result(Game game, int winner) {
+					}
+				};
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void close() throws IOException {
+			if (journal != null) {
+				journal.close();
+				System.out.printf("%n%d records, %.1f per fsync, fsync p99 %.0f us, %d dropped%n", journal.records(),
+						journal.records() / (double) Math.max(1, journal.batches()),
+						journal.forces().percentile(0.99) / 1e3, journal.dropped());
+			}
+			if (perRecord != null) {
+				perRecord.close();
+				System.out.printf("%n%d records, 1 per fsync, fsync p99 %.0f us%n", perRecord.records,
+						perRecord.forces.percentile(0.99) / 1e3);
+			}
+			delete(dir);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Player {
+		Game game;
+
+		@Setup(Level.Iteration)
+		public void newGame(Shared shared) {
+			long thread = Thread.currentThread().threadId();
+			game = new Game("bench" + thread + "a", "bench" + thread + "b");
+			shared.recorder.start(game);
+		}
+	}
+
+	// One random legal move, and a new game once this one is decided
+	@Benchmark
+	public void move(Shared shared, Player player) {
+		Game game = player.game;
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int column;
+		do {
+			column = random.nextInt(Game.COLUMNS);
+		} while (!game.makeMove(game.getCurrentPlayer(), column));
+		shared.recorder.move(game, column);
+		if (game.checkWin() || game.checkDraw()) {
+			shared.recorder.result(game, game.checkWin() ? game.getLastPlayer() : 0);
+			player.game = new Game(game.player1, game.player2);
+			shared.recorder.start(player.game);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Recorded {
+		static final int FINISHED = 100_000;
+		static final int OPEN = 1_000;
+
+		Path dir;
+
+		@Setup(Level.Trial)
+		public void write() throws IOException {
+			dir = Files.createTempDirectory("journal-recover");
+			Journal journal = Journal.open(dir, SEGMENT_BYTES, BUFFER_BYTES, false);
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			for (int i = 0; i < FINISHED + OPEN; i++) {
+				Game game = new Game("p" + i, "q" + i);
+				game.id = journal.newGameId();
+				journal.start(game);
+				while (!game.checkWin() && !game.checkDraw() && (i < FINISHED || game.getMoveCount() < 10)) {
+					int column = random.nextInt(Game.COLUMNS);
+					if (game.makeMove(game.getCurrentPlayer(), column)) {
+						journal.move(game, column);
+					}
+				}
+				if (i < FINISHED) {
+					journal.result(game, game.checkWin() ? game.getLastPlayer() : 0);
+					journal.abandon(game);
+				}
+			}
+			journal.close();
+		}
+
+		@TearDown(Level.Trial)
+		public void delete() throws IOException {
+			JournalBenchmark.delete(dir);
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 3)
+	@Measurement(iterations = 10)
+	@Threads(1)
+	public int recover(Recorded recorded) throws IOException {
+		Journal journal = Journal.open(recorded.dir, SEGMENT_BYTES, BUFFER_BYTES, false);
+		int open = journal.recovered().size();
+		journal.close();
+		return open;
+	}
+
+	// What the journal would cost without group commit: one write and one force per record,
+	// serialized on the file. The records are the same size as the journal's moves
+	static class PerRecordFsync implements Recorder, AutoCloseable {
+		private final FileChannel channel;
+		private final ByteBuffer record = ByteBuffer.allocate(Journal.RECORD_HEADER + 10);
+		final LatencyHistogram forces = new LatencyHistogram();
+		long records;
+
+		PerRecordFsync(Path file) throws IOException {
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		}
+
+		public void start(Game game) {
+			write(Journal.START, game.id, 0);
+		}
+
+		public void move(Game game, int column) {
+			write(Journal.MOVE, game.id, column);
+		}
+
+		public void result(Game game, int winner) {
+			write(Journal.RESULT, game.id, winner);
+		}
+
+		private synchronized void write(byte type, long gameId, int value) {
+			try {
+				record.clear();
+				record.putInt(10).putInt(0).put(type).putLong(gameId).put((byte) value).flip();
+				while (record.hasRemaining()) {
+					channel.write(record);
+				}
+				long start = System.nanoTime();
+				channel.force(false);
+				forces.record(System.nanoTime() - start);
+				records++;
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	static void delete(Path dir) throws IOException {
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+}
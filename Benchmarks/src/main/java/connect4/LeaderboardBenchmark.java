@@ -0,0 +1,85 @@
+package connect4;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Ratings under concurrent results and queries: N players are rated once each, then one thread
+// records random game results while others ask the three leaderboard queries (rank of a player,
+// a page from a random rank, and the page around a player). Runs at different N show how rank
+// queries grow with the board; more threads per query (-tg) show how much the results' write
+// lock holds the readers up.
+//
+//   java -jar target/benchmarks.jar LeaderboardBenchmark -tg 1,2,2,2
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class LeaderboardBenchmark {
+	@Param({"100000", "1000000"})
+	int players;
+
+	private Ratings ratings;
+	private String[] names;
+
+	@Setup(Level.Trial)
+	public void rate() {
+		ratings = Ratings.inMemory();
+		names = new String[players];
+		for (int i = 0; i < players; i++) {
+			names[i] = "player" + i;
+		}
+		for (int i = 0; i + 1 < players; i += 2) {
+			ratings.record(names[i], names[i + 1], false);
+		}
+	}
+
+	private String anyone() {
+		return names[ThreadLocalRandom.current().nextInt(players)];
+	}
+
+	// One game in eight is a draw
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(1)
+	public int[] result() {
+		return ratings.record(anyone(), anyone(), ThreadLocalRandom.current().nextInt(8) == 0);
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(1)
+	public int rank() {
+		return ratings.rank(anyone());
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(1)
+	public Message page() {
+		return ratings.page(null, 1 + ThreadLocalRandom.current().nextInt(players), 20);
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(1)
+	public Message around() {
+		return ratings.page(anyone(), 0, 20);
+	}
+}
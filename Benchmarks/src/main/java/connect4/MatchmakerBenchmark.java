@@ -0,0 +1,136 @@
+package connect4;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Quick play under a crowd of players with normally distributed ratings (mean 1500, sd 300).
+// pass times one matcher pass that takes in N players who all joined at once and pairs whoever
+// it can; the rating gap between paired players is printed after each run. join times a batch
+// of 10,000 joins on each of four threads joining at once, so a join costs the caller the
+// batch time over 10,000. Pairing always succeeds, so only the matchmaker itself is measured.
+//
+//   java -jar target/benchmarks.jar MatchmakerBenchmark -prof gc
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatchmakerBenchmark {
+	static final int JOINS = 10_000;
+
+	static SessionRegistry.Session[] crowd(String prefix, int players, long seed) {
+		SessionRegistry registry = new SessionRegistry();
+		Random random = new Random(seed);
+		SessionRegistry.Session[] sessions = new SessionRegistry.Session[players];
+		for (int i = 0; i < players; i++) {
+			sessions[i] = registry.claim(prefix + i, null);
+			sessions[i].rating = (int) Math.max(100, Math.min(3000, Math.round(1500 + 300 * random.nextGaussian())));
+		}
+		return sessions;
+	}
+
+	@State(Scope.Thread)
+	public static class Pass {
+		@Param({"1000", "50000"})
+		int players;
+
+		SessionRegistry.Session[] sessions;
+		LatencyHistogram gaps;
+		Matchmaker matchmaker;
+
+		@Setup(Level.Trial)
+		public void create() {
+			sessions = crowd("bench", players, 42);
+			gaps = new LatencyHistogram();
+			// The matcher thread never ticks; the benchmark runs every pass itself
+			matchmaker = new Matchmaker((a, b) -> {
+				gaps.record(Math.abs(a.rating - b.rating));
+				return true;
+			}, TimeUnit.HOURS.toMillis(1));
+		}
+
+		// Whoever is left from the last pass leaves, and the whole crowd queues again
+		@Setup(Level.Invocation)
+		public void queue() {
+			for (SessionRegistry.Session session : sessions) {
+				matchmaker.leave(session);
+			}
+			matchmaker.match();
+			for (SessionRegistry.Session session : sessions) {
+				matchmaker.join(session);
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void report() {
+			System.out.printf("%nrating gap p50 %d, p99 %d, max %d over %d pairs%n", gaps.percentile(0.5),
+					gaps.percentile(0.99), gaps.percentile(1.0), matchmaker.pairs());
+		}
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public int pass(Pass pass) {
+		pass.matchmaker.match();
+		return pass.matchmaker.depth();
+	}
+
+	// Drained between iterations rather than by the matcher thread, which could not keep up
+	// with four threads doing nothing but join, so the request queue stays bounded
+	@State(Scope.Benchmark)
+	public static class Queue {
+		Matchmaker matchmaker;
+
+		@Setup(Level.Trial)
+		public void create() {
+			matchmaker = new Matchmaker((a, b) -> true, TimeUnit.HOURS.toMillis(1));
+		}
+
+		@TearDown(Level.Iteration)
+		public void drain() {
+			matchmaker.match();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Joiner {
+		SessionRegistry.Session[] sessions;
+		int next;
+
+		@Setup(Level.Trial)
+		public void create() {
+			long thread = Thread.currentThread().threadId();
+			sessions = crowd("bench" + thread + "-", JOINS, thread);
+		}
+
+		@Setup(Level.Iteration)
+		public void rewind() {
+			next = 0;
+		}
+	}
+
+	// Each operation is one thread's batch of JOINS joins
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Warmup(iterations = 20, batchSize = JOINS)
+	@Measurement(iterations = 50, batchSize = JOINS)
+	@Threads(4)
+	public void join(Queue queue, Joiner joiner) {
+		queue.matchmaker.join(joiner.sessions[joiner.next++]);
+	}
+}
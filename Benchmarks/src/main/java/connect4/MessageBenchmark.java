@@ -0,0 +1,78 @@
+package connect4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Frame encode and decode for the messages a game sends most, in both wire formats:
+// serialized goes through ObjectOutputStream / ObjectInputStream, binary is the compact layout.
+// Frames include the 4-byte length, as written to a socket. The forked JVM accepts serialized
+// frames, which decoders otherwise refuse.
+//
+//   java -jar target/benchmarks.jar MessageBenchmark -prof gc
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dconnect4.acceptSerialized=true")
+@State(Scope.Thread)
+public class MessageBenchmark {
+	@Param({"GAME_MOVE", "GAME_DELTA", "GAME_STATE", "LOBBY_UPDATE"})
+	MessageType type;
+
+	@Param({"serialized", "binary"})
+	String format;
+
+	private Message message;
+	private byte[] frame;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		message = sample(type);
+		frame = encode();
+	}
+
+	static Message sample(MessageType type) {
+		switch (type) {
+			case GAME_MOVE:
+				return new Message("alice", 3);
+			case GAME_DELTA:
+				return new Message(3, 2, 1, 21, 22, true);
+			case GAME_STATE:
+				return new Message(MessageType.GAME_STATE,
+						Game.fromMoves(GameBenchmark.DRAWN.substring(0, 21)).getBoard(), true, 22);
+			case LOBBY_UPDATE:
+				List<String> players = new ArrayList<>();
+				for (int i = 0; i < 50; i++) {
+					players.add("player" + i);
+				}
+				return new Message(MessageType.LOBBY_UPDATE, players);
+			default:
+				throw new IllegalArgumentException("No sample for " + type);
+		}
+	}
+
+	@Benchmark
+	public byte[] encode() throws IOException {
+		return "serialized".equals(format) ? MessageCodec.encodeSerialized(message) : MessageCodec.encodeBinary(message);
+	}
+
+	@Benchmark
+	public Message decode() throws IOException {
+		return MessageCodec.decode(frame, 4, frame.length - 4);
+	}
+}
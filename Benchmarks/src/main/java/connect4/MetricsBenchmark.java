@@ -0,0 +1,52 @@
+package connect4;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// What Server pays per frame for metrics: one handled frame plus one queued reply, as onMessage
+// and Connection.send record them. Run with -prof gc to confirm gc.alloc.rate.norm stays at 0;
+// the contended variant has every thread record into the same message type.
+//
+//   java -jar target/benchmarks.jar MetricsBenchmark -prof gc
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+	// Recording never touches the server; only the gauges do
+	private final Metrics metrics = new Metrics(null);
+	private long nanos = 4321;
+
+	@Benchmark
+	public void record() {
+		metrics.received(MessageType.GAME_MOVE, nanos);
+		metrics.sent(MessageType.GAME_DELTA);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void recordContended() {
+		metrics.received(MessageType.GAME_MOVE, nanos);
+		metrics.sent(MessageType.GAME_DELTA);
+	}
+
+	// The clock reads onMessage adds around each frame
+	@Benchmark
+	public long timed() {
+		long start = System.nanoTime();
+		metrics.received(MessageType.GAME_MOVE, nanos);
+		return System.nanoTime() - start;
+	}
+}
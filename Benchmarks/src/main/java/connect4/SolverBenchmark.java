@@ -0,0 +1,88 @@
+package connect4;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Exact solving of a fixed suite of ten positions with ParallelSolver at 1, 2, 4 and 8 threads,
+// each solve with a fresh table. The speedup at N threads is the one-thread time over the
+// N-thread time for the same position, and nodes per second are printed after each run. Every
+// solve is checked against the one-thread scores, so a race that changes an answer fails the
+// run. Speedup only means something on a machine with at least as many cores as threads.
+//
+//   java -jar target/benchmarks.jar SolverBenchmark -p threads=1,4 -p moves=46417614
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SolverBenchmark {
+	@Param({"1", "2", "4", "8"})
+	int threads;
+
+	// Positions in the notation of Game.fromMoves
+	@Param({"46417614", "561261412", "461555467", "677672262", "623544351",
+			"3445713463", "3551512666", "5721714365", "1323533355", "2526637246"})
+	String moves;
+
+	private Game position;
+	private int[] expected;
+	private ParallelSolver solver;
+	private long nodes;
+	private long nanos;
+
+	@Setup(Level.Trial)
+	public void reference() {
+		position = Game.fromMoves(moves);
+		ParallelSolver single = new ParallelSolver(1);
+		expected = solve(single);
+		single.shutdown();
+	}
+
+	@Setup(Level.Invocation)
+	public void freshTable() {
+		solver = new ParallelSolver(threads);
+		nanos = System.nanoTime();
+	}
+
+	@TearDown(Level.Invocation)
+	public void count() {
+		nanos = System.nanoTime() - nanos;
+		nodes = solver.nodes();
+		solver.shutdown();
+	}
+
+	@TearDown(Level.Iteration)
+	public void report() {
+		System.out.printf("%n%d nodes, %.2f Mnodes/s%n", nodes, nodes / (nanos / 1e3));
+	}
+
+	@Benchmark
+	public int[] solve() {
+		int[] scores = solve(solver);
+		if (!Arrays.equals(scores, expected)) {
+			throw new IllegalStateException("Scores for " + moves + " at " + threads + " threads: "
+					+ Arrays.toString(scores) + ", one thread: " + Arrays.toString(expected));
+		}
+		return scores;
+	}
+
+	private int[] solve(ParallelSolver with) {
+		long deadline = System.nanoTime() + TimeUnit.HOURS.toNanos(1);
+		return with.analyze(position.moverPieces(), position.occupied(), position.getMoveCount(), deadline);
+	}
+}
@@ -1,16 +1,21 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
 import java.net.Socket;
 import java.util.function.Consumer;
 
 public class Client extends Thread{
 	
 	Socket socketClient;
-	ObjectOutputStream out;
-	ObjectInputStream in;
+	volatile DataOutputStream out;
+	DataInputStream in;
 	private Consumer<Message> callback;
+	// From LOGIN_SUCCESS. A connection that drops mid-game is reopened and the seat reclaimed
+	// with them for up to -Dconnect4.resumeSeconds (default 30)
+	private volatile String username;
+	private volatile long token;
+	private volatile boolean inGame;
 	
 	Client(Consumer<Message> call){
 		callback = call;
@@ -19,10 +24,7 @@ public class Client extends Thread{
 	public void run() {
 		
 		try {
-			socketClient= new Socket("127.0.0.1",5555);
-	    	out = new ObjectOutputStream(socketClient.getOutputStream());
-	    	in = new ObjectInputStream(socketClient.getInputStream());
-	    	socketClient.setTcpNoDelay(true);
+			connect();
 		}
 		catch(Exception e) {
 			System.err.println("Error connecting to server: " + e.getMessage());
@@ -32,20 +34,73 @@ public class Client extends Thread{
 		
 		while(true) {
 			try {
-				Message message = (Message) in.readObject();
+				Message message = MessageCodec.readFrame(in);
+				track(message);
 				callback.accept(message);
 			}
 			catch(Exception e) {
 				System.err.println("Connection to server lost: " + e.getMessage());
-				break;
+				if (!inGame || token == 0 || !reconnect()) {
+					break;
+				}
 			}
 		}
 	
     }
 	
+	private void connect() throws IOException {
+		socketClient= new Socket("127.0.0.1",5555);
+		out = new DataOutputStream(new BufferedOutputStream(socketClient.getOutputStream()));
+		in = new DataInputStream(socketClient.getInputStream());
+		socketClient.setTcpNoDelay(true);
+	}
+	
+	private void track(Message message) {
+		switch (message.type) {
+			case LOGIN_SUCCESS:
+				username = message.username;
+				token = message.token;
+				break;
+			case NEWUSER:
+				inGame = true;
+				break;
+			case DISCONNECT:
+			case LOGIN_ERROR:
+				inGame = false;
+				break;
+			default:
+				break;
+		}
+	}
+	
+	// Retry once a second until the server takes the session back or the grace window is over
+	private boolean reconnect() {
+		callback.accept(new Message("Connection lost, reconnecting..."));
+		try {
+			socketClient.close();
+		} catch (IOException e) {
+			// Already gone
+		}
+		long deadline = System.currentTimeMillis() + Long.getLong("connect4.resumeSeconds", 30) * 1000;
+		while (System.currentTimeMillis() < deadline) {
+			try {
+				Thread.sleep(1000);
+				connect();
+				send(new Message(MessageType.SESSION_RESUME, username, token));
+				return true;
+			} catch (InterruptedException e) {
+				break;
+			} catch (IOException e) {
+				// Server still unreachable
+			}
+		}
+		callback.accept(new Message("Could not reconnect to the server"));
+		return false;
+	}
+	
 	public void send(Message data) {
 		try {
-			out.writeObject(data);
+			MessageCodec.writeFrame(out, data);
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -1,5 +1,6 @@
 import javafx.application.Application;
 import javafx.application.Platform;
+import javafx.collections.FXCollections;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -18,8 +19,14 @@ import javafx.animation.ScaleTransition;
 import javafx.animation.SequentialTransition;
 import javafx.animation.PauseTransition;
 import javafx.util.Duration;
+import javafx.stage.Modality;
 import javafx.stage.Stage;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 public class GuiClient extends Application {
 
 	private TextField usernameField;
@@ -30,15 +37,43 @@ public class GuiClient extends Application {
 	private GridPane gameBoard;
 	private Label statusLabel;
 	private Button restartButton;
+	private ToggleButton hintsButton;
+	private Button stopWatchingButton;
+	private Button quickPlayButton;
 	private ListView<String> lobbyPlayerList;
+	private TextField lobbySearchField;
+	private Button prevPageButton;
+	private Button nextPageButton;
 
 	private String username;
 	private String opponent;
+	// "alice vs bob" while spectating that game, null otherwise
+	private String spectating;
+	// In the quick play queue, waiting for the server to pair us
+	private boolean searching;
 	private boolean myTurn = false;
 	private boolean gameActive = false;
 	private int[][] board = new int[6][7];
 	private Circle[][] circleGrid = new Circle[6][7];
 	private boolean animating = false;
+	private int lastSequence;
+	// Server analysis of each column for the position on screen, null when there is none
+	private int[] hints;
+	private Label[] hintLabels = new Label[7];
+	private int lobbyVersion;
+	// The lobby page on screen, and the cursors of the pages before it for "Previous"
+	private static final int LOBBY_PAGE_SIZE = 50;
+	private String lobbyPrefix = "";
+	private String lobbyCursor;
+	private String lobbyLast;
+	private boolean lobbyHasMore;
+	private final List<String> lobbyCursors = new ArrayList<>();
+	// The leaderboard window and the rank of the first player on the page it shows
+	private static final int LEADERBOARD_PAGE_SIZE = 20;
+	private Dialog<Void> leaderboardDialog;
+	private ListView<String> leaderboardList;
+	private Label leaderboardLabel;
+	private int leaderboardRank = 1;
 
 	private Client clientConnection;
 	private Stage primaryStage;
@@ -58,6 +93,7 @@ public class GuiClient extends Application {
 		createLoginScene();
 		createLobbyScene();
 		createGameScene();
+		createLeaderboardDialog();
 		setupClientConnection();
 
 		primaryStage.setScene(loginScene);
@@ -157,16 +193,106 @@ public class GuiClient extends Application {
 			}
 		});
 
-		centerBox.getChildren().addAll(instructionLabel, lobbyPlayerList);
+		// Search and paging only fetch the page being looked at; the server sends updates for that page
+		lobbySearchField = new TextField();
+		lobbySearchField.setPromptText("Search players");
+		lobbySearchField.setMaxWidth(350);
+		lobbySearchField.setStyle("-fx-font-size: 14px; -fx-padding: 8; -fx-background-radius: 5;");
+		lobbySearchField.textProperty().addListener((obs, oldText, text) -> {
+			lobbyCursors.clear();
+			clientConnection.send(new Message(text.trim(), null, LOBBY_PAGE_SIZE));
+		});
+
+		String pageButtonStyle = "-fx-background-color: #1e3c72; -fx-text-fill: white; -fx-font-weight: bold; -fx-background-radius: 5;";
+		prevPageButton = new Button("◀ Previous");
+		prevPageButton.setStyle(pageButtonStyle);
+		prevPageButton.setDisable(true);
+		prevPageButton.setOnAction(e -> {
+			if (!lobbyCursors.isEmpty()) {
+				String cursor = lobbyCursors.remove(lobbyCursors.size() - 1);
+				clientConnection.send(new Message(lobbyPrefix, cursor, LOBBY_PAGE_SIZE));
+			}
+		});
+
+		nextPageButton = new Button("Next ▶");
+		nextPageButton.setStyle(pageButtonStyle);
+		nextPageButton.setDisable(true);
+		nextPageButton.setOnAction(e -> {
+			if (lobbyHasMore) {
+				lobbyCursors.add(lobbyCursor);
+				clientConnection.send(new Message(lobbyPrefix, lobbyLast, LOBBY_PAGE_SIZE));
+			}
+		});
+
+		HBox pageBar = new HBox(15, prevPageButton, nextPageButton);
+		pageBar.setAlignment(Pos.CENTER);
+
+		centerBox.getChildren().addAll(instructionLabel, lobbySearchField, lobbyPlayerList, pageBar);
 		lobbyLayout.setCenter(centerBox);
 
 		Label waitingLabel = new Label("⏳ Waiting for challenges...");
 		waitingLabel.setStyle("-fx-font-size: 14px; -fx-text-fill: white; -fx-font-style: italic;");
-		BorderPane.setAlignment(waitingLabel, Pos.CENTER);
-		BorderPane.setMargin(waitingLabel, new Insets(10));
-		lobbyLayout.setBottom(waitingLabel);
 
-		lobbyScene = new Scene(lobbyLayout, 450, 550);
+		// Spectators stay in the lobby, so they can still be challenged while watching
+		Button watchButton = new Button("👁 Watch a game");
+		watchButton.setStyle(pageButtonStyle);
+		watchButton.setOnAction(e -> {
+			TextInputDialog dialog = new TextInputDialog();
+			dialog.setTitle("Watch a game");
+			dialog.setHeaderText("Watch the game a player is in");
+			dialog.setContentText("Player:");
+			dialog.showAndWait().ifPresent(player -> {
+				if (!player.trim().isEmpty()) {
+					clientConnection.send(new Message(MessageType.SPECTATE, player.trim()));
+				}
+			});
+		});
+
+		// Quick play pairs us with someone of similar rating; pressed again it leaves the queue
+		quickPlayButton = new Button("⚡ Quick play");
+		quickPlayButton.setStyle(pageButtonStyle);
+		quickPlayButton.setOnAction(e ->
+				clientConnection.send(new Message(searching ? MessageType.QUEUE_LEAVE : MessageType.QUEUE_JOIN, username)));
+
+		Button leaderboardButton = new Button("🏆 Leaderboard");
+		leaderboardButton.setStyle(pageButtonStyle);
+		leaderboardButton.setOnAction(e -> requestLeaderboard(null, 1));
+
+		HBox buttonBar = new HBox(15, quickPlayButton, watchButton, leaderboardButton);
+		buttonBar.setAlignment(Pos.CENTER);
+		VBox bottomBar = new VBox(10, waitingLabel, buttonBar);
+		bottomBar.setAlignment(Pos.CENTER);
+		BorderPane.setMargin(bottomBar, new Insets(10));
+		lobbyLayout.setBottom(bottomBar);
+
+		lobbyScene = new Scene(lobbyLayout, 450, 640);
+	}
+
+	// Top players by rating, or the page around us; pages are only fetched when asked for
+	private void createLeaderboardDialog() {
+		leaderboardLabel = new Label();
+		leaderboardLabel.setStyle("-fx-font-size: 14px; -fx-font-weight: bold;");
+
+		leaderboardList = new ListView<>();
+		leaderboardList.setPrefSize(320, 420);
+
+		Button previousButton = new Button("◀");
+		previousButton.setOnAction(e -> requestLeaderboard(null, leaderboardRank - LEADERBOARD_PAGE_SIZE));
+		Button topButton = new Button("Top");
+		topButton.setOnAction(e -> requestLeaderboard(null, 1));
+		Button meButton = new Button("Around me");
+		meButton.setOnAction(e -> requestLeaderboard(username, 1));
+		Button nextButton = new Button("▶");
+		nextButton.setOnAction(e -> requestLeaderboard(null, leaderboardRank + LEADERBOARD_PAGE_SIZE));
+		HBox navigation = new HBox(10, previousButton, topButton, meButton, nextButton);
+		navigation.setAlignment(Pos.CENTER);
+
+		leaderboardDialog = new Dialog<>();
+		leaderboardDialog.initOwner(primaryStage);
+		leaderboardDialog.initModality(Modality.NONE);
+		leaderboardDialog.setTitle("Leaderboard");
+		leaderboardDialog.getDialogPane().setContent(new VBox(10, leaderboardLabel, leaderboardList, navigation));
+		leaderboardDialog.getDialogPane().getButtonTypes().add(ButtonType.CLOSE);
 	}
 
 	private void createGameScene() {
@@ -188,7 +314,28 @@ public class GuiClient extends Application {
 		restartButton.setOnMouseEntered(e -> restartButton.setStyle("-fx-background-color: #45a049; -fx-text-fill: white; -fx-font-size: 14px; -fx-padding: 10 20; -fx-background-radius: 5;"));
 		restartButton.setOnMouseExited(e -> restartButton.setStyle("-fx-background-color: #4CAF50; -fx-text-fill: white; -fx-font-size: 14px; -fx-padding: 10 20; -fx-background-radius: 5;"));
 
-		topBar.getChildren().addAll(statusLabel, restartButton);
+		hintsButton = new ToggleButton("💡 Hints");
+		hintsButton.setStyle("-fx-font-size: 14px; -fx-padding: 10 20; -fx-background-radius: 5;");
+		hintsButton.setOnAction(e -> {
+			if (hintsButton.isSelected()) {
+				requestHints();
+			} else {
+				hints = null;
+				updateHintLabels();
+			}
+		});
+
+		stopWatchingButton = new Button("⏏ Stop watching");
+		stopWatchingButton.setStyle("-fx-background-color: #607D8B; -fx-text-fill: white; -fx-font-size: 14px; -fx-padding: 10 20; -fx-background-radius: 5;");
+		stopWatchingButton.setVisible(false);
+		stopWatchingButton.setManaged(false);
+		stopWatchingButton.setOnAction(e -> {
+			clientConnection.send(new Message(MessageType.SPECTATE, (String) null));
+			leaveSpectating();
+			primaryStage.setScene(lobbyScene);
+		});
+
+		topBar.getChildren().addAll(statusLabel, restartButton, hintsButton, stopWatchingButton);
 		gameLayout.setTop(topBar);
 
 		gameBoard = new GridPane();
@@ -250,6 +397,11 @@ public class GuiClient extends Application {
 
 			column.setOnMouseExited(e -> column.setStyle(""));
 
+			Label hintLabel = new Label();
+			hintLabel.setMinHeight(18);
+			hintLabels[c] = hintLabel;
+			column.getChildren().add(hintLabel);
+
 			for (int r = 0; r < 6; r++) {
 				Circle circle = new Circle(25);
 				circleGrid[r][c] = circle;
@@ -291,6 +443,7 @@ public class GuiClient extends Application {
 			}
 			gameBoard.add(column, c, 0);
 		}
+		updateHintLabels();
 	}
 
 	// Set up client-server connection and handle incoming messages
@@ -310,11 +463,46 @@ public class GuiClient extends Application {
 						break;
 
 					case LOBBY_UPDATE:
-						if (data.playerList != null) {
-							lobbyPlayerList.getItems().clear();
-							data.playerList.stream()
-								.filter(player -> !player.equals(username))
-								.forEach(player -> lobbyPlayerList.getItems().add(player));
+						// Snapshot of one page (login, search, paging, return to lobby or resync)
+						lobbyVersion = data.sequence;
+						lobbyPrefix = data.prefix;
+						lobbyCursor = data.cursor;
+						lobbyHasMore = data.hasMore;
+						lobbyLast = data.playerList.isEmpty() ? null : data.playerList.get(data.playerList.size() - 1);
+						lobbyPlayerList.getItems().clear();
+						data.playerList.stream()
+							.filter(player -> !player.equals(username))
+							.forEach(player -> lobbyPlayerList.getItems().add(player));
+						prevPageButton.setDisable(lobbyCursors.isEmpty());
+						nextPageButton.setDisable(!lobbyHasMore);
+						break;
+
+					case LOBBY_DELTA:
+						// A missed delta means the page is stale, ask for a snapshot
+						if (data.sequence != lobbyVersion + 1) {
+							clientConnection.send(new Message(MessageType.LOBBY_RESYNC, username));
+							break;
+						}
+						lobbyVersion = data.sequence;
+						Set<String> left = new HashSet<>(data.removedList);
+						Set<String> shown = new HashSet<>(lobbyPlayerList.getItems());
+						shown.removeAll(left);
+						List<String> joined = new ArrayList<>();
+						for (String player : data.playerList) {
+							if (!player.equals(username) && shown.add(player)) {
+								joined.add(player);
+							}
+						}
+						lobbyPlayerList.getItems().removeAll(left);
+						if (!joined.isEmpty()) {
+							lobbyPlayerList.getItems().addAll(joined);
+							FXCollections.sort(lobbyPlayerList.getItems());
+						}
+						// The last page is open-ended; once it outgrows a page, fetch it again (once, until the
+						// snapshot replaces lobbyLast) so Next works
+						if (lobbyLast == null && lobbyPlayerList.getItems().size() > LOBBY_PAGE_SIZE) {
+							lobbyLast = "";
+							clientConnection.send(new Message(lobbyPrefix, lobbyCursor, LOBBY_PAGE_SIZE));
 						}
 						break;
 
@@ -347,10 +535,12 @@ public class GuiClient extends Application {
 						break;
 
 					case LOGIN_ERROR:
+						// The reason travels in the username field; a refused resume lands back here too
+						primaryStage.setScene(loginScene);
 						Alert alert = new Alert(Alert.AlertType.ERROR);
 						alert.setTitle("Login Error");
-						alert.setHeaderText("Username already taken");
-						alert.setContentText(data.message);
+						alert.setHeaderText("Could not log in");
+						alert.setContentText(data.username);
 						alert.showAndWait();
 						break;
 
@@ -359,26 +549,45 @@ public class GuiClient extends Application {
 						break;
 
 					case GAME_STATE:
-						// Sync board state from server and update UI
-						int[][] oldBoard = copyBoard(board);
+						// Full snapshot (game start, rematch or resync) replaces the board
 						board = data.board;
+						lastSequence = data.sequence;
 						myTurn = data.isPlayerTurn;
-						animateBoardUpdate(oldBoard, board);
+						hints = null;
+						updateGameBoardUI();
 						updateStatus();
 						gameActive = true;
+						requestHints();
 						break;
 
-					case GAME_MOVE:
-						oldBoard = copyBoard(board);
-						board = data.board;
+					case GAME_DELTA:
+						// A missed update means the local board is stale, ask for a snapshot
+						if (data.sequence != lastSequence + 1) {
+							clientConnection.send(new Message(MessageType.GAME_RESYNC, username));
+							break;
+						}
+						lastSequence = data.sequence;
+						board[data.row][data.column] = data.player;
 						myTurn = data.isPlayerTurn;
-						animateBoardUpdate(oldBoard, board);
+						hints = null;
+						animateDrop(data.row, data.column);
 						updateStatus();
 						gameActive = true;
+						requestHints();
+						break;
+
+					case ANALYSIS_RESULT:
+						// Only for the position still on screen; only the labels change, so a drop
+						// animation in progress is left alone
+						if (data.sequence == lastSequence && gameActive && myTurn && hintsButton.isSelected()) {
+							hints = data.evaluations;
+							updateHintLabels();
+						}
 						break;
 
 					case GAME_WIN:
 						board = data.board;
+						hints = null;
 						updateGameBoardUI();
 						playWinSound();
 						animateWin();
@@ -391,6 +600,7 @@ public class GuiClient extends Application {
 
 					case GAME_LOSE:
 						board = data.board;
+						hints = null;
 						updateGameBoardUI();
 						playLoseSound();
 						statusLabel.setText("You Lost");
@@ -402,6 +612,7 @@ public class GuiClient extends Application {
 
 					case GAME_DRAW:
 						board = data.board;
+						hints = null;
 						updateGameBoardUI();
 						statusLabel.setText("Draw!");
 						statusLabel.setStyle("-fx-font-size: 20px; -fx-font-weight: bold; -fx-text-fill: white; -fx-effect: dropshadow(gaussian, rgba(0,0,0,0.5), 5, 0, 0, 2);");
@@ -410,10 +621,69 @@ public class GuiClient extends Application {
 						restartButton.setDisable(false);
 						break;
 
+					case SPECTATE:
+						if (data.username != null) {
+							spectating = data.username + " vs " + data.recipient;
+							opponent = null;
+							myTurn = false;
+							hints = null;
+							chatList.getItems().clear();
+							chatList.getItems().add("SYSTEM: Watching " + spectating);
+							restartButton.setDisable(true);
+							hintsButton.setDisable(true);
+							stopWatchingButton.setVisible(true);
+							stopWatchingButton.setManaged(true);
+							primaryStage.setScene(gameScene);
+						} else if (spectating != null) {
+							leaveSpectating();
+							primaryStage.setScene(lobbyScene);
+							new Alert(Alert.AlertType.INFORMATION, "The game you were watching has ended").show();
+						} else {
+							new Alert(Alert.AlertType.INFORMATION, "That player is not in a game").show();
+						}
+						break;
+
+					case QUEUE_JOIN:
+						setSearching(true);
+						break;
+
+					case LEADERBOARD:
+						leaderboardRank = data.rank;
+						leaderboardList.getItems().clear();
+						String myRank = "not ranked yet";
+						for (int i = 0; i < data.playerList.size(); i++) {
+							String player = data.playerList.get(i);
+							boolean me = player.equals(username);
+							if (me) {
+								myRank = "#" + (data.rank + i);
+							}
+							leaderboardList.getItems().add((me ? "▶ " : "") + "#" + (data.rank + i) + "  " + player + "  " + data.ratings[i]);
+						}
+						leaderboardLabel.setText(data.total + " rated players, you are " + myRank);
+						if (!leaderboardDialog.isShowing()) {
+							leaderboardDialog.show();
+						}
+						break;
+
+					case QUEUE_LEAVE:
+						setSearching(false);
+						break;
+
 					case NEWUSER:
-						opponent = data.username;
-						chatList.getItems().clear();
-						chatList.getItems().add("SYSTEM: " + opponent + " has joined the game");
+						// A challenge accepted while watching ends the watching, and a game from
+						// either ends the search
+						if (spectating != null) {
+							leaveSpectating();
+						}
+						setSearching(false);
+						// The same opponent again means a dropped connection was resumed; keep the chat
+						if (data.username.equals(opponent)) {
+							chatList.getItems().add("SYSTEM: Back in the game with " + opponent);
+						} else {
+							opponent = data.username;
+							chatList.getItems().clear();
+							chatList.getItems().add("SYSTEM: " + opponent + " has joined the game");
+						}
 						primaryStage.setScene(gameScene);
 						break;
 
@@ -450,6 +720,38 @@ public class GuiClient extends Application {
 		clientConnection.send(new Message(username, column));
 	}
 
+	// Hints are only for the player about to move
+	private void requestHints() {
+		if (hintsButton.isSelected() && gameActive && myTurn) {
+			clientConnection.send(new Message(MessageType.ANALYSIS_REQUEST, username));
+		}
+	}
+
+	// "W n": playing here wins by the player's n-th move from now, "L n": loses to the opponent's
+	// n-th move, "D": draw, "?": not solved in time
+	private void updateHintLabels() {
+		for (int c = 0; c < 7; c++) {
+			Label label = hintLabels[c];
+			if (label == null) continue;
+			int hint = hints != null ? hints[c] : Message.COLUMN_FULL;
+			if (hint == Message.COLUMN_FULL) {
+				label.setText("");
+			} else if (hint == Message.UNSOLVED) {
+				label.setText("?");
+				label.setStyle("-fx-font-size: 13px; -fx-font-weight: bold; -fx-text-fill: #cfd8dc;");
+			} else if (hint > 0) {
+				label.setText("W " + hint);
+				label.setStyle("-fx-font-size: 13px; -fx-font-weight: bold; -fx-text-fill: #69f0ae;");
+			} else if (hint < 0) {
+				label.setText("L " + -hint);
+				label.setStyle("-fx-font-size: 13px; -fx-font-weight: bold; -fx-text-fill: #ff5252;");
+			} else {
+				label.setText("D");
+				label.setStyle("-fx-font-size: 13px; -fx-font-weight: bold; -fx-text-fill: #b0bec5;");
+			}
+		}
+	}
+
 	private void sendChat() {
 		String message = chatField.getText();
 		if (message.isEmpty() || opponent == null) return;
@@ -465,8 +767,29 @@ public class GuiClient extends Application {
 		statusLabel.setStyle("-fx-font-size: 16px; -fx-font-weight: bold;");
 	}
 
+	// A page from rank, or centred on a player when around is set
+	private void requestLeaderboard(String around, int rank) {
+		clientConnection.send(new Message(around, rank, LEADERBOARD_PAGE_SIZE));
+	}
+
+	private void setSearching(boolean searching) {
+		this.searching = searching;
+		quickPlayButton.setText(searching ? "✖ Stop searching" : "⚡ Quick play");
+	}
+
+	private void leaveSpectating() {
+		spectating = null;
+		gameActive = false;
+		hintsButton.setDisable(false);
+		stopWatchingButton.setVisible(false);
+		stopWatchingButton.setManaged(false);
+	}
+
 	private void updateStatus() {
-		if (myTurn) {
+		if (spectating != null) {
+			statusLabel.setText("👁 " + spectating);
+			statusLabel.setStyle("-fx-font-size: 18px; -fx-font-weight: bold; -fx-text-fill: white; -fx-effect: dropshadow(gaussian, rgba(0,0,0,0.5), 5, 0, 0, 2);");
+		} else if (myTurn) {
 			statusLabel.setText("▶ Your Turn");
 			statusLabel.setStyle("-fx-font-size: 18px; -fx-font-weight: bold; -fx-text-fill: #4CAF50; -fx-effect: dropshadow(gaussian, rgba(0,0,0,0.5), 5, 0, 0, 2);");
 		} else {
@@ -475,54 +798,34 @@ public class GuiClient extends Application {
 		}
 	}
 
-	private int[][] copyBoard(int[][] original) {
-		int[][] copy = new int[6][7];
-		for (int r = 0; r < 6; r++) {
-			System.arraycopy(original[r], 0, copy[r], 0, 7);
-		}
-		return copy;
-	}
-
 	// Animate piece drop with physics effect (prevents rapid clicking during animation)
-	private void animateBoardUpdate(int[][] oldBoard, int[][] newBoard) {
+	private void animateDrop(int row, int col) {
 		animating = true;
-		
-		// Find the new piece position
-		for (int c = 0; c < 7; c++) {
-			for (int r = 0; r < 6; r++) {
-				if (oldBoard[r][c] != newBoard[r][c] && newBoard[r][c] != 0) {
-					final int row = r;
-					final int col = c;
-					
-					// Update board UI first
-					updateGameBoardUI();
-					
-					// Animate the piece drop
-					Circle animatedCircle = circleGrid[row][col];
-					animatedCircle.setTranslateY(-400);
-					
-					TranslateTransition drop = new TranslateTransition(Duration.millis(400), animatedCircle);
-					drop.setToY(0);
-					drop.setOnFinished(e -> {
-						playDropSound();
-						
-						// Bounce effect
-						ScaleTransition bounce = new ScaleTransition(Duration.millis(100), animatedCircle);
-						bounce.setFromX(1.0);
-						bounce.setFromY(1.0);
-						bounce.setToX(1.2);
-						bounce.setToY(1.2);
-						bounce.setAutoReverse(true);
-						bounce.setCycleCount(2);
-						bounce.setOnFinished(ev -> animating = false);
-						bounce.play();
-					});
-					drop.play();
-					return;
-				}
-			}
-		}
-		animating = false;
+
+		// Update board UI first
+		updateGameBoardUI();
+
+		// Animate the piece drop
+		Circle animatedCircle = circleGrid[row][col];
+		animatedCircle.setTranslateY(-400);
+
+		TranslateTransition drop = new TranslateTransition(Duration.millis(400), animatedCircle);
+		drop.setToY(0);
+		drop.setOnFinished(e -> {
+			playDropSound();
+
+			// Bounce effect
+			ScaleTransition bounce = new ScaleTransition(Duration.millis(100), animatedCircle);
+			bounce.setFromX(1.0);
+			bounce.setFromY(1.0);
+			bounce.setToX(1.2);
+			bounce.setToY(1.2);
+			bounce.setAutoReverse(true);
+			bounce.setCycleCount(2);
+			bounce.setOnFinished(ev -> animating = false);
+			bounce.play();
+		});
+		drop.play();
 	}
 
 	private void animateWin() {
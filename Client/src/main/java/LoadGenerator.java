@@ -0,0 +1,643 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Load test for a local server. N simulated players log in, page through the lobby, pair off by
+// challenge and play games with a think time before each move, chatting now and then. They
+// rematch a few times, then disconnect and come back under a new name. The players speak the
+// same frames as Client, but their sockets are multiplexed over a few selector loops, so
+// thousands of players need only a handful of threads. Both players of a pair live on the same
+// loop, so their state needs no locking. Every few seconds it prints move round-trip
+// percentiles (from GAME_MOVE sent to the resulting update received), messages per second in
+// each direction and the error count. A breakdown of the errors follows at the end.
+//
+//   java -cp target/classes LoadGenerator [players] [seconds] [thinkMillis] [loops]
+//
+// -Dconnect4.load.gamesPerSession (default 3) games before a pair reconnects,
+// -Dconnect4.load.chatPercent (10) chance of a chat line with each move,
+// -Dconnect4.load.lobbyPages (3) lobby pages walked after each login,
+// -Dconnect4.load.connectsPerSecond (1000) ramp-up rate.
+public class LoadGenerator {
+	private static final InetSocketAddress SERVER = new InetSocketAddress("127.0.0.1", 5555);
+	private static final int GAMES_PER_SESSION = Integer.getInteger("connect4.load.gamesPerSession", 3);
+	private static final int CHAT_PERCENT = Integer.getInteger("connect4.load.chatPercent", 10);
+	private static final int LOBBY_PAGES = Integer.getInteger("connect4.load.lobbyPages", 3);
+	private static final int CONNECTS_PER_SECOND = Integer.getInteger("connect4.load.connectsPerSecond", 1000);
+	private static final int LOBBY_PAGE_SIZE = 50;
+	private static final long CHALLENGE_RETRY_NANOS = TimeUnit.SECONDS.toNanos(2);
+	private static final long STALL_NANOS = TimeUnit.SECONDS.toNanos(10);
+	private static final long REPORT_MILLIS = 5000;
+
+	// Keeps names unique across runs against the same server (at most 14 characters)
+	private static final String RUN = Integer.toHexString(0x1000 + new Random().nextInt(0xF000));
+	private static final AtomicInteger names = new AtomicInteger();
+
+	private static long thinkNanos;
+
+	// Move round trips in microseconds
+	private static final Histogram moveLatency = new Histogram();
+	private static final LongAdder sent = new LongAdder();
+	private static final LongAdder received = new LongAdder();
+	private static final LongAdder gamesFinished = new LongAdder();
+	private static final AtomicInteger online = new AtomicInteger();
+	private static final AtomicInteger playing = new AtomicInteger();
+
+	private static final LongAdder connectFailures = new LongAdder();
+	private static final LongAdder loginErrors = new LongAdder();
+	private static final LongAdder connectionsLost = new LongAdder();
+	private static final LongAdder protocolErrors = new LongAdder();
+	private static final LongAdder stalledMoves = new LongAdder();
+	private static final LongAdder challengeRetries = new LongAdder();
+
+	public static void main(String[] args) throws Exception {
+		int players = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+		thinkNanos = TimeUnit.MILLISECONDS.toNanos(args.length > 2 ? Long.parseLong(args[2]) : 500);
+		int loopCount = args.length > 3 ? Integer.parseInt(args[3]) : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+		List<Loop> loops = new ArrayList<>();
+		for (int i = 0; i < loopCount; i++) {
+			Loop loop = new Loop("load-" + i);
+			loops.add(loop);
+			loop.start();
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < players / 2; i++) {
+			Loop loop = loops.get(i % loopCount);
+			long at = start + TimeUnit.SECONDS.toNanos(2L * i) / CONNECTS_PER_SECOND;
+			loop.execute(() -> new Pair(loop).connectAt(at));
+		}
+		System.out.printf("%d players on %d loops, %d ms think time, %d s%n",
+				players / 2 * 2, loopCount, TimeUnit.NANOSECONDS.toMillis(thinkNanos), seconds);
+
+		long end = start + TimeUnit.SECONDS.toNanos(seconds);
+		long[] previous = moveLatency.snapshot();
+		long previousSent = 0;
+		long previousReceived = 0;
+		long lastReport = start;
+		while (System.nanoTime() < end) {
+			Thread.sleep(Math.min(REPORT_MILLIS, Math.max(1, TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()))));
+			long now = System.nanoTime();
+			long[] counts = moveLatency.snapshot();
+			long[] interval = new long[counts.length];
+			for (int i = 0; i < counts.length; i++) {
+				interval[i] = counts[i] - previous[i];
+			}
+			long totalSent = sent.sum();
+			long totalReceived = received.sum();
+			double elapsed = (now - lastReport) / 1e9;
+			System.out.printf("%4d s  %5d online  %5d playing  %7d games  moves p50 %s p99 %s p999 %s  in %.0f/s out %.0f/s  errors %d%n",
+					TimeUnit.NANOSECONDS.toSeconds(now - start), online.get(), playing.get(), gamesFinished.sum(),
+					millis(Histogram.percentile(interval, 0.5)), millis(Histogram.percentile(interval, 0.99)),
+					millis(Histogram.percentile(interval, 0.999)), (totalReceived - previousReceived) / elapsed,
+					(totalSent - previousSent) / elapsed, errors());
+			previous = counts;
+			previousSent = totalSent;
+			previousReceived = totalReceived;
+			lastReport = now;
+		}
+
+		for (Loop loop : loops) {
+			loop.shutdown();
+		}
+		for (Loop loop : loops) {
+			loop.join();
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		long[] counts = moveLatency.snapshot();
+		System.out.printf("%nmoves: %d, p50 %s, p99 %s, p999 %s, max %s%n", Histogram.count(counts),
+				millis(Histogram.percentile(counts, 0.5)), millis(Histogram.percentile(counts, 0.99)),
+				millis(Histogram.percentile(counts, 0.999)), millis(Histogram.percentile(counts, 1)));
+		System.out.printf("games: %d, messages: %.0f/s in, %.0f/s out%n", gamesFinished.sum(),
+				received.sum() / elapsed, sent.sum() / elapsed);
+		System.out.printf("errors: %d connect, %d login, %d lost connections, %d protocol, %d stalled moves (%d challenges retried)%n",
+				connectFailures.sum(), loginErrors.sum(), connectionsLost.sum(), protocolErrors.sum(),
+				stalledMoves.sum(), challengeRetries.sum());
+		System.exit(errors() == 0 ? 0 : 1);
+	}
+
+	private static long errors() {
+		return connectFailures.sum() + loginErrors.sum() + connectionsLost.sum() + protocolErrors.sum() + stalledMoves.sum();
+	}
+
+	private static String millis(long micros) {
+		return micros < 0 ? "-" : String.format("%.2f ms", micros / 1000.0);
+	}
+
+	// Log-linear histogram: exact below 64, then 32 buckets per power of two (about 3% error)
+	static final class Histogram {
+		private static final int LINEAR = 64;
+		private static final int SUB_BUCKETS = 32;
+		private final AtomicLongArray counts = new AtomicLongArray(LINEAR + 58 * SUB_BUCKETS);
+
+		void record(long value) {
+			counts.incrementAndGet(index(Math.max(0, value)));
+		}
+
+		long[] snapshot() {
+			long[] copy = new long[counts.length()];
+			for (int i = 0; i < copy.length; i++) {
+				copy[i] = counts.get(i);
+			}
+			return copy;
+		}
+
+		static int index(long value) {
+			if (value < LINEAR) {
+				return (int) value;
+			}
+			int shift = 63 - Long.numberOfLeadingZeros(value) - 5;
+			return LINEAR + (shift - 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+		}
+
+		// Upper bound of the values in a bucket
+		static long value(int index) {
+			if (index < LINEAR) {
+				return index;
+			}
+			int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+			long sub = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+			return ((sub + 1) << shift) - 1;
+		}
+
+		static long count(long[] counts) {
+			long total = 0;
+			for (long c : counts) {
+				total += c;
+			}
+			return total;
+		}
+
+		// -1 when nothing was recorded
+		static long percentile(long[] counts, double p) {
+			long total = count(counts);
+			if (total == 0) {
+				return -1;
+			}
+			long rank = Math.max(1, (long) Math.ceil(p * total));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return value(i);
+				}
+			}
+			return value(counts.length - 1);
+		}
+	}
+
+	// One selector thread with its own timers. Everything about its players runs here
+	static final class Loop extends Thread {
+		private static final class Timer {
+			final long at;
+			final Runnable task;
+
+			Timer(long at, Runnable task) {
+				this.at = at;
+				this.task = task;
+			}
+		}
+
+		final Selector selector;
+		private final PriorityQueue<Timer> timers = new PriorityQueue<>(Comparator.comparingLong((Timer t) -> t.at));
+		private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+		private final List<Pair> pairs = new ArrayList<>();
+		private volatile boolean running = true;
+		boolean stopping;
+
+		Loop(String name) throws IOException {
+			super(name);
+			this.selector = Selector.open();
+		}
+
+		// From any thread
+		void execute(Runnable task) {
+			tasks.add(task);
+			selector.wakeup();
+		}
+
+		// Loop thread only
+		void at(long nanos, Runnable task) {
+			timers.add(new Timer(nanos, task));
+		}
+
+		void shutdown() {
+			execute(() -> {
+				stopping = true;
+				for (Pair pair : pairs) {
+					pair.first.close(false);
+					pair.second.close(false);
+				}
+				running = false;
+			});
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				try {
+					Runnable task;
+					while ((task = tasks.poll()) != null) {
+						task.run();
+					}
+					long now = System.nanoTime();
+					while (!timers.isEmpty() && timers.peek().at - now <= 0) {
+						timers.poll().task.run();
+					}
+					long timeout = timers.isEmpty() ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(timers.peek().at - now));
+					selector.select(timeout);
+					for (SelectionKey key : selector.selectedKeys()) {
+						User user = (User) key.attachment();
+						if (!key.isValid()) {
+							continue;
+						}
+						if (key.isConnectable()) {
+							user.finishConnect();
+						} else {
+							if (key.isReadable()) {
+								user.read();
+							}
+							if (key.isValid() && key.isWritable()) {
+								user.flush();
+							}
+						}
+					}
+					selector.selectedKeys().clear();
+				} catch (IOException e) {
+					System.err.println("Load loop failed: " + e.getMessage());
+				}
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// Exiting anyway
+			}
+		}
+
+		void add(Pair pair) {
+			pairs.add(pair);
+		}
+	}
+
+	// Two players who challenge each other. They play GAMES_PER_SESSION games, then both
+	// disconnect, and the pair reconnects under new names
+	static final class Pair {
+		final Loop loop;
+		final User first;
+		final User second;
+
+		Pair(Loop loop) {
+			this.loop = loop;
+			this.first = new User(this, true);
+			this.second = new User(this, false);
+			loop.add(this);
+		}
+
+		void connectAt(long at) {
+			loop.at(at, () -> {
+				first.connect();
+				second.connect();
+			});
+		}
+
+		User partner(User user) {
+			return user == first ? second : first;
+		}
+
+		void ready() {
+			if (first.ready && second.ready) {
+				first.challenge();
+			}
+		}
+
+		void closed() {
+			if (first.channel == null && second.channel == null && !loop.stopping) {
+				long pause = TimeUnit.MILLISECONDS.toNanos(100 + ThreadLocalRandom.current().nextInt(400));
+				connectAt(System.nanoTime() + pause);
+			}
+		}
+	}
+
+	static final class User {
+		private final Pair pair;
+		private final boolean challenger;
+		String name;
+		SocketChannel channel;
+		private SelectionKey key;
+		private ByteBuffer in = ByteBuffer.allocate(4096);
+		private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+
+		boolean ready;
+		private boolean loggedIn;
+		private int lobbyPagesLeft;
+		private boolean inGame;
+		private int games;
+		private int[][] board;
+		private int lastSequence;
+		private boolean myTurn;
+		private long moveSentAt;
+
+		User(Pair pair, boolean challenger) {
+			this.pair = pair;
+			this.challenger = challenger;
+		}
+
+		void connect() {
+			name = "ld" + RUN + "-" + names.incrementAndGet();
+			ready = false;
+			loggedIn = false;
+			inGame = false;
+			games = 0;
+			moveSentAt = 0;
+			in.clear();
+			out.clear();
+			try {
+				channel = SocketChannel.open();
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				if (channel.connect(SERVER)) {
+					key = channel.register(pair.loop.selector, SelectionKey.OP_READ, this);
+					connected();
+				} else {
+					key = channel.register(pair.loop.selector, SelectionKey.OP_CONNECT, this);
+				}
+			} catch (IOException e) {
+				connectFailures.increment();
+				close(false);
+			}
+		}
+
+		void finishConnect() {
+			try {
+				channel.finishConnect();
+				key.interestOps(SelectionKey.OP_READ);
+				connected();
+			} catch (IOException e) {
+				connectFailures.increment();
+				close(false);
+			}
+		}
+
+		private void connected() {
+			send(new Message(MessageType.LOGIN, name));
+		}
+
+		void read() {
+			int n;
+			try {
+				n = channel.read(in);
+			} catch (IOException e) {
+				n = -1;
+			}
+			if (n < 0) {
+				close(true);
+				return;
+			}
+			in.flip();
+			try {
+				while (channel != null && in.remaining() >= 4) {
+					int length = in.getInt(in.position());
+					MessageCodec.checkLength(length);
+					if (in.remaining() < 4 + length) {
+						if (in.capacity() < 4 + length) {
+							ByteBuffer larger = ByteBuffer.allocate(4 + length);
+							larger.put(in);
+							larger.flip();
+							in = larger;
+						}
+						break;
+					}
+					Message message = MessageCodec.decode(in.array(), in.position() + 4, length);
+					in.position(in.position() + 4 + length);
+					received.increment();
+					handle(message);
+				}
+			} catch (IOException e) {
+				protocolErrors.increment();
+				close(false);
+				return;
+			}
+			if (channel != null) {
+				in.compact();
+			}
+		}
+
+		private void handle(Message message) {
+			switch (message.type) {
+				case LOGIN_SUCCESS:
+					loggedIn = true;
+					online.incrementAndGet();
+					lobbyPagesLeft = LOBBY_PAGES;
+					break;
+				case LOGIN_ERROR:
+					loginErrors.increment();
+					close(false);
+					break;
+				case LOBBY_UPDATE:
+					// Walk a few pages, the way a player scrolls before picking someone
+					if (loggedIn && !ready) {
+						List<String> page = message.playerList;
+						if (--lobbyPagesLeft > 0 && message.hasMore && page != null && !page.isEmpty()) {
+							send(new Message("", page.get(page.size() - 1), LOBBY_PAGE_SIZE));
+						} else {
+							ready = true;
+							pair.ready();
+						}
+					}
+					break;
+				case CHALLENGE_REQUEST:
+					send(new Message(MessageType.CHALLENGE_ACCEPT, name, message.username));
+					break;
+				case GAME_STATE:
+					if (!inGame && challenger) {
+						playing.incrementAndGet();
+					}
+					inGame = true;
+					board = message.board;
+					lastSequence = message.sequence;
+					turn(message.isPlayerTurn);
+					break;
+				case GAME_DELTA:
+					if (message.sequence != lastSequence + 1) {
+						send(new Message(MessageType.GAME_RESYNC, name));
+						break;
+					}
+					lastSequence = message.sequence;
+					board[message.row][message.column] = message.player;
+					turn(message.isPlayerTurn);
+					break;
+				case GAME_WIN:
+				case GAME_LOSE:
+				case GAME_DRAW:
+					acknowledgeMove();
+					gameOver();
+					if (++games < GAMES_PER_SESSION) {
+						send(new Message(MessageType.GAME_RESTART, name));
+					} else {
+						close(false);
+					}
+					break;
+				case DISCONNECT:
+					// The opponent left first; follow them out
+					close(false);
+					break;
+				default:
+					// Lobby deltas, chat and notices
+					break;
+			}
+		}
+
+		void challenge() {
+			// A retry may fire after the pair reconnected, before the new socket is even open
+			if (channel == null || inGame || !loggedIn) {
+				return;
+			}
+			send(new Message(MessageType.CHALLENGE_REQUEST, name, pair.partner(this).name));
+			// Dropped if the partner was not in the lobby yet
+			pair.loop.at(System.nanoTime() + CHALLENGE_RETRY_NANOS, () -> {
+				if (channel != null && !inGame && games == 0) {
+					challengeRetries.increment();
+					challenge();
+				}
+			});
+		}
+
+		private void turn(boolean isPlayerTurn) {
+			acknowledgeMove();
+			myTurn = isPlayerTurn;
+			if (myTurn) {
+				long think = thinkNanos / 2 + (thinkNanos > 0 ? ThreadLocalRandom.current().nextLong(thinkNanos) : 0);
+				int sequence = lastSequence;
+				pair.loop.at(System.nanoTime() + think, () -> {
+					if (channel != null && inGame && myTurn && lastSequence == sequence) {
+						move();
+					}
+				});
+			}
+		}
+
+		private void move() {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			int column;
+			do {
+				column = random.nextInt(board[0].length);
+			} while (board[0][column] != 0);
+			long sentAt = System.nanoTime();
+			moveSentAt = sentAt;
+			myTurn = false;
+			send(new Message(name, column));
+			if (random.nextInt(100) < CHAT_PERCENT) {
+				send(new Message(name, pair.partner(this).name, "gl hf"));
+			}
+			pair.loop.at(sentAt + STALL_NANOS, () -> {
+				if (moveSentAt == sentAt) {
+					stalledMoves.increment();
+					moveSentAt = 0;
+				}
+			});
+		}
+
+		// The first update after our move is the server's answer to it
+		private void acknowledgeMove() {
+			if (moveSentAt != 0) {
+				moveLatency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - moveSentAt));
+				moveSentAt = 0;
+			}
+		}
+
+		private void gameOver() {
+			if (inGame) {
+				inGame = false;
+				if (challenger) {
+					playing.decrementAndGet();
+					gamesFinished.increment();
+				}
+			}
+		}
+
+		void send(Message message) {
+			if (channel == null) {
+				return;
+			}
+			try {
+				ByteBuffer frame = ByteBuffer.wrap(MessageCodec.encode(message));
+				sent.increment();
+				if (out.isEmpty()) {
+					channel.write(frame);
+				}
+				if (frame.hasRemaining()) {
+					out.add(frame);
+					key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				}
+			} catch (IOException e) {
+				close(true);
+			}
+		}
+
+		void flush() {
+			try {
+				while (!out.isEmpty()) {
+					ByteBuffer frame = out.peek();
+					channel.write(frame);
+					if (frame.hasRemaining()) {
+						return;
+					}
+					out.poll();
+				}
+				key.interestOps(SelectionKey.OP_READ);
+			} catch (IOException e) {
+				close(true);
+			}
+		}
+
+		// lost: the server closed on us rather than the player choosing to leave
+		void close(boolean lost) {
+			if (channel == null) {
+				return;
+			}
+			if (lost && !pair.loop.stopping) {
+				connectionsLost.increment();
+			}
+			if (inGame && challenger) {
+				playing.decrementAndGet();
+			}
+			inGame = false;
+			if (loggedIn) {
+				online.decrementAndGet();
+				loggedIn = false;
+				// Say goodbye like GuiClient does, or the server holds the seat for a reconnect
+				if (!lost) {
+					try {
+						channel.write(ByteBuffer.wrap(MessageCodec.encode(new Message(MessageType.DISCONNECT, name))));
+					} catch (IOException e) {
+						// Closing anyway
+					}
+				}
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// Already gone
+			}
+			channel = null;
+			key = null;
+			pair.closed();
+		}
+	}
+}
@@ -0,0 +1,177 @@
+import java.io.Serializable;
+import java.util.List;
+
+public class Message implements Serializable {
+    static final long serialVersionUID = 42L;
+    MessageType type;
+    String message;
+    String username;
+    String recipient;
+    int column;
+    int[][] board;
+    boolean isPlayerTurn;
+    // Declared as List, as older clients expect in version 1 frames; whatever is put in them
+    // must be serializable, and the codec and server only ever use ArrayLists
+    @SuppressWarnings("serial")
+    List<String> playerList;
+    // Lobby deltas: players who left the lobby (playerList holds the ones who joined)
+    @SuppressWarnings("serial")
+    List<String> removedList;
+    // Lobby paging: names starting with prefix, after cursor (null for the first page)
+    String prefix;
+    String cursor;
+    int pageSize;
+    boolean hasMore;
+    // Move deltas: where the piece landed and which update of the game this is
+    int row;
+    int player;
+    int moveNumber;
+    int sequence;
+    // Position analysis, one entry per column for the player to move: n > 0 wins with their
+    // n-th move from now, -n loses to the opponent's n-th move, 0 draws with best play
+    int[] evaluations;
+    static final int COLUMN_FULL = Byte.MIN_VALUE;
+    static final int UNSOLVED = Byte.MAX_VALUE;
+    // Issued with LOGIN_SUCCESS; a client whose connection dropped mid-game sends it back in
+    // SESSION_RESUME to take its seat again
+    long token;
+    // Leaderboard pages: the rank of the first player in playerList, how many players are
+    // ranked, and each listed player's rating. A query asks for pageSize players from rank,
+    // or around username when it is set
+    int rank;
+    int total;
+    int[] ratings;
+    // Results passed between cluster nodes: username beat recipient, or drew with them
+    boolean draw;
+
+    // Constructor for decoding, MessageCodec fills in the fields for the type
+    Message(MessageType type) {
+        this.type = type;
+    }
+
+    public Message(String message) {
+        this.type = MessageType.SIMPLE;
+        this.message = message;
+    }
+
+    public Message(MessageType type, String username) {
+        this.type = type;
+        this.username = username;
+    }
+
+    // Constructor for LOGIN_SUCCESS and SESSION_RESUME
+    public Message(MessageType type, String username, long token) {
+        this(type, username);
+        this.token = token;
+    }
+
+    public Message(String username, int column) {
+        this.type = MessageType.GAME_MOVE;
+        this.username = username;
+        this.column = column;
+    }
+
+    public Message(MessageType type, int[][] board, boolean isPlayerTurn) {
+        this.type = type;
+        this.board = board;
+        this.isPlayerTurn = isPlayerTurn;
+    }
+
+    // Constructor for full board snapshots
+    public Message(MessageType type, int[][] board, boolean isPlayerTurn, int sequence) {
+        this(type, board, isPlayerTurn);
+        this.sequence = sequence;
+    }
+
+    // Constructor for a single accepted move
+    public Message(int column, int row, int player, int moveNumber, int sequence, boolean isPlayerTurn) {
+        this.type = MessageType.GAME_DELTA;
+        this.column = column;
+        this.row = row;
+        this.player = player;
+        this.moveNumber = moveNumber;
+        this.sequence = sequence;
+        this.isPlayerTurn = isPlayerTurn;
+    }
+
+    public Message(String sender, String recipient, String message) {
+        this.type = MessageType.TEXT;
+        this.username = sender;
+        this.recipient = recipient;
+        this.message = message;
+    }
+
+    public Message(MessageType type, String message, int[][] finalBoard) {
+        this.type = type;
+        this.message = message;
+        this.board = finalBoard;
+    }
+
+    // Constructor for lobby player list
+    public Message(MessageType type, List<String> playerList) {
+        this.type = type;
+        this.playerList = playerList;
+    }
+
+    // Constructor for a versioned snapshot of one lobby page
+    public Message(List<String> playerList, String prefix, String cursor, boolean hasMore, int sequence) {
+        this(MessageType.LOBBY_UPDATE, playerList);
+        this.prefix = prefix;
+        this.cursor = cursor;
+        this.hasMore = hasMore;
+        this.sequence = sequence;
+    }
+
+    // Constructor for a lobby page request
+    public Message(String prefix, String cursor, int pageSize) {
+        this.type = MessageType.LOBBY_QUERY;
+        this.prefix = prefix;
+        this.cursor = cursor;
+        this.pageSize = pageSize;
+    }
+
+    // Constructor for lobby changes since the previous version
+    public Message(List<String> added, List<String> removed, int sequence) {
+        this.type = MessageType.LOBBY_DELTA;
+        this.playerList = added;
+        this.removedList = removed;
+        this.sequence = sequence;
+    }
+
+    // Constructor for the analysis of the game position after update number sequence
+    public Message(int[] evaluations, int sequence) {
+        this.type = MessageType.ANALYSIS_RESULT;
+        this.evaluations = evaluations;
+        this.sequence = sequence;
+    }
+
+    // Constructor for a leaderboard page request, from rank or around a player
+    public Message(String username, int rank, int pageSize) {
+        this.type = MessageType.LEADERBOARD_QUERY;
+        this.username = username;
+        this.rank = rank;
+        this.pageSize = pageSize;
+    }
+
+    // Constructor for a page of the leaderboard, best first
+    public Message(String username, int rank, int total, List<String> playerList, int[] ratings) {
+        this(MessageType.LEADERBOARD, playerList);
+        this.username = username;
+        this.rank = rank;
+        this.total = total;
+        this.ratings = ratings;
+    }
+
+    // Constructor for a rated game's result, sent to the cluster node that keeps ratings
+    public Message(MessageType type, String winner, String loser, boolean draw) {
+        this(type, winner, loser);
+        this.draw = draw;
+    }
+
+    // Constructor for challenge requests
+    public Message(MessageType type, String sender, String recipient) {
+        this.type = type;
+        this.username = sender;
+        this.recipient = recipient;
+    }
+}
\ No newline at end of file
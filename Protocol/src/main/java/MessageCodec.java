@@ -0,0 +1,543 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Length-prefixed framing shared by Client and Server.
+// Frame: 4-byte big-endian payload length, then the payload.
+// Payload: 1 version byte, then either a serialized Message (SERIALIZED)
+// or a type byte followed by that type's fields (BINARY):
+//   SIMPLE                               message
+//   TEXT                                 username, recipient, message
+//   NEWUSER, DISCONNECT, LOGIN,
+//   LOGIN_ERROR, GAME_RESTART,
+//   QUEUE_JOIN, QUEUE_LEAVE              username
+//   LOGIN_SUCCESS, SESSION_RESUME        username, 8-byte token
+//   GAME_MOVE                            column byte
+//   GAME_STATE                           board, turn byte, 4-byte sequence
+//   GAME_DELTA                           column, row, player, move number and turn bytes,
+//                                        4-byte sequence
+//   GAME_RESYNC                          nothing
+//   GAME_WIN, GAME_LOSE, GAME_DRAW       message, board
+//   LOBBY_UPDATE                         4-byte version, prefix, cursor, has-more byte,
+//                                        2-byte count, usernames
+//   LOBBY_DELTA                          4-byte version, 2-byte count, added usernames,
+//                                        2-byte count, removed usernames
+//   LOBBY_RESYNC                         nothing
+//   LOBBY_QUERY                          prefix, cursor, 2-byte page size
+//   CHALLENGE_REQUEST/ACCEPT/DECLINE,
+//   SPECTATE                             username, recipient
+//   ANALYSIS_REQUEST                     nothing
+//   ANALYSIS_RESULT                      4-byte sequence, one signed byte per column
+//   LEADERBOARD_QUERY                    username, 4-byte rank, 2-byte page size
+//   LEADERBOARD                          4-byte rank, 4-byte total, username, 2-byte count,
+//                                        usernames, 4-byte rating per username
+//   GAME_RESULT                          username, recipient, draw byte
+// Strings are a 2-byte UTF-8 length (0xFFFF for null) plus the bytes,
+// a board is 42 two-bit cells packed row by row into 11 bytes.
+public class MessageCodec {
+    static final int HEADER_BYTES = 4;
+    static final int MAX_FRAME_BYTES = 1 << 20;
+
+    static final byte SERIALIZED = 1;
+    static final byte BINARY = 2;
+    // Decoders accept both versions; -Dconnect4.wireFormat=serialized sends the old format
+    static final byte WIRE_VERSION = "serialized".equals(System.getProperty("connect4.wireFormat")) ? SERIALIZED : BINARY;
+    // Decoding a serialized frame runs ObjectInputStream on bytes from the peer, so it is only
+    // done by a side that sends the old format itself or is started with
+    // -Dconnect4.acceptSerialized=true, and then only for the classes a Message is built from
+    static final boolean ACCEPT_SERIALIZED = WIRE_VERSION == SERIALIZED || Boolean.getBoolean("connect4.acceptSerialized");
+    private static final Set<String> SERIALIZED_CLASSES = new HashSet<>(Arrays.asList(
+            Message.class.getName(), MessageType.class.getName(), Enum.class.getName(),
+            ArrayList.class.getName(), String.class.getName(), int[].class.getName(), int[][].class.getName()));
+
+    static final int ROWS = 6;
+    static final int COLUMNS = 7;
+    static final int BOARD_BYTES = (ROWS * COLUMNS * 2 + 7) / 8;
+    private static final int NULL_STRING = 0xFFFF;
+    private static final MessageType[] TYPES = MessageType.values();
+
+    // Encode a message into a complete frame (header included)
+    public static byte[] encode(Message message) throws IOException {
+        return WIRE_VERSION == SERIALIZED ? encodeSerialized(message) : encodeBinary(message);
+    }
+
+    // Every frame gets its own object stream, so the stream's handle table (and with it every
+    // message, board and name list written) is dropped with the frame instead of living as long
+    // as the connection. Unshared, the message itself never enters the table at all
+    static byte[] encodeSerialized(Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        bytes.write(new byte[HEADER_BYTES]);
+        bytes.write(SERIALIZED);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeUnshared(message);
+        }
+        byte[] frame = bytes.toByteArray();
+        ByteBuffer.wrap(frame).putInt(0, frame.length - HEADER_BYTES);
+        return frame;
+    }
+
+    static byte[] encodeBinary(Message message) {
+        byte[][] strings = utf8Fields(message);
+        int payload = 2 + bodySize(message, strings);
+        ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + payload);
+        out.putInt(payload);
+        out.put(BINARY);
+        out.put((byte) message.type.ordinal());
+
+        switch (message.type) {
+            case GAME_MOVE:
+                out.put((byte) message.column);
+                break;
+            case GAME_STATE:
+                putBoard(out, message.board);
+                out.put((byte) (message.isPlayerTurn ? 1 : 0));
+                out.putInt(message.sequence);
+                break;
+            case GAME_DELTA:
+                out.put((byte) message.column);
+                out.put((byte) message.row);
+                out.put((byte) message.player);
+                out.put((byte) message.moveNumber);
+                out.put((byte) (message.isPlayerTurn ? 1 : 0));
+                out.putInt(message.sequence);
+                break;
+            case GAME_WIN:
+            case GAME_LOSE:
+            case GAME_DRAW:
+                putString(out, strings[0]);
+                putBoard(out, message.board);
+                break;
+            case LOBBY_UPDATE:
+                out.putInt(message.sequence);
+                putString(out, strings[0]);
+                putString(out, strings[1]);
+                out.put((byte) (message.hasMore ? 1 : 0));
+                putStrings(out, strings, 2, strings.length);
+                break;
+            case LOBBY_QUERY:
+                putString(out, strings[0]);
+                putString(out, strings[1]);
+                out.putShort((short) message.pageSize);
+                break;
+            case LOBBY_DELTA:
+                int added = size(message.playerList);
+                out.putInt(message.sequence);
+                putStrings(out, strings, 0, added);
+                putStrings(out, strings, added, strings.length);
+                break;
+            case ANALYSIS_RESULT:
+                out.putInt(message.sequence);
+                for (int c = 0; c < COLUMNS; c++) {
+                    out.put((byte) (message.evaluations != null ? message.evaluations[c] : Message.UNSOLVED));
+                }
+                break;
+            case LEADERBOARD_QUERY:
+                putString(out, strings[0]);
+                out.putInt(message.rank);
+                out.putShort((short) message.pageSize);
+                break;
+            case LEADERBOARD:
+                out.putInt(message.rank);
+                out.putInt(message.total);
+                putString(out, strings[0]);
+                putStrings(out, strings, 1, strings.length);
+                for (int i = 0; i < strings.length - 1; i++) {
+                    out.putInt(message.ratings[i]);
+                }
+                break;
+            case LOGIN_SUCCESS:
+            case SESSION_RESUME:
+                putString(out, strings[0]);
+                out.putLong(message.token);
+                break;
+            case GAME_RESULT:
+                putString(out, strings[0]);
+                putString(out, strings[1]);
+                out.put((byte) (message.draw ? 1 : 0));
+                break;
+            default:
+                for (byte[] s : strings) {
+                    putString(out, s);
+                }
+                break;
+        }
+        return out.array();
+    }
+
+    // A copy of frame carrying sequence as its version. For fan-out of a binary frame whose
+    // body starts with the 4-byte version (LOBBY_UPDATE, LOBBY_DELTA, ANALYSIS_RESULT) to
+    // recipients that differ only in that number: one encode, then a copy per recipient.
+    // Returns null for any other frame, which the caller encodes per recipient as before
+    public static byte[] restamp(byte[] frame, int sequence) {
+        if (frame[HEADER_BYTES] != BINARY) {
+            return null;
+        }
+        MessageType type = TYPES[frame[HEADER_BYTES + 1]];
+        if (type != MessageType.LOBBY_UPDATE && type != MessageType.LOBBY_DELTA && type != MessageType.ANALYSIS_RESULT) {
+            return null;
+        }
+        byte[] copy = frame.clone();
+        ByteBuffer.wrap(copy).putInt(HEADER_BYTES + 2, sequence);
+        return copy;
+    }
+
+    // The string fields a type carries, in wire order, already UTF-8 encoded
+    private static byte[][] utf8Fields(Message message) {
+        switch (message.type) {
+            case SIMPLE:
+            case GAME_WIN:
+            case GAME_LOSE:
+            case GAME_DRAW:
+                return utf8(message.message);
+            case TEXT:
+                return utf8(message.username, message.recipient, message.message);
+            case NEWUSER:
+            case DISCONNECT:
+            case LOGIN:
+            case LOGIN_SUCCESS:
+            case LOGIN_ERROR:
+            case GAME_RESTART:
+            case SESSION_RESUME:
+            case QUEUE_JOIN:
+            case QUEUE_LEAVE:
+            case LEADERBOARD_QUERY:
+                return utf8(message.username);
+            case CHALLENGE_REQUEST:
+            case CHALLENGE_ACCEPT:
+            case CHALLENGE_DECLINE:
+            case SPECTATE:
+            case GAME_RESULT:
+                return utf8(message.username, message.recipient);
+            case LOBBY_UPDATE:
+                List<String> page = new ArrayList<>(2 + size(message.playerList));
+                page.add(message.prefix);
+                page.add(message.cursor);
+                page.addAll(Arrays.asList(names(message.playerList)));
+                return utf8(page.toArray(new String[0]));
+            case LOBBY_QUERY:
+                return utf8(message.prefix, message.cursor);
+            case LEADERBOARD:
+                List<String> board = new ArrayList<>(1 + size(message.playerList));
+                board.add(message.username);
+                board.addAll(Arrays.asList(names(message.playerList)));
+                return utf8(board.toArray(new String[0]));
+            case LOBBY_DELTA:
+                List<String> changed = new ArrayList<>(size(message.playerList) + size(message.removedList));
+                changed.addAll(Arrays.asList(names(message.playerList)));
+                changed.addAll(Arrays.asList(names(message.removedList)));
+                return utf8(changed.toArray(new String[0]));
+            default:
+                return new byte[0][];
+        }
+    }
+
+    private static int bodySize(Message message, byte[][] strings) {
+        int size = 0;
+        for (byte[] s : strings) {
+            size += 2 + (s != null ? s.length : 0);
+        }
+        switch (message.type) {
+            case GAME_MOVE:
+                return size + 1;
+            case GAME_STATE:
+                return size + BOARD_BYTES + 5;
+            case GAME_DELTA:
+                return size + 9;
+            case GAME_WIN:
+            case GAME_LOSE:
+            case GAME_DRAW:
+                return size + BOARD_BYTES;
+            case LOBBY_UPDATE:
+                return size + 7;
+            case LOBBY_QUERY:
+                return size + 2;
+            case LOBBY_DELTA:
+                return size + 8;
+            case ANALYSIS_RESULT:
+                return size + 4 + COLUMNS;
+            case LEADERBOARD_QUERY:
+                return size + 6;
+            case LEADERBOARD:
+                return size + 10 + 4 * (strings.length - 1);
+            case LOGIN_SUCCESS:
+            case SESSION_RESUME:
+                return size + 8;
+            case GAME_RESULT:
+                return size + 1;
+            default:
+                return size;
+        }
+    }
+
+    private static int size(List<String> names) {
+        return names != null ? names.size() : 0;
+    }
+
+    private static String[] names(List<String> names) {
+        return names != null ? names.toArray(new String[0]) : new String[0];
+    }
+
+    private static byte[][] utf8(String... values) {
+        byte[][] encoded = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            encoded[i] = values[i] != null ? values[i].getBytes(StandardCharsets.UTF_8) : null;
+        }
+        return encoded;
+    }
+
+    private static void putString(ByteBuffer out, byte[] utf8) {
+        if (utf8 == null) {
+            out.putShort((short) NULL_STRING);
+            return;
+        }
+        if (utf8.length >= NULL_STRING) {
+            throw new IllegalArgumentException("String too long for frame");
+        }
+        out.putShort((short) utf8.length);
+        out.put(utf8);
+    }
+
+    // A 2-byte count followed by strings[from..to)
+    private static void putStrings(ByteBuffer out, byte[][] strings, int from, int to) {
+        if (to - from > 0xFFFF) {
+            throw new IllegalArgumentException("Too many names for frame");
+        }
+        out.putShort((short) (to - from));
+        for (int i = from; i < to; i++) {
+            putString(out, strings[i]);
+        }
+    }
+
+    private static List<String> getStrings(ByteBuffer in) {
+        String[] strings = new String[in.getShort() & 0xFFFF];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = getString(in);
+        }
+        return new ArrayList<>(Arrays.asList(strings));
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getShort() & 0xFFFF;
+        if (length == NULL_STRING) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    // Cell i (row-major) lives in bits 2i..2i+1 of the packed board
+    private static void putBoard(ByteBuffer out, int[][] board) {
+        byte[] packed = new byte[BOARD_BYTES];
+        if (board != null) {
+            for (int r = 0; r < ROWS; r++) {
+                for (int c = 0; c < COLUMNS; c++) {
+                    int i = r * COLUMNS + c;
+                    packed[i >> 2] = (byte) (packed[i >> 2] | (board[r][c] & 3) << ((i & 3) * 2));
+                }
+            }
+        }
+        out.put(packed);
+    }
+
+    private static int[][] getBoard(ByteBuffer in) {
+        int[][] board = new int[ROWS][COLUMNS];
+        int base = in.position();
+        for (int r = 0; r < ROWS; r++) {
+            for (int c = 0; c < COLUMNS; c++) {
+                int i = r * COLUMNS + c;
+                board[r][c] = (in.get(base + (i >> 2)) >> ((i & 3) * 2)) & 3;
+            }
+        }
+        in.position(base + BOARD_BYTES);
+        return board;
+    }
+
+    // Decode a payload (header already stripped)
+    public static Message decode(byte[] payload, int offset, int length) throws IOException {
+        if (length < 1) {
+            throw new IOException("Empty frame");
+        }
+        byte version = payload[offset];
+        if (version == BINARY) {
+            return decodeBinary(ByteBuffer.wrap(payload, offset + 1, length - 1));
+        }
+        if (version == SERIALIZED && ACCEPT_SERIALIZED) {
+            return decodeSerialized(payload, offset + 1, length - 1);
+        }
+        throw new IOException("Unsupported wire version " + version);
+    }
+
+    static Message decodeSerialized(byte[] payload, int offset, int length) throws IOException {
+        try (ObjectInputStream in = new MessageInputStream(new ByteArrayInputStream(payload, offset, length))) {
+            // Per frame for the same reason as encodeSerialized
+            return (Message) in.readUnshared();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Malformed frame", e);
+        }
+    }
+
+    // Refuses any class outside SERIALIZED_CLASSES before it is loaded or instantiated
+    private static final class MessageInputStream extends ObjectInputStream {
+        MessageInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (!SERIALIZED_CLASSES.contains(desc.getName())) {
+                throw new InvalidClassException(desc.getName(), "not allowed in a frame");
+            }
+            return super.resolveClass(desc);
+        }
+    }
+
+    private static Message decodeBinary(ByteBuffer in) throws IOException {
+        try {
+            int ordinal = in.get() & 0xFF;
+            if (ordinal >= TYPES.length) {
+                throw new IOException("Unknown message type " + ordinal);
+            }
+            Message message = new Message(TYPES[ordinal]);
+            switch (message.type) {
+                case SIMPLE:
+                    message.message = getString(in);
+                    break;
+                case TEXT:
+                    message.username = getString(in);
+                    message.recipient = getString(in);
+                    message.message = getString(in);
+                    break;
+                case GAME_MOVE:
+                    message.column = in.get();
+                    break;
+                case GAME_STATE:
+                    message.board = getBoard(in);
+                    message.isPlayerTurn = in.get() != 0;
+                    message.sequence = in.getInt();
+                    break;
+                case GAME_DELTA:
+                    message.column = in.get();
+                    message.row = in.get();
+                    message.player = in.get();
+                    message.moveNumber = in.get();
+                    message.isPlayerTurn = in.get() != 0;
+                    message.sequence = in.getInt();
+                    break;
+                case GAME_WIN:
+                case GAME_LOSE:
+                case GAME_DRAW:
+                    message.message = getString(in);
+                    message.board = getBoard(in);
+                    break;
+                case LOBBY_UPDATE:
+                    message.sequence = in.getInt();
+                    message.prefix = getString(in);
+                    message.cursor = getString(in);
+                    message.hasMore = in.get() != 0;
+                    message.playerList = getStrings(in);
+                    break;
+                case LOBBY_QUERY:
+                    message.prefix = getString(in);
+                    message.cursor = getString(in);
+                    message.pageSize = in.getShort() & 0xFFFF;
+                    break;
+                case LOBBY_DELTA:
+                    message.sequence = in.getInt();
+                    message.playerList = getStrings(in);
+                    message.removedList = getStrings(in);
+                    break;
+                case ANALYSIS_RESULT:
+                    message.sequence = in.getInt();
+                    message.evaluations = new int[COLUMNS];
+                    for (int c = 0; c < COLUMNS; c++) {
+                        message.evaluations[c] = in.get();
+                    }
+                    break;
+                case LEADERBOARD_QUERY:
+                    message.username = getString(in);
+                    message.rank = in.getInt();
+                    message.pageSize = in.getShort() & 0xFFFF;
+                    break;
+                case LEADERBOARD:
+                    message.rank = in.getInt();
+                    message.total = in.getInt();
+                    message.username = getString(in);
+                    message.playerList = getStrings(in);
+                    message.ratings = new int[message.playerList.size()];
+                    for (int i = 0; i < message.ratings.length; i++) {
+                        message.ratings[i] = in.getInt();
+                    }
+                    break;
+                case CHALLENGE_REQUEST:
+                case CHALLENGE_ACCEPT:
+                case CHALLENGE_DECLINE:
+                case SPECTATE:
+                    message.username = getString(in);
+                    message.recipient = getString(in);
+                    break;
+                case LOGIN_SUCCESS:
+                case SESSION_RESUME:
+                    message.username = getString(in);
+                    message.token = in.getLong();
+                    break;
+                case GAME_RESULT:
+                    message.username = getString(in);
+                    message.recipient = getString(in);
+                    message.draw = in.get() != 0;
+                    break;
+                case NEWUSER:
+                case DISCONNECT:
+                case LOGIN:
+                case LOGIN_ERROR:
+                case GAME_RESTART:
+                case QUEUE_JOIN:
+                case QUEUE_LEAVE:
+                    message.username = getString(in);
+                    break;
+                default:
+                    break;
+            }
+            return message;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Truncated frame", e);
+        }
+    }
+
+    public static void checkLength(int length) throws IOException {
+        if (length <= 0 || length > MAX_FRAME_BYTES) {
+            throw new IOException("Invalid frame length " + length);
+        }
+    }
+
+    public static void writeFrame(OutputStream out, Message message) throws IOException {
+        out.write(encode(message));
+        out.flush();
+    }
+
+    public static Message readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        checkLength(length);
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return decode(payload, 0, length);
+    }
+}
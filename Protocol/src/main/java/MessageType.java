@@ -0,0 +1,7 @@
+// The binary codec sends the ordinal, so new types must only be appended
+public enum MessageType {
+    SIMPLE, TEXT, NEWUSER, DISCONNECT, LOGIN, LOGIN_SUCCESS, LOGIN_ERROR, GAME_MOVE, GAME_STATE, GAME_WIN, GAME_LOSE, GAME_DRAW, GAME_RESTART, LOBBY_UPDATE, CHALLENGE_REQUEST, CHALLENGE_ACCEPT, CHALLENGE_DECLINE,
+    GAME_DELTA, GAME_RESYNC, LOBBY_DELTA, LOBBY_RESYNC, LOBBY_QUERY,
+    ANALYSIS_REQUEST, ANALYSIS_RESULT, SESSION_RESUME, SPECTATE, QUEUE_JOIN, QUEUE_LEAVE,
+    LEADERBOARD_QUERY, LEADERBOARD, GAME_RESULT
+}
@@ -0,0 +1,144 @@
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Answers ANALYSIS_REQUEST: exact per-column outcomes for the position a player is looking at.
+// The transport thread only copies the position out of the game. The work runs on a small
+// executor with a bounded queue, and a request that finds the queue full is answered at once
+// as unsolved, so hint traffic can never hold up moves. Results come from the shared
+// EvaluationCache, then the opening book, then the exact solver under a time limit.
+public class Analyzer {
+	private final Server server;
+	private final ParallelSolver solver;
+	private final OpeningBook book;
+	private final EvaluationCache cache;
+	private final ThreadPoolExecutor executor;
+	private final long budgetMillis;
+	private final AtomicLong requests = new AtomicLong();
+
+	// -Dconnect4.analysisThreads requests may be worked on at once with -Dconnect4.analysisQueue
+	// more waiting; each gets -Dconnect4.analysisMillis to solve a position the cache and the book
+	// do not know, and the cache holds -Dconnect4.analysisCacheSize positions
+	Analyzer(Server server, ParallelSolver solver, OpeningBook book) {
+		this.server = server;
+		this.solver = solver;
+		this.book = book;
+		this.cache = new EvaluationCache(Integer.getInteger("connect4.analysisCacheSize", 1 << 16));
+		this.budgetMillis = Long.getLong("connect4.analysisMillis", 2000);
+		int threads = Integer.getInteger("connect4.analysisThreads", 2);
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(Integer.getInteger("connect4.analysisQueue", 256)), r -> {
+					Thread t = new Thread(r, "analysis");
+					t.setDaemon(true);
+					return t;
+				});
+	}
+
+	EvaluationCache cache() {
+		return cache;
+	}
+
+	// Transport thread: snapshot the session's game and queue the analysis
+	void request(SessionRegistry.Session session) {
+		Game game = session.game;
+		if (game == null) {
+			return;
+		}
+		long current;
+		long mask;
+		long hash;
+		long mirrorHash;
+		int moves;
+		int sequence;
+		game.lock.lock();
+		try {
+			if (game.checkWin() || game.checkDraw()) {
+				return;
+			}
+			current = game.moverPieces();
+			mask = game.occupied();
+			hash = game.hash();
+			mirrorHash = game.mirrorHash();
+			moves = game.getMoveCount();
+			sequence = game.getSequence();
+		} finally {
+			game.lock.unlock();
+		}
+
+		try {
+			executor.execute(() -> reply(session, sequence, evaluations(analyze(current, mask, hash, mirrorHash), moves)));
+		} catch (RejectedExecutionException e) {
+			reply(session, sequence, evaluations(null, moves));
+		}
+		if (requests.incrementAndGet() % 1000 == 0) {
+			server.log("Analysis cache: " + cache);
+		}
+	}
+
+	// Solver scores for each column, or null if the position could not be solved in time.
+	// The cache holds the orientation with the smaller hash; a mirrored hit is flipped back
+	int[] analyze(long current, long mask, long hash, long mirrorHash) {
+		boolean flip = mirrorHash < hash;
+		long cacheHash = Math.min(hash, mirrorHash);
+		long key = OpeningBook.canonicalKey(current, mask);
+
+		byte[] cached = cache.get(cacheHash, key);
+		if (cached != null) {
+			int[] scores = new int[Game.COLUMNS];
+			for (int c = 0; c < Game.COLUMNS; c++) {
+				byte score = cached[flip ? Game.COLUMNS - 1 - c : c];
+				scores[c] = score == OpeningBook.FULL ? ParallelSolver.UNKNOWN : score;
+			}
+			return scores;
+		}
+
+		int[] scores = book != null ? book.lookup(current, mask) : null;
+		if (scores == null) {
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+			scores = solver.analyze(current, mask, Long.bitCount(mask), deadline);
+			if (scores == null) {
+				return null;
+			}
+		}
+		byte[] stored = new byte[Game.COLUMNS];
+		for (int c = 0; c < Game.COLUMNS; c++) {
+			int score = scores[flip ? Game.COLUMNS - 1 - c : c];
+			stored[c] = score == ParallelSolver.UNKNOWN ? OpeningBook.FULL : (byte) score;
+		}
+		cache.put(cacheHash, key, stored);
+		return scores;
+	}
+
+	private void reply(SessionRegistry.Session session, int sequence, int[] evaluations) {
+		try {
+			session.connection.send(new Message(evaluations, sequence));
+		} catch (IOException e) {
+			System.err.println("Error sending analysis");
+		}
+	}
+
+	// Solver scores count the stones the winner has left; players want to know how soon. The
+	// winning stone is move number W (counting from 0), where score = (43 - W) / 2 rounded down,
+	// and W has the parity of whoever plays it
+	static int[] evaluations(int[] scores, int moves) {
+		int[] evaluations = new int[Game.COLUMNS];
+		for (int c = 0; c < Game.COLUMNS; c++) {
+			int score = scores != null ? scores[c] : 0;
+			if (scores == null) {
+				evaluations[c] = Message.UNSOLVED;
+			} else if (score == ParallelSolver.UNKNOWN) {
+				evaluations[c] = Message.COLUMN_FULL;
+			} else if (score > 0) {
+				int w = (moves % 2 == 1 ? Solver.MAX_MOVES + 1 : Solver.MAX_MOVES) - 2 * score;
+				evaluations[c] = (w - moves) / 2 + 1;
+			} else if (score < 0) {
+				int w = (moves % 2 == 0 ? Solver.MAX_MOVES + 1 : Solver.MAX_MOVES) + 2 * score;
+				evaluations[c] = -((w - moves + 1) / 2);
+			}
+		}
+		return evaluations;
+	}
+}
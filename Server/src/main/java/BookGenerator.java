@@ -0,0 +1,158 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Offline builder for OpeningBook files. Collects every undecided position up to depth moves,
+// folding mirror images together. Only the deepest ply is solved with ParallelSolver (they are
+// the cheapest to solve, and they share one table). Each shallower position is then scored from
+// its children already in the book, so the expensive near-empty boards are never searched.
+// An optional prefix limits the book to the positions that follow one opening.
+//
+//   java -cp target/classes BookGenerator opening.book [depth] [threads] [prefix]
+public class BookGenerator {
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("usage: BookGenerator <file> [depth] [threads] [prefix]");
+			System.exit(2);
+		}
+		Path file = Paths.get(args[0]);
+		int depth = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		String prefix = args.length > 3 ? args[3] : "";
+
+		Game root = Game.fromMoves(prefix);
+		if (depth < root.getMoveCount() || depth >= Solver.MAX_MOVES) {
+			throw new IllegalArgumentException("depth must be between the prefix length and " + (Solver.MAX_MOVES - 1));
+		}
+
+		// plies.get(i): canonical key -> {current, mask} for positions with prefix + i moves
+		List<Map<Long, long[]>> plies = new ArrayList<>();
+		Map<Long, long[]> level = new HashMap<>();
+		addCanonical(level, root.moverPieces(), root.occupied());
+		plies.add(level);
+		for (int moves = root.getMoveCount(); moves < depth; moves++) {
+			Map<Long, long[]> next = new HashMap<>();
+			for (long[] position : level.values()) {
+				long current = position[0];
+				long mask = position[1];
+				long possible = Solver.playable(mask);
+				for (int c = 0; c < Game.COLUMNS; c++) {
+					long move = possible & Solver.columnMask(c);
+					// A winning move ends the game, so its position is never looked up
+					if (move != 0 && (Solver.winningCells(current, mask) & move) == 0) {
+						addCanonical(next, current ^ mask, mask | move);
+					}
+				}
+			}
+			plies.add(next);
+			level = next;
+			System.out.printf("ply %d: %d positions%n", moves + 1, next.size());
+		}
+
+		Map<Long, int[]> book = new HashMap<>();
+		solveFrontier(plies.get(plies.size() - 1), depth, threads, book);
+		for (int i = plies.size() - 2; i >= 0; i--) {
+			int moves = root.getMoveCount() + i;
+			for (Map.Entry<Long, long[]> entry : plies.get(i).entrySet()) {
+				book.put(entry.getKey(), backUp(entry.getValue()[0], entry.getValue()[1], moves, book));
+			}
+		}
+
+		write(file, depth, book);
+		System.out.printf("wrote %d positions to %s (%d bytes)%n", book.size(), file, Files.size(file));
+	}
+
+	private static void addCanonical(Map<Long, long[]> positions, long current, long mask) {
+		long key = current + mask;
+		long mirrored = OpeningBook.mirror(key);
+		if (mirrored < key) {
+			positions.putIfAbsent(mirrored, new long[] {OpeningBook.mirror(current), OpeningBook.mirror(mask)});
+		} else {
+			positions.putIfAbsent(key, new long[] {current, mask});
+		}
+	}
+
+	private static void solveFrontier(Map<Long, long[]> frontier, int moves, int threads, Map<Long, int[]> book) {
+		ParallelSolver solver = new ParallelSolver(threads, 24);
+		long start = System.nanoTime();
+		long lastReport = start;
+		int solved = 0;
+		for (Map.Entry<Long, long[]> entry : frontier.entrySet()) {
+			long[] position = entry.getValue();
+			long deadline = System.nanoTime() + TimeUnit.DAYS.toNanos(1);
+			book.put(entry.getKey(), solver.analyze(position[0], position[1], moves, deadline));
+			solved++;
+			long now = System.nanoTime();
+			if (now - lastReport > TimeUnit.SECONDS.toNanos(10) || solved == frontier.size()) {
+				double seconds = (now - start) / 1e9;
+				System.out.printf("solved %d/%d at ply %d in %.0f s, %.1f Mnodes/s%n",
+						solved, frontier.size(), moves, seconds, solver.nodes() / seconds / 1e6);
+				lastReport = now;
+			}
+		}
+		solver.shutdown();
+	}
+
+	// Score each column from the position it leads to: a win on the spot, or minus the best
+	// the opponent can do from there
+	private static int[] backUp(long current, long mask, int moves, Map<Long, int[]> book) {
+		int[] scores = new int[Game.COLUMNS];
+		long possible = Solver.playable(mask);
+		for (int c = 0; c < Game.COLUMNS; c++) {
+			long move = possible & Solver.columnMask(c);
+			if (move == 0) {
+				scores[c] = ParallelSolver.UNKNOWN;
+			} else if ((Solver.winningCells(current, mask) & move) != 0) {
+				scores[c] = (Solver.MAX_MOVES + 1 - moves) / 2;
+			} else {
+				int[] child = book.get(OpeningBook.canonicalKey(current ^ mask, mask | move));
+				scores[c] = -child[ParallelSolver.bestColumn(child)];
+			}
+		}
+		return scores;
+	}
+
+	// Sorted fixed-size records, written beside the target and moved into place when complete
+	private static void write(Path file, int depth, Map<Long, int[]> book) throws IOException {
+		long[] keys = new long[book.size()];
+		int n = 0;
+		for (long key : book.keySet()) {
+			keys[n++] = key;
+		}
+		Arrays.sort(keys);
+
+		Path partial = file.resolveSibling(file.getFileName() + ".partial");
+		try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+			buffer.putInt(OpeningBook.MAGIC).putInt(OpeningBook.VERSION).putInt(depth).putInt(keys.length);
+			for (long key : keys) {
+				if (buffer.remaining() < OpeningBook.RECORD_BYTES) {
+					drain(channel, buffer);
+				}
+				OpeningBook.putRecord(buffer, key, book.get(key));
+			}
+			drain(channel, buffer);
+		}
+		Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
@@ -0,0 +1,163 @@
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// A computer player that sits in the lobby like anyone else. It has no socket: whatever the
+// server sends it is handled in send, and its replies (accepting challenges, moves, rematches)
+// go back in through Server.onMessage from the bot executor, never from inside the send that
+// triggered them, since the server may be holding a game lock or a lobby monitor at that point.
+// Every search gets a fixed time budget counted from when the bot's turn began, so a backlog on
+// the bot executor makes bots play faster rather than keep humans waiting.
+public class BotPlayer extends Connection {
+	enum Level {
+		// depth limit, time budget per move, chance in percent of an unconsidered move,
+		// and whether to try solving the position outright first
+		EASY(2, 50, 30, false),
+		MEDIUM(6, 200, 5, false),
+		HARD(Solver.MAX_MOVES, 1000, 0, true);
+
+		final int depth;
+		final long budgetMillis;
+		final int blunderPercent;
+		final boolean exact;
+
+		Level(int depth, long budgetMillis, int blunderPercent, boolean exact) {
+			this.depth = depth;
+			this.budgetMillis = budgetMillis;
+			this.blunderPercent = blunderPercent;
+			this.exact = exact;
+		}
+	}
+
+	// Searches only ever run on bot executor threads, so each gets its own table
+	private static final ThreadLocal<Solver> SOLVERS = ThreadLocal.withInitial(Solver::new);
+
+	private final Server server;
+	private final Level level;
+	private final ExecutorService executor;
+	// Shared with the other bots and position analysis
+	private final ParallelSolver exactSolver;
+	// Exact scores for the opening, null if no book was found
+	private final OpeningBook book;
+
+	BotPlayer(Server server, String username, Level level, ExecutorService executor,
+			ParallelSolver exactSolver, OpeningBook book) {
+		this.server = server;
+		this.username = username;
+		this.level = level;
+		this.executor = executor;
+		this.exactSolver = exactSolver;
+		this.book = book;
+	}
+
+	@Override
+	void send(Message message) {
+		switch (message.type) {
+			case CHALLENGE_REQUEST:
+				String challenger = message.username;
+				executor.execute(() -> reply(new Message(MessageType.CHALLENGE_ACCEPT, username, challenger)));
+				break;
+			case GAME_STATE:
+			case GAME_DELTA:
+				if (message.isPlayerTurn) {
+					long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(level.budgetMillis);
+					executor.execute(() -> move(deadline));
+				}
+				break;
+			case GAME_WIN:
+			case GAME_LOSE:
+			case GAME_DRAW:
+				// Always up for another game; the rematch starts once the opponent asks too
+				executor.execute(() -> reply(new Message(MessageType.GAME_RESTART, username)));
+				break;
+			default:
+				// Lobby pages, chat and notices are of no interest
+				break;
+		}
+	}
+
+	// Draws and rematches arrive as frames encoded once for both players; the bot reads those
+	// back into messages, and drops any other shared frame without decoding it
+	@Override
+	void send(byte[] frame, MessageType type) throws IOException {
+		switch (type) {
+			case GAME_DRAW:
+			case GAME_RESTART:
+			case GAME_STATE:
+				send(MessageCodec.decode(frame, MessageCodec.HEADER_BYTES, frame.length - MessageCodec.HEADER_BYTES));
+				break;
+			default:
+				break;
+		}
+	}
+
+	@Override
+	void enqueue(byte[] frame) {
+	}
+
+	private void move(long deadline) {
+		SessionRegistry.Session session = server.sessions.get(username);
+		Game game = session != null && session.connection == this ? session.game : null;
+		if (game == null) {
+			return;
+		}
+
+		long current;
+		long mask;
+		int moves;
+		game.lock.lock();
+		try {
+			if (game.checkWin() || game.checkDraw() || !username.equals(game.getCurrentPlayer())) {
+				return;
+			}
+			current = game.moverPieces();
+			mask = game.occupied();
+			moves = game.getMoveCount();
+		} finally {
+			game.lock.unlock();
+		}
+
+		Random random = ThreadLocalRandom.current();
+		int column = -1;
+		int[] scores;
+		if (random.nextInt(100) < level.blunderPercent) {
+			column = Solver.casualMove(current, mask, random);
+		} else if (level.exact && book != null && (scores = book.lookup(current, mask)) != null) {
+			// The opening is where search costs most; the book answers it with one binary search
+			column = ParallelSolver.bestColumn(scores);
+		} else if (level.exact) {
+			// Spend up to half the remaining budget trying to solve the position; early in the
+			// game that rarely succeeds, but the table keeps what was learned for the next move
+			long now = System.nanoTime();
+			if (deadline - now > 0) {
+				scores = exactSolver.analyze(current, mask, moves, now + (deadline - now) / 2);
+				if (scores != null) {
+					column = ParallelSolver.bestColumn(scores);
+				}
+			}
+		}
+		if (column < 0) {
+			column = SOLVERS.get().bestMove(current, mask, moves, level.depth, deadline);
+		}
+		reply(new Message(username, column));
+	}
+
+	private void reply(Message message) {
+		try {
+			server.onMessage(this, message);
+		} catch (Exception e) {
+			System.err.println("Bot " + username + " failed: " + e.getMessage());
+		}
+	}
+
+	@Override
+	void scheduleFlush() {
+	}
+
+	// Bots stay for the life of the server
+	@Override
+	void close() {
+	}
+}
@@ -0,0 +1,415 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+
+// One server of a cluster. Every lobby tick a node tells its peers which of its own players
+// became idle or stopped being idle, so each node's lobby lists the whole cluster; sessions and
+// games stay on the node that holds them, and the ClusterRouter in front sends each client to
+// the right one. Links carry ordinary frames: a LOGIN naming the sending node, then LOBBY_DELTA
+// frames, the first ones a snapshot of everyone idle on it. A link goes one way, so a node dials
+// every peer to publish and accepts every peer to listen. Each outbound link has its own writer
+// thread and a queue of -Dconnect4.clusterQueuedFrames frames, so a slow peer never holds up
+// the lobby tick; a peer that falls that far behind is dropped. A dropped link is dialled again
+// every second, and the listening side forgets that peer's players until it is back.
+//
+// Ratings are kept by one node, -Dconnect4.ratingsNode. Another node sends it each GAME_RESULT
+// on its link there; the ratings node rates every game in the order it gets them and sends the
+// new ratings to all peers as LEADERBOARD frames, after a snapshot of the whole board when a
+// link comes up. So every node answers leaderboard queries and rating lookups from its own
+// copy, which trails the ratings node by the frames in flight. A result sent while the link to
+// the ratings node is down is not rated; the journal still has the game. Without
+// -Dconnect4.ratingsNode each node rates its own games and shares nothing.
+//
+//   -Dconnect4.clusterPort=6601 -Dconnect4.nodeName=node-1 -Dconnect4.peers=127.0.0.1:6602,127.0.0.1:6603
+//   -Dconnect4.ratingsNode=127.0.0.1:6601
+public class ClusterNode {
+	static final int RETRY_MILLIS = 1000;
+	// Names per LOBBY_DELTA, well inside the frame and list limits
+	static final int NAMES_PER_FRAME = 1000;
+	static final int QUEUED_FRAMES = Integer.getInteger("connect4.clusterQueuedFrames", 4096);
+
+	private final String name;
+	private final LobbyFeed lobby;
+	private final Ratings ratings;
+	// Told of every rating that changes through a peer, once ratings has it
+	private final ObjIntConsumer<String> rated;
+	private final Consumer<String> log;
+	private final ServerSocket listener;
+	private final List<InetSocketAddress> peers;
+	// Null if every node keeps its own ratings
+	private final InetSocketAddress ratingsNode;
+	private final boolean keepsRatings;
+	// Outbound links that have queued their snapshot; publishing queues to each
+	private final Set<Link> links = ConcurrentHashMap.newKeySet();
+	// The outbound link to ratingsNode, while it is up
+	private volatile Link ratingsLink;
+	// Held by the ratings node to rate a game and queue the new ratings, so that every peer gets
+	// a player's ratings in the order they were given
+	private final ReentrantLock rating = new ReentrantLock();
+	private final AtomicInteger accepted = new AtomicInteger();
+
+	private static final class Link {
+		final Socket socket;
+		final DataOutputStream out;
+		// Frames for the writer thread, which alone touches out
+		final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(QUEUED_FRAMES);
+		// Held while queueing, so a tick's deltas never interleave with a snapshot
+		final ReentrantLock lock = new ReentrantLock();
+		volatile Thread writer;
+
+		Link(Socket socket) throws IOException {
+			this.socket = socket;
+			this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+
+		// False if the peer is too far behind to take all of frames
+		boolean offer(List<byte[]> frames) {
+			for (byte[] frame : frames) {
+				if (!queue.offer(frame)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private ClusterNode(String name, LobbyFeed lobby, Ratings ratings, ObjIntConsumer<String> rated,
+			Consumer<String> log, ServerSocket listener, List<InetSocketAddress> peers,
+			InetSocketAddress ratingsNode, boolean keepsRatings) {
+		this.name = name;
+		this.lobby = lobby;
+		this.ratings = ratings;
+		this.rated = rated;
+		this.log = log;
+		this.listener = listener;
+		this.peers = peers;
+		this.ratingsNode = ratingsNode;
+		this.keepsRatings = keepsRatings;
+	}
+
+	// Listen on -Dconnect4.clusterPort at -Dconnect4.clusterHost (default the loopback address),
+	// dial every host:port in -Dconnect4.peers, and publish lobby's changes to them as
+	// -Dconnect4.nodeName (default node-<clusterPort>). This node keeps ratings if
+	// -Dconnect4.ratingsNode is its own address
+	static ClusterNode open(LobbyFeed lobby, Ratings ratings, ObjIntConsumer<String> rated, Consumer<String> log)
+			throws IOException {
+		int port = Integer.getInteger("connect4.clusterPort");
+		InetAddress host = InetAddress.getByName(System.getProperty("connect4.clusterHost", "127.0.0.1"));
+		List<InetSocketAddress> ratingsNode = addresses(System.getProperty("connect4.ratingsNode", ""));
+		return open(lobby, ratings, rated, log, System.getProperty("connect4.nodeName", "node-" + port),
+				new InetSocketAddress(host, port), addresses(System.getProperty("connect4.peers", "")),
+				ratingsNode.isEmpty() ? null : ratingsNode.get(0));
+	}
+
+	// The same with everything given; port 0 in address listens on any free port, and a
+	// ratingsNode equal to address makes this the node that keeps ratings
+	static ClusterNode open(LobbyFeed lobby, Ratings ratings, ObjIntConsumer<String> rated, Consumer<String> log,
+			String name, InetSocketAddress address, List<InetSocketAddress> peers, InetSocketAddress ratingsNode)
+			throws IOException {
+		ServerSocket listener = new ServerSocket(address.getPort(), 64, address.getAddress());
+
+		ClusterNode node = new ClusterNode(name, lobby, ratings, rated, log, listener, peers,
+				ratingsNode, address.equals(ratingsNode));
+		daemon("cluster-accept", node::accept);
+		for (InetSocketAddress peer : peers) {
+			daemon("cluster-dial-" + peer.getPort(), () -> node.dial(peer));
+		}
+		lobby.publishTo(node::publish);
+		return node;
+	}
+
+	// "host:port,host:port"; blanks are skipped
+	static List<InetSocketAddress> addresses(String list) {
+		List<InetSocketAddress> addresses = new ArrayList<>();
+		for (String entry : list.split(",")) {
+			entry = entry.trim();
+			if (!entry.isEmpty()) {
+				int colon = entry.lastIndexOf(':');
+				addresses.add(new InetSocketAddress(entry.substring(0, colon), Integer.parseInt(entry.substring(colon + 1))));
+			}
+		}
+		return addresses;
+	}
+
+	String name() {
+		return name;
+	}
+
+	int port() {
+		return listener.getLocalPort();
+	}
+
+	List<InetSocketAddress> peers() {
+		return peers;
+	}
+
+	// Outbound links currently published to
+	int links() {
+		return links.size();
+	}
+
+	// Whether the link to the ratings node is up; true on the ratings node itself
+	boolean ratingsReachable() {
+		return keepsRatings || ratingsLink != null;
+	}
+
+	// Rate a game played on this node. The ratings node rates it and queues both new ratings for
+	// its peers; any other node sends the result there and returns null, and the new ratings
+	// come back through rated
+	int[] record(String winner, String loser, boolean draw) {
+		if (ratingsNode == null) {
+			return ratings.record(winner, loser, draw);
+		}
+		if (keepsRatings) {
+			return rate(winner, loser, draw);
+		}
+		Link link = ratingsLink;
+		try {
+			if (link == null || !queue(link, Collections.singletonList(
+					MessageCodec.encode(new Message(MessageType.GAME_RESULT, winner, loser, draw))))) {
+				log.accept("Game of " + winner + " and " + loser + " not rated: no link to the ratings node");
+			}
+		} catch (IOException e) {
+			System.err.println("Error encoding game result: " + e.getMessage());
+		}
+		return null;
+	}
+
+	// Ratings node only
+	private int[] rate(String winner, String loser, boolean draw) {
+		rating.lock();
+		try {
+			int[] now = ratings.record(winner, loser, draw);
+			List<String> names = new ArrayList<>();
+			names.add(winner);
+			names.add(loser);
+			try {
+				send(Collections.singletonList(MessageCodec.encode(new Message(null, 0, 0, names, now))));
+			} catch (IOException e) {
+				System.err.println("Error encoding ratings: " + e.getMessage());
+			}
+			return now;
+		} finally {
+			rating.unlock();
+		}
+	}
+
+	private static Thread daemon(String name, Runnable task) {
+		Thread thread = new Thread(task, name);
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	// Lobby ticker thread: one tick's changes, encoded once for all peers and queued for each
+	// link's writer. A peer whose queue cannot take them is dropped, and gets a fresh snapshot
+	// when it is dialled again
+	void publish(List<String> joined, List<String> left) {
+		if (links.isEmpty()) {
+			return;
+		}
+		try {
+			send(deltas(joined, left));
+		} catch (IOException e) {
+			System.err.println("Error encoding cluster lobby update: " + e.getMessage());
+		}
+	}
+
+	private void send(List<byte[]> frames) {
+		for (Link link : links) {
+			queue(link, frames);
+		}
+	}
+
+	// False if the link was dropped instead
+	private boolean queue(Link link, List<byte[]> frames) {
+		link.lock.lock();
+		try {
+			if (!link.offer(frames)) {
+				links.remove(link);
+				close(link.socket);
+				return false;
+			}
+			return true;
+		} finally {
+			link.lock.unlock();
+		}
+	}
+
+	// The lists are copied, since sublists cannot be written in the serialized wire format
+	private static List<byte[]> deltas(List<String> joined, List<String> left) throws IOException {
+		List<byte[]> frames = new ArrayList<>();
+		List<String> none = new ArrayList<>();
+		for (int i = 0; i < joined.size(); i += NAMES_PER_FRAME) {
+			List<String> names = new ArrayList<>(joined.subList(i, Math.min(joined.size(), i + NAMES_PER_FRAME)));
+			frames.add(MessageCodec.encode(new Message(names, none, 0)));
+		}
+		for (int i = 0; i < left.size(); i += NAMES_PER_FRAME) {
+			List<String> names = new ArrayList<>(left.subList(i, Math.min(left.size(), i + NAMES_PER_FRAME)));
+			frames.add(MessageCodec.encode(new Message(none, names, 0)));
+		}
+		return frames;
+	}
+
+	// The whole board, as the ratings node sends it to a peer whose link has just come up
+	private static List<byte[]> board(List<Leaderboard.Node> all) throws IOException {
+		List<byte[]> frames = new ArrayList<>();
+		for (int i = 0; i < all.size(); i += NAMES_PER_FRAME) {
+			List<Leaderboard.Node> part = all.subList(i, Math.min(all.size(), i + NAMES_PER_FRAME));
+			List<String> names = new ArrayList<>(part.size());
+			int[] ratings = new int[part.size()];
+			for (int j = 0; j < part.size(); j++) {
+				names.add(part.get(j).name);
+				ratings[j] = part.get(j).rating;
+			}
+			frames.add(MessageCodec.encode(new Message(null, i + 1, all.size(), names, ratings)));
+		}
+		return frames;
+	}
+
+	// One thread per peer: connect, introduce this node, queue the snapshot and then wait until
+	// the link drops, while its writer sends what is queued. The link joins the published set
+	// under its lock, so the first tick after it queues behind the snapshot and any change the
+	// snapshot missed follows it. The same holds for the ratings node's board and the ratings
+	// it gives out later
+	private void dial(InetSocketAddress peer) {
+		while (true) {
+			Link link = null;
+			try (Socket socket = new Socket()) {
+				socket.connect(peer, RETRY_MILLIS);
+				socket.setTcpNoDelay(true);
+				link = new Link(socket);
+				Link writing = link;
+				link.writer = daemon("cluster-write-" + peer.getPort(), () -> write(writing));
+				link.lock.lock();
+				try {
+					links.add(link);
+					List<byte[]> snapshot = new ArrayList<>();
+					snapshot.add(MessageCodec.encode(new Message(MessageType.LOGIN, name)));
+					snapshot.addAll(deltas(lobby.localPlayers(), Collections.emptyList()));
+					if (keepsRatings) {
+						snapshot.addAll(board(ratings.all()));
+					}
+					if (!link.offer(snapshot)) {
+						throw new IOException("Snapshot larger than the link's queue");
+					}
+				} finally {
+					link.lock.unlock();
+				}
+				if (peer.equals(ratingsNode)) {
+					ratingsLink = link;
+				}
+				// Peers never write back; this only returns once the link is closed
+				while (socket.getInputStream().read() >= 0) {
+				}
+			} catch (IOException e) {
+				// Not up yet, or gone; dialled again below
+			} finally {
+				if (link != null) {
+					links.remove(link);
+					link.writer.interrupt();
+					if (ratingsLink == link) {
+						ratingsLink = null;
+					}
+				}
+			}
+			try {
+				Thread.sleep(RETRY_MILLIS);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	// One thread per outbound link: writes what is queued, flushing whenever the queue runs dry.
+	// A failed write closes the socket, which ends the dialling thread's wait
+	private void write(Link link) {
+		try {
+			while (true) {
+				link.out.write(link.queue.take());
+				if (link.queue.isEmpty()) {
+					link.out.flush();
+				}
+			}
+		} catch (IOException | InterruptedException e) {
+			// Peer gone, or the link was dropped
+		} finally {
+			close(link.socket);
+		}
+	}
+
+	private void accept() {
+		while (true) {
+			try {
+				Socket socket = listener.accept();
+				daemon("cluster-peer-" + accepted.get(), () -> listen(socket));
+			} catch (IOException e) {
+				System.err.println("Cluster listener stopped: " + e.getMessage());
+				return;
+			}
+		}
+	}
+
+	// One thread per inbound link. Each connection gets its own key, so the end of an old link
+	// never takes away the players a peer has already re-sent on a new one
+	private void listen(Socket socket) {
+		String key = null;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			Message hello = MessageCodec.readFrame(in);
+			if (hello.type != MessageType.LOGIN || hello.username == null) {
+				return;
+			}
+			key = hello.username + "#" + accepted.incrementAndGet();
+			log.accept("Cluster peer " + hello.username + " connected");
+			while (true) {
+				Message message = MessageCodec.readFrame(in);
+				if (message.type == MessageType.LOBBY_DELTA) {
+					lobby.peerChanged(key, message.playerList, message.removedList);
+				} else if (message.type == MessageType.GAME_RESULT && keepsRatings) {
+					int[] now = rate(message.username, message.recipient, message.draw);
+					rated.accept(message.username, now[0]);
+					rated.accept(message.recipient, now[1]);
+				} else if (message.type == MessageType.LEADERBOARD && ratingsNode != null && !keepsRatings) {
+					for (int i = 0; i < message.ratings.length; i++) {
+						ratings.put(message.playerList.get(i), message.ratings[i]);
+						rated.accept(message.playerList.get(i), message.ratings[i]);
+					}
+				}
+			}
+		} catch (IOException e) {
+			// Peer closed or went away
+		} finally {
+			close(socket);
+			if (key != null) {
+				lobby.peerGone(key);
+				log.accept("Cluster peer " + key.substring(0, key.lastIndexOf('#')) + " disconnected");
+			}
+		}
+	}
+
+	private static void close(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// Already closed
+		}
+	}
+}
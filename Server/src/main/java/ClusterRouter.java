@@ -0,0 +1,422 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Front end of a cluster: clients connect here as they would to a single server, and each one's
+// frames are relayed to the node that holds the player. A new name goes to the node its hash
+// picks; from then on the router remembers which node the player is on, so a later login or
+// SESSION_RESUME goes back there. A game lives on one node, so a player who accepts a challenge
+// from a player on another node is first moved there: the router logs them out of their node
+// and in to the challenger's on a fresh connection, and hides that second LOGIN_SUCCESS from
+// the client. Spectating moves a player to the watched game's node, and quick play to the first
+// node, which holds the one shared queue and should be the one that keeps ratings (see
+// ClusterNode). Challenges, declines and chat for a player elsewhere
+// are written onto that player's own node connection, where the node delivers them as if they
+// had been sent there. Bots are on every node and always answer on the player's own.
+//
+// Blocking I/O on virtual threads: per client, one reading the client and one reading its node.
+//
+//   java -Dconnect4.nodes=127.0.0.1:5601,127.0.0.1:5602 -cp target/classes ClusterRouter
+public class ClusterRouter {
+	// How long the router remembers where a disconnected player was, so a resume finds the seat
+	private static final long FORGET_SECONDS = Long.getLong("connect4.resumeSeconds", 30) + 5;
+	private static final int CONNECT_MILLIS = 2000;
+	// A migration whose login is refused while the old node is still logging the player out
+	private static final int LOGIN_ATTEMPTS = 20;
+	private static final long LOGIN_RETRY_MILLIS = 25;
+	private static final MessageType[] TYPES = MessageType.values();
+
+	private final List<InetSocketAddress> nodes;
+	// Players the router has seen logged in, by name
+	private final ConcurrentHashMap<String, Route> routes = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService forgetter = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "router-forget");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final AtomicInteger clients = new AtomicInteger();
+	private final LongAdder migrations = new LongAdder();
+	private final LongAdder failedMigrations = new LongAdder();
+	private final LongAdder crossNodeFrames = new LongAdder();
+
+	// Where a player is. node and the tokens change only under the link's lock
+	private static final class Route {
+		volatile int node;
+		// The token the client holds, and the one its current node issued
+		volatile long clientToken;
+		volatile long nodeToken;
+		// Null while the player is disconnected
+		volatile Link link;
+	}
+
+	// One client connection and the node connection currently serving it
+	private final class Link {
+		final Socket socket;
+		final DataOutputStream out;
+		// Orders writes to the client from the old and new node during a migration
+		final ReentrantLock clientLock = new ReentrantLock();
+		// Held to write to the node and to swap nodes
+		final ReentrantLock lock = new ReentrantLock();
+		volatile Backend backend;
+		volatile String name;
+		// Between NEWUSER and DISCONNECT from the node; a player in a game is never moved
+		volatile boolean playing;
+
+		Link(Socket socket) throws IOException {
+			this.socket = socket;
+			this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+	}
+
+	// A connection to one node on behalf of one client
+	private static final class Backend {
+		final int node;
+		final Socket socket;
+		final DataInputStream in;
+		final DataOutputStream out;
+		// Set before a migration closes it, so its relay ends without closing the client
+		volatile boolean retired;
+
+		Backend(int node, InetSocketAddress address) throws IOException {
+			this.node = node;
+			this.socket = new Socket();
+			socket.connect(address, CONNECT_MILLIS);
+			socket.setTcpNoDelay(true);
+			this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+	}
+
+	ClusterRouter(List<InetSocketAddress> nodes) {
+		this.nodes = nodes;
+	}
+
+	public static void main(String[] args) throws Exception {
+		List<InetSocketAddress> nodes = ClusterNode.addresses(System.getProperty("connect4.nodes", ""));
+		if (nodes.isEmpty()) {
+			System.err.println("Set -Dconnect4.nodes=host:port,host:port");
+			System.exit(1);
+		}
+		new ClusterRouter(nodes).run();
+	}
+
+	// Accept clients on Server.PORT until the process ends
+	void run() throws IOException {
+		try (ServerSocket listener = new ServerSocket(Server.PORT, 1024)) {
+			System.out.println("Router on port " + Server.PORT + " for " + nodes.size() + " nodes " + nodes);
+			while (true) {
+				Socket socket = listener.accept();
+				Thread.ofVirtual().name("router-client").start(() -> serve(socket));
+			}
+		}
+	}
+
+	String stats() {
+		return String.format("%d clients, %d players routed, %d migrations (%d failed), %d frames sent to another node",
+				clients.get(), routes.size(), migrations.sum(), failedMigrations.sum(), crossNodeFrames.sum());
+	}
+
+	private void serve(Socket socket) {
+		clients.incrementAndGet();
+		Link link = null;
+		try {
+			socket.setTcpNoDelay(true);
+			link = new Link(socket);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			while (true) {
+				byte[] frame = readFrame(in);
+				route(link, frame, MessageCodec.decode(frame, MessageCodec.HEADER_BYTES, frame.length - MessageCodec.HEADER_BYTES),
+						in.available() == 0);
+			}
+		} catch (IOException e) {
+			// Client gone, or its node is
+		} finally {
+			close(socket);
+			clients.decrementAndGet();
+			if (link != null) {
+				disconnected(link);
+			}
+		}
+	}
+
+	// Client reader only
+	private void route(Link link, byte[] frame, Message message, boolean flush) throws IOException {
+		switch (message.type) {
+			case LOGIN:
+				if (link.backend == null) {
+					connect(link, home(message.username));
+				}
+				break;
+			case SESSION_RESUME:
+				if (link.backend == null) {
+					Route route = message.username != null ? routes.get(message.username) : null;
+					connect(link, home(message.username));
+					// The client holds the token of the node it first logged in to
+					if (route != null && message.token == route.clientToken) {
+						frame = MessageCodec.encode(new Message(MessageType.SESSION_RESUME, message.username, route.nodeToken));
+					}
+				}
+				break;
+			case CHALLENGE_ACCEPT:
+				// Join the challenger's node, where the game will be
+				moveTo(link, nodeOf(message.recipient));
+				break;
+			case SPECTATE:
+				moveTo(link, nodeOf(message.username));
+				break;
+			case QUEUE_JOIN:
+				moveTo(link, 0);
+				break;
+			case CHALLENGE_REQUEST:
+			case CHALLENGE_DECLINE:
+			case TEXT:
+				if (deliver(link, message.recipient, frame)) {
+					return;
+				}
+				break;
+			default:
+				break;
+		}
+		if (link.backend == null) {
+			// Nothing before a login means anything to a node
+			return;
+		}
+		link.lock.lock();
+		try {
+			link.backend.out.write(frame);
+			if (flush) {
+				link.backend.out.flush();
+			}
+		} finally {
+			link.lock.unlock();
+		}
+	}
+
+	// A new name's node, or the one the player was last on
+	private int home(String name) {
+		Route route = name != null ? routes.get(name) : null;
+		return route != null ? route.node : Math.floorMod(name != null ? name.hashCode() : 0, nodes.size());
+	}
+
+	// The node a logged-in player is on, or -1 for bots and unknown names
+	private int nodeOf(String name) {
+		Route route = name != null ? routes.get(name) : null;
+		return route != null && route.link != null ? route.node : -1;
+	}
+
+	// Write a frame addressed to a player onto their own node connection, if that is on another
+	// node; false if it should go out on the sender's as usual
+	private boolean deliver(Link from, String recipient, byte[] frame) {
+		Route route = recipient != null ? routes.get(recipient) : null;
+		Link to = route != null ? route.link : null;
+		Backend own = from.backend;
+		if (to == null || to == from || own == null) {
+			return false;
+		}
+		to.lock.lock();
+		try {
+			Backend backend = to.backend;
+			if (backend == null || backend.node == own.node) {
+				return false;
+			}
+			backend.out.write(frame);
+			backend.out.flush();
+			crossNodeFrames.increment();
+			return true;
+		} catch (IOException e) {
+			// The recipient's node connection is closing; like a challenge to someone who just left
+			return true;
+		} finally {
+			to.lock.unlock();
+		}
+	}
+
+	// Client reader only: open the first node connection
+	private void connect(Link link, int node) throws IOException {
+		Backend backend = new Backend(node, nodes.get(node));
+		link.backend = backend;
+		Thread.ofVirtual().name("router-relay").start(() -> relay(link, backend));
+	}
+
+	// Client reader only. Log the player in on node and out of the node they were on. The player
+	// stays where they are if they are in a game, not logged in, or the new node refuses them.
+	// The lock is held to retire the old connection and to install the new one, not while the
+	// login is retried: frames other clients send the player meanwhile are dropped, as for a
+	// player who just left, rather than held up behind the retries
+	private void moveTo(Link link, int node) throws IOException {
+		String name = link.name;
+		Backend old = link.backend;
+		Route route = name != null ? routes.get(name) : null;
+		if (node < 0 || old == null || old.node == node || route == null || link.playing) {
+			return;
+		}
+		Backend backend = new Backend(node, nodes.get(node));
+		link.lock.lock();
+		try {
+			old.retired = true;
+			old.out.write(MessageCodec.encode(new Message(MessageType.DISCONNECT, name)));
+			old.out.flush();
+			old.socket.close();
+		} catch (IOException e) {
+			backend.socket.close();
+			throw e;
+		} finally {
+			link.lock.unlock();
+		}
+
+		Message reply;
+		try {
+			reply = login(backend, name);
+		} catch (IOException e) {
+			reply = null;
+		}
+		if (reply == null || reply.type != MessageType.LOGIN_SUCCESS) {
+			failedMigrations.increment();
+			backend.socket.close();
+			throw new IOException("Could not move " + name + " to node " + node);
+		}
+		link.lock.lock();
+		try {
+			route.node = node;
+			route.nodeToken = reply.token;
+			link.backend = backend;
+			migrations.increment();
+			Thread.ofVirtual().name("router-relay").start(() -> relay(link, backend));
+		} finally {
+			link.lock.unlock();
+		}
+	}
+
+	// Log name in on a node connection whose relay has not started, so the client never sees the
+	// answer. The node the player just left may not have let go of the name yet
+	private static Message login(Backend backend, String name) throws IOException {
+		Message reply = null;
+		for (int attempt = 0; attempt < LOGIN_ATTEMPTS; attempt++) {
+			backend.out.write(MessageCodec.encode(new Message(MessageType.LOGIN, name)));
+			backend.out.flush();
+			reply = MessageCodec.readFrame(backend.in);
+			if (reply.type == MessageType.LOGIN_SUCCESS) {
+				break;
+			}
+			try {
+				Thread.sleep(LOGIN_RETRY_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted logging " + name + " in");
+			}
+		}
+		return reply;
+	}
+
+	// Node to client, one thread per node connection. Frames pass through untouched; only the
+	// type byte is looked at, and LOGIN_SUCCESS decoded to learn where the player is
+	private void relay(Link link, Backend backend) {
+		try {
+			while (true) {
+				byte[] frame = readFrame(backend.in);
+				MessageType type = typeOf(frame);
+				if (type == MessageType.LOGIN_SUCCESS) {
+					loggedIn(link, backend, MessageCodec.decode(frame, MessageCodec.HEADER_BYTES, frame.length - MessageCodec.HEADER_BYTES));
+				} else if (type == MessageType.NEWUSER) {
+					link.playing = true;
+				} else if (type == MessageType.DISCONNECT) {
+					link.playing = false;
+				}
+				link.clientLock.lock();
+				try {
+					link.out.write(frame);
+					if (backend.in.available() == 0) {
+						link.out.flush();
+					}
+				} finally {
+					link.clientLock.unlock();
+				}
+			}
+		} catch (IOException e) {
+			// Node closed the connection, or the client did
+		} finally {
+			close(backend.socket);
+			if (!backend.retired) {
+				close(link.socket);
+			}
+		}
+	}
+
+	// A login or resume succeeded on the node serving the link
+	private void loggedIn(Link link, Backend backend, Message success) {
+		link.lock.lock();
+		try {
+			Route route = routes.computeIfAbsent(success.username, name -> new Route());
+			route.node = backend.node;
+			route.clientToken = success.token;
+			route.nodeToken = success.token;
+			route.link = link;
+			link.name = success.username;
+		} finally {
+			link.lock.unlock();
+		}
+	}
+
+	// The client is gone: its node parks the seat if it was in a game, and the router remembers
+	// where for as long as the seat may be resumed
+	private void disconnected(Link link) {
+		Backend backend = link.backend;
+		if (backend != null) {
+			close(backend.socket);
+		}
+		String name = link.name;
+		Route route = name != null ? routes.get(name) : null;
+		if (route != null && route.link == link) {
+			route.link = null;
+			forgetter.schedule(() -> {
+				if (route.link == null) {
+					routes.remove(name, route);
+				}
+			}, FORGET_SECONDS, TimeUnit.SECONDS);
+		}
+	}
+
+	// A whole frame, header included, so it can be passed on as is
+	private static byte[] readFrame(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		MessageCodec.checkLength(length);
+		byte[] frame = new byte[MessageCodec.HEADER_BYTES + length];
+		frame[0] = (byte) (length >>> 24);
+		frame[1] = (byte) (length >>> 16);
+		frame[2] = (byte) (length >>> 8);
+		frame[3] = (byte) length;
+		in.readFully(frame, MessageCodec.HEADER_BYTES, length);
+		return frame;
+	}
+
+	// Binary frames name their type in the second payload byte; serialized ones are decoded
+	private static MessageType typeOf(byte[] frame) throws IOException {
+		if (frame[MessageCodec.HEADER_BYTES] == MessageCodec.BINARY) {
+			int ordinal = frame[MessageCodec.HEADER_BYTES + 1] & 0xFF;
+			return ordinal < TYPES.length ? TYPES[ordinal] : null;
+		}
+		return MessageCodec.decode(frame, MessageCodec.HEADER_BYTES, frame.length - MessageCodec.HEADER_BYTES).type;
+	}
+
+	private static void close(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// Already closed
+		}
+	}
+}
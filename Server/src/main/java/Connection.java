@@ -0,0 +1,104 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A logged-in (or logging-in) client as seen by the server logic,
+// independent of which transport carries its frames.
+// Senders never touch the socket: frames go into a bounded per-connection queue and a
+// single writer (chosen by the transport through scheduleFlush) drains everything that
+// is pending before flushing once.
+public abstract class Connection {
+	// A client this far behind is not reading; drop it rather than buffer without limit
+	static final int MAX_QUEUED_FRAMES = Integer.getInteger("connect4.maxQueuedFrames", 4096);
+
+	volatile String username;
+	// Set by the server when the connection is accepted; bots have none
+	volatile Metrics metrics;
+
+	private final ConcurrentLinkedQueue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+	// Safe from any thread, never blocks on the network
+	void send(Message message) throws IOException {
+		enqueue(MessageCodec.encode(message));
+		Metrics metrics = this.metrics;
+		if (metrics != null) {
+			metrics.sent(message.type);
+		}
+	}
+
+	// A frame already encoded for several recipients: every one of them queues the same bytes
+	void send(byte[] frame, MessageType type) throws IOException {
+		enqueue(frame);
+		Metrics metrics = this.metrics;
+		if (metrics != null) {
+			metrics.sent(type);
+		}
+	}
+
+	void enqueue(byte[] frame) throws IOException {
+		if (queued.incrementAndGet() > MAX_QUEUED_FRAMES) {
+			queued.decrementAndGet();
+			Metrics metrics = this.metrics;
+			if (metrics != null) {
+				metrics.slowClientDropped();
+			}
+			abort();
+			throw new IOException("Outbound queue full, closing slow client");
+		}
+		outbound.add(ByteBuffer.wrap(frame));
+		if (flushScheduled.compareAndSet(false, true)) {
+			scheduleFlush();
+		}
+	}
+
+	// Frames waiting to be written; read by metrics from any thread
+	int queuedFrames() {
+		return queued.get();
+	}
+
+	// Writer only: the oldest pending frame, left in the queue until fully written
+	ByteBuffer peekFrame() {
+		return outbound.peek();
+	}
+
+	// Writer only: iterate pending frames without removing them (for gathering writes)
+	Iterable<ByteBuffer> pendingFrames() {
+		return outbound;
+	}
+
+	// Writer only
+	ByteBuffer pollFrame() {
+		ByteBuffer frame = outbound.poll();
+		if (frame != null) {
+			queued.decrementAndGet();
+		}
+		return frame;
+	}
+
+	// Writer only, once the queue looks empty. Returns true if a sender raced in after the
+	// drain, in which case the caller is still the writer and must drain again
+	boolean finishFlush() {
+		flushScheduled.set(false);
+		return !outbound.isEmpty() && flushScheduled.compareAndSet(false, true);
+	}
+
+	void discardPending() {
+		outbound.clear();
+		queued.set(0);
+	}
+
+	// Close from inside a send. The sender may be in the middle of a broadcast, so transports
+	// whose close runs disconnect handling inline should defer it
+	void abort() {
+		close();
+	}
+
+	// Arrange for exactly one writer to drain the queue; called once per idle-to-busy transition
+	abstract void scheduleFlush();
+
+	abstract void close();
+}
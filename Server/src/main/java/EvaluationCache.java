@@ -0,0 +1,101 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Server-wide cache of solved positions, shared by every game, since most games pass through
+// the same openings. Entries are keyed by Zobrist hash and also carry the exact position key,
+// so a hash collision reads as a miss instead of a wrong answer. Capacity is fixed and
+// eviction follows the CLOCK policy. A hit only sets the entry's reference bit, so lookups
+// never lock. An insert sweeps a hand around a ring of slots, giving referenced entries a
+// second chance and evicting the first one that has not been used since the last pass.
+public class EvaluationCache {
+	private static final class Entry {
+		final long hash;
+		final long key;
+		final byte[] scores;
+		volatile boolean referenced;
+
+		Entry(long hash, long key, byte[] scores) {
+			this.hash = hash;
+			this.key = key;
+			this.scores = scores;
+		}
+	}
+
+	private final ConcurrentHashMap<Long, Entry> entries;
+	// Guarded by ring
+	private final Entry[] ring;
+	private int hand;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	EvaluationCache(int capacity) {
+		this.ring = new Entry[Math.max(1, capacity)];
+		this.entries = new ConcurrentHashMap<>(ring.length * 2);
+	}
+
+	// The cached scores for a position, or null
+	byte[] get(long hash, long key) {
+		Entry entry = entries.get(hash);
+		if (entry == null || entry.key != key) {
+			misses.increment();
+			return null;
+		}
+		if (!entry.referenced) {
+			entry.referenced = true;
+		}
+		hits.increment();
+		return entry.scores;
+	}
+
+	void put(long hash, long key, byte[] scores) {
+		Entry entry = new Entry(hash, key, scores);
+		synchronized (ring) {
+			if (entries.containsKey(hash)) {
+				return;
+			}
+			while (ring[hand] != null && ring[hand].referenced) {
+				ring[hand].referenced = false;
+				hand = (hand + 1) % ring.length;
+			}
+			Entry victim = ring[hand];
+			if (victim != null) {
+				entries.remove(victim.hash, victim);
+				evictions.increment();
+			}
+			ring[hand] = entry;
+			entries.put(hash, entry);
+			hand = (hand + 1) % ring.length;
+		}
+	}
+
+	int size() {
+		return entries.size();
+	}
+
+	long hits() {
+		return hits.sum();
+	}
+
+	long misses() {
+		return misses.sum();
+	}
+
+	long evictions() {
+		return evictions.sum();
+	}
+
+	// Share of lookups answered from the cache, 0 before the first lookup
+	double hitRate() {
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d entries, %.1f%% hits (%d hits, %d misses, %d evictions)",
+				size(), 100 * hitRate(), hits(), misses(), evictions());
+	}
+}
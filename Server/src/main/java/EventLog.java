@@ -0,0 +1,253 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Bounded, lock-free log of server events. Producers (event loops, client threads) claim a
+// sequence number and drop the entry into a fixed ring, overwriting the oldest one when the
+// ring is full, so recording an event never blocks and memory never grows. Consumers each keep
+// their own cursor: a background writer appends to a rotating file, and viewers such as
+// GuiServer sample whatever is new at their own pace.
+public class EventLog {
+	static final int DEFAULT_CAPACITY = 1 << 16;
+
+	static final class Entry {
+		final long sequence;
+		final long timeMillis;
+		final String text;
+
+		Entry(long sequence, long timeMillis, String text) {
+			this.sequence = sequence;
+			this.timeMillis = timeMillis;
+			this.text = text;
+		}
+	}
+
+	private final AtomicReferenceArray<Entry> slots;
+	private final int mask;
+	private final AtomicLong next = new AtomicLong();
+	private volatile Thread writer;
+	private volatile boolean closing;
+
+	EventLog(int capacity) {
+		int size = 2;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		this.slots = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+	}
+
+	// The log both launchers use: -Dconnect4.logDir (default logs), -Dconnect4.logMaxBytes per file
+	// (default 10 MB), -Dconnect4.logFiles kept (default 5), -Dconnect4.eventLogCapacity entries in memory
+	static EventLog open() throws IOException {
+		EventLog log = new EventLog(Integer.getInteger("connect4.eventLogCapacity", DEFAULT_CAPACITY));
+		log.startFileWriter(Paths.get(System.getProperty("connect4.logDir", "logs")), "server.log",
+				Long.getLong("connect4.logMaxBytes", 10L << 20), Integer.getInteger("connect4.logFiles", 5));
+		return log;
+	}
+
+	// Server callback: keep the events an operator cares about, ignore game traffic
+	void record(Message data) {
+		switch (data.type) {
+			case SIMPLE:
+				record(data.message);
+				break;
+			case TEXT:
+				record(data.username + ": " + data.message);
+				break;
+			case LOGIN:
+				record(data.username + " has joined");
+				break;
+			case DISCONNECT:
+				record(data.username + " has disconnected");
+				break;
+			default:
+				break;
+		}
+	}
+
+	void record(String text) {
+		long sequence = next.getAndIncrement();
+		slots.set((int) (sequence & mask), new Entry(sequence, System.currentTimeMillis(), text));
+	}
+
+	// A consumer that starts with the next event recorded
+	Reader reader() {
+		return new Reader(next.get());
+	}
+
+	// One consumer's position in the ring. Not thread-safe; each consumer owns its reader
+	final class Reader {
+		private long cursor;
+		private long dropped;
+
+		private Reader(long cursor) {
+			this.cursor = cursor;
+		}
+
+		// Append up to max new entries to out; returns how many were added
+		int drainTo(List<Entry> out, int max) {
+			int added = 0;
+			while (added < max) {
+				long claimed = next.get();
+				if (cursor >= claimed) {
+					break;
+				}
+				long oldest = claimed - slots.length();
+				if (cursor < oldest) {
+					// Lapped by the producers: everything before oldest has been overwritten
+					dropped += oldest - cursor;
+					cursor = oldest;
+				}
+				Entry entry = slots.get((int) (cursor & mask));
+				if (entry == null || entry.sequence < cursor) {
+					// Claimed but not written yet; pick it up next time
+					break;
+				}
+				if (entry.sequence > cursor) {
+					continue;
+				}
+				out.add(entry);
+				cursor++;
+				added++;
+			}
+			return added;
+		}
+
+		// Entries this reader missed because it fell a whole ring behind; resets the count
+		long takeDropped() {
+			long count = dropped;
+			dropped = 0;
+			return count;
+		}
+	}
+
+	// Start the background writer. The active file is dir/name; when it reaches maxBytes it
+	// becomes name.1, older files shift up, and anything past name.(files - 1) is deleted
+	void startFileWriter(Path dir, String name, long maxBytes, int files) throws IOException {
+		Files.createDirectories(dir);
+		RotatingFile out = new RotatingFile(dir, name, maxBytes, files);
+		Reader reader = reader();
+		Thread t = new Thread(() -> drain(reader, out), "event-log-writer");
+		t.setDaemon(true);
+		writer = t;
+		t.start();
+	}
+
+	private void drain(Reader reader, RotatingFile out) {
+		List<Entry> batch = new ArrayList<>(1024);
+		try {
+			while (true) {
+				boolean last = closing;
+				batch.clear();
+				reader.drainTo(batch, 1024);
+				long dropped = reader.takeDropped();
+				if (dropped > 0) {
+					out.write(System.currentTimeMillis(), dropped + " events dropped, log writer fell behind");
+				}
+				for (Entry entry : batch) {
+					out.write(entry.timeMillis, entry.text);
+				}
+				if (batch.isEmpty()) {
+					out.flush();
+					if (last) {
+						break;
+					}
+					LockSupport.parkNanos(50_000_000L);
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Event log writer stopped: " + e.getMessage());
+		} finally {
+			out.close();
+		}
+	}
+
+	// Write out everything recorded so far and stop the file writer
+	void close() {
+		Thread t = writer;
+		if (t == null) {
+			return;
+		}
+		closing = true;
+		LockSupport.unpark(t);
+		try {
+			t.join(5000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static final class RotatingFile {
+		private final Path dir;
+		private final String name;
+		private final long maxBytes;
+		private final int files;
+		private BufferedWriter out;
+		private long written;
+
+		RotatingFile(Path dir, String name, long maxBytes, int files) throws IOException {
+			this.dir = dir;
+			this.name = name;
+			this.maxBytes = maxBytes;
+			this.files = Math.max(1, files);
+			open();
+		}
+
+		private void open() throws IOException {
+			Path active = dir.resolve(name);
+			written = Files.exists(active) ? Files.size(active) : 0;
+			out = Files.newBufferedWriter(active, StandardCharsets.UTF_8,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		}
+
+		void write(long timeMillis, String text) throws IOException {
+			String line = Instant.ofEpochMilli(timeMillis) + " " + text + System.lineSeparator();
+			if (written > 0 && written + line.length() > maxBytes) {
+				rotate();
+			}
+			out.write(line);
+			written += line.length();
+		}
+
+		private void rotate() throws IOException {
+			out.close();
+			Files.deleteIfExists(dir.resolve(name + "." + (files - 1)));
+			for (int i = files - 2; i >= 1; i--) {
+				Path from = dir.resolve(name + "." + i);
+				if (Files.exists(from)) {
+					Files.move(from, dir.resolve(name + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+			if (files > 1) {
+				Files.move(dir.resolve(name), dir.resolve(name + ".1"), StandardCopyOption.REPLACE_EXISTING);
+			} else {
+				Files.delete(dir.resolve(name));
+			}
+			open();
+		}
+
+		void flush() throws IOException {
+			out.flush();
+		}
+
+		void close() {
+			try {
+				out.close();
+			} catch (IOException e) {
+				System.err.println("Error closing event log: " + e.getMessage());
+			}
+		}
+	}
+}
@@ -1,122 +1,209 @@
-public class Game {
-    private int[][] board;
-    String player1;
-    String player2;
-    private String currentPlayer;
-    private boolean gameActive;
-
-    public Game(String player1, String player2) {
-        this.board = new int[6][7];
-        this.player1 = player1;
-        this.player2 = player2;
-        this.currentPlayer = player1;
-        this.gameActive = true;
-    }
-
-    // Attempt to place a piece in the specified column
-    // Returns false if move is invalid (wrong turn, full column, or out of bounds)
-    public boolean makeMove(String player, int column) {
-        if (!gameActive || !player.equals(currentPlayer) || column < 0 || column >= 7) {
-            return false;
-        }
-
-        // Find lowest available row in the column (gravity effect)
-        int row = -1;
-        for (int r = 5; r >= 0; r--) {
-            if (board[r][column] == 0) {
-                row = r;
-                break;
-            }
-        }
-
-        if (row == -1) {
-            return false;
-        }
-
-        int playerNum;
-        if (player.equals(player1)) {
-            playerNum = 1;
-        } else {
-            playerNum = 2;
-        }
-        board[row][column] = playerNum;
-
-        if (currentPlayer.equals(player1)) {
-            currentPlayer = player2;
-        } else {
-            currentPlayer = player1;
-        }
-
-        return true;
-    }
-
-    public boolean checkWin() {
-        // horizontal
-        for (int r = 0; r < 6; r++) {
-            for (int c = 0; c <= 3; c++) {
-                if (board[r][c] != 0 && board[r][c] == board[r][c+1] && board[r][c] == board[r][c+2] && board[r][c] == board[r][c+3]) {
-                    return true;
-                }
-            }
-        }
-
-        // vertical
-        for (int r = 0; r <= 2; r++) {
-            for (int c = 0; c < 7; c++) {
-                if (board[r][c] != 0 && board[r][c] == board[r+1][c] && board[r][c] == board[r+2][c] && board[r][c] == board[r+3][c]) {
-                    return true;
-                }
-            }
-        }
-
-        // diagonal1 (top-left to bottom-right)
-        for (int r = 0; r <= 2; r++) {
-            for (int c = 0; c <= 3; c++) {
-                if (board[r][c] != 0 && board[r][c] == board[r+1][c+1] && board[r][c] == board[r+2][c+2] && board[r][c] == board[r+3][c+3]) {
-                    return true;
-                }
-            }
-        }
-
-        // diagonal2 (bottom-left to top-right)
-        for (int r = 3; r < 6; r++) {
-            for (int c = 0; c <= 3; c++) {
-                if (board[r][c] != 0 && board[r][c] == board[r-1][c+1] && board[r][c] == board[r-2][c+2] && board[r][c] == board[r-3][c+3]) {
-                    return true;
-                }
-            }
-        }
-        return false;
-    }
-
-    public boolean checkDraw() {
-        for (int c = 0; c < 7; c++) {
-            if (board[0][c] == 0) {
-                return false;
-            }
-        }
-        return true;
-    }
-
-    public int[][] getBoard() {
-        int[][] copy = new int[6][7];
-        for (int r = 0; r < 6; r++) {
-            System.arraycopy(board[r], 0, copy[r], 0, 7);
-        }
-        return copy;
-    }
-
-    public String getCurrentPlayer() {
-        return currentPlayer;
-    }
-
-    public void reset() {
-        board = new int[6][7];
-        currentPlayer = player1;
-        gameActive = true;
-    }
-
-    public void setGameActive(boolean active) {
-        this.gameActive = active;
-    }
-}
\ No newline at end of file
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class Game {
+    // Bitboard layout: each column uses 7 bits (6 playable rows plus a sentinel bit),
+    // bit index = column * 7 + height, where height 0 is the bottom row.
+    static final int ROWS = 6;
+    static final int COLUMNS = 7;
+    static final int COLUMN_STRIDE = ROWS + 1;
+
+    // Zobrist keys, one random 64-bit value per cell and colour. A position's hash is the XOR of
+    // the keys of its pieces, updated with one XOR per move; mirrorHash hashes the same pieces
+    // as if the board were flipped left to right, so a position and its mirror can share a key
+    private static final long[][] ZOBRIST = new long[2][COLUMNS * COLUMN_STRIDE];
+
+    static {
+        Random random = new Random(0x436f6e6e65637434L);
+        for (long[] keys : ZOBRIST) {
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = random.nextLong();
+            }
+        }
+    }
+
+    private long player1Pieces;
+    private long player2Pieces;
+    private final int[] heights = new int[COLUMNS];
+    private int moveCount;
+    private boolean won;
+    // Last accepted move, in getBoard() coordinates, and a counter of state changes
+    // (moves and resets) so clients can spot a missed update
+    private int lastColumn = -1;
+    private int lastRow = -1;
+    private int lastPlayer;
+    private int sequence;
+    private long hash;
+    private long mirrorHash;
+    String player1;
+    String player2;
+    // Assigned by the server's Journal; names this game in its records
+    long id;
+    // Held by the server while it applies a move and sends the results,
+    // so both players receive this game's updates in sequence order
+    final ReentrantLock lock = new ReentrantLock();
+    private String currentPlayer;
+    private boolean gameActive;
+
+    public Game(String player1, String player2) {
+        this.player1 = player1;
+        this.player2 = player2;
+        this.currentPlayer = player1;
+        this.gameActive = true;
+    }
+
+    // Replay moves in the usual Connect-4 notation, the columns played so far from 1 to 7, left
+    // to right, on a fresh game
+    static Game fromMoves(String moves) {
+        Game game = new Game("first", "second");
+        for (char c : moves.toCharArray()) {
+            if (!game.makeMove(game.getCurrentPlayer(), c - '1') || game.checkWin()) {
+                throw new IllegalArgumentException("Not a playable, undecided position: " + moves);
+            }
+        }
+        return game;
+    }
+
+    // Attempt to place a piece in the specified column
+    // Returns false if move is invalid (wrong turn, full column, or out of bounds)
+    public boolean makeMove(String player, int column) {
+        if (!gameActive || !player.equals(currentPlayer) || column < 0 || column >= COLUMNS) {
+            return false;
+        }
+
+        // Gravity is just the column height, no scan needed
+        int height = heights[column];
+        if (height == ROWS) {
+            return false;
+        }
+
+        long piece = 1L << (column * COLUMN_STRIDE + height);
+        int colour = player.equals(player1) ? 0 : 1;
+        hash ^= ZOBRIST[colour][column * COLUMN_STRIDE + height];
+        mirrorHash ^= ZOBRIST[colour][(COLUMNS - 1 - column) * COLUMN_STRIDE + height];
+        heights[column] = height + 1;
+        moveCount++;
+        sequence++;
+        lastColumn = column;
+        lastRow = ROWS - 1 - height;
+
+        if (player.equals(player1)) {
+            player1Pieces |= piece;
+            won |= connectsFour(player1Pieces, piece);
+            lastPlayer = 1;
+        } else {
+            player2Pieces |= piece;
+            won |= connectsFour(player2Pieces, piece);
+            lastPlayer = 2;
+        }
+
+        if (currentPlayer.equals(player1)) {
+            currentPlayer = player2;
+        } else {
+            currentPlayer = player1;
+        }
+
+        return true;
+    }
+
+    // Only the mover's pieces changed, so any new four-in-a-row must pass through the last piece.
+    // For each direction, m marks every cell that starts a run of four; a run containing the
+    // new piece has to start at one of the four cells behind it along that direction.
+    private static boolean connectsFour(long pieces, long piece) {
+        // vertical, horizontal, diagonal (/), diagonal (\)
+        return runThrough(pieces, piece, 1)
+                || runThrough(pieces, piece, COLUMN_STRIDE)
+                || runThrough(pieces, piece, COLUMN_STRIDE + 1)
+                || runThrough(pieces, piece, COLUMN_STRIDE - 1);
+    }
+
+    private static boolean runThrough(long pieces, long piece, int shift) {
+        long m = pieces & (pieces >>> shift);
+        m &= m >>> (2 * shift);
+        long starts = piece | (piece >>> shift) | (piece >>> (2 * shift)) | (piece >>> (3 * shift));
+        return (m & starts) != 0;
+    }
+
+    public boolean checkWin() {
+        return won;
+    }
+
+    public boolean checkDraw() {
+        // The top row is full exactly when every cell is filled
+        return moveCount == ROWS * COLUMNS;
+    }
+
+    public int[][] getBoard() {
+        int[][] copy = new int[ROWS][COLUMNS];
+        for (int c = 0; c < COLUMNS; c++) {
+            for (int h = 0; h < heights[c]; h++) {
+                long piece = 1L << (c * COLUMN_STRIDE + h);
+                copy[ROWS - 1 - h][c] = (player1Pieces & piece) != 0 ? 1 : 2;
+            }
+        }
+        return copy;
+    }
+
+    public String getCurrentPlayer() {
+        return currentPlayer;
+    }
+
+    public int getLastColumn() {
+        return lastColumn;
+    }
+
+    public int getLastRow() {
+        return lastRow;
+    }
+
+    public int getLastPlayer() {
+        return lastPlayer;
+    }
+
+    public int getMoveCount() {
+        return moveCount;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    // The position as the bots search it: the pieces of the player to move, and every filled cell
+    long moverPieces() {
+        return currentPlayer.equals(player1) ? player1Pieces : player2Pieces;
+    }
+
+    long occupied() {
+        return player1Pieces | player2Pieces;
+    }
+
+    long hash() {
+        return hash;
+    }
+
+    long mirrorHash() {
+        return mirrorHash;
+    }
+
+    public void reset() {
+        player1Pieces = 0;
+        player2Pieces = 0;
+        for (int c = 0; c < COLUMNS; c++) {
+            heights[c] = 0;
+        }
+        moveCount = 0;
+        hash = 0;
+        mirrorHash = 0;
+        won = false;
+        lastColumn = -1;
+        lastRow = -1;
+        lastPlayer = 0;
+        sequence++;
+        currentPlayer = player1;
+        gameActive = true;
+    }
+
+    public void setGameActive(boolean active) {
+        this.gameActive = active;
+    }
+}
@@ -1,3 +1,6 @@
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.event.EventHandler;
@@ -8,10 +11,21 @@ import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
 import javafx.stage.Stage;
 import javafx.stage.WindowEvent;
+import javafx.util.Duration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class GuiServer extends Application{
 
+	// How often the view samples the event log, and how many lines it keeps on screen
+	static final Duration REFRESH = Duration.millis(250);
+	static final int MAX_VIEW_ITEMS = 1000;
+
 	Server serverConnection;
+	EventLog events;
+	EventLog.Reader eventReader;
 	
 	ListView<String> listItems;
 	ListView<String> listUsers;
@@ -23,26 +37,10 @@ public class GuiServer extends Application{
 
 	@Override
 	public void start(Stage primaryStage) throws Exception {
-		serverConnection = new Server(data->{
-			Platform.runLater(()->{
-				switch (data.type){
-					case SIMPLE:
-						listItems.getItems().add(data.message);
-						break;
-					case TEXT:
-						listItems.getItems().add(data.username+": "+data.message);
-						break;
-					case LOGIN:
-						listUsers.getItems().add(String.valueOf(data.username));
-						listItems.getItems().add(data.username + " has joined");
-						break;
-					case DISCONNECT:
-						listUsers.getItems().remove(String.valueOf(data.username));
-						listItems.getItems().add(data.username + " has disconnected");
-						break;
-				}
-			});
-		});
+		// The server never touches the FX thread; the view samples the event log instead
+		events = EventLog.open();
+		eventReader = events.reader();
+		serverConnection = new Server(events::record);
 
 		listItems = new ListView<String>();
 		listUsers = new ListView<String>();
@@ -56,13 +54,46 @@ public class GuiServer extends Application{
 		primaryStage.setOnCloseRequest(new EventHandler<WindowEvent>() {
             @Override
             public void handle(WindowEvent t) {
+                events.close();
                 Platform.exit();
                 System.exit(0);
             }
         });
 
+		Timeline refresh = new Timeline(new KeyFrame(REFRESH, e -> refresh()));
+		refresh.setCycleCount(Animation.INDEFINITE);
+		refresh.play();
+
 		primaryStage.setScene(new Scene(pane, 500, 400));
 		primaryStage.setTitle("This is the Server");
 		primaryStage.show();
 	}
+
+	// Show whatever was logged since the last sample and the current logins, keeping the view bounded
+	private void refresh() {
+		List<EventLog.Entry> fresh = new ArrayList<>();
+		eventReader.drainTo(fresh, MAX_VIEW_ITEMS);
+		List<String> lines = new ArrayList<>(fresh.size() + 1);
+		long skipped = eventReader.takeDropped();
+		if (skipped > 0) {
+			lines.add("... " + skipped + " events skipped");
+		}
+		for (EventLog.Entry entry : fresh) {
+			lines.add(entry.text);
+		}
+		listItems.getItems().addAll(lines);
+		int excess = listItems.getItems().size() - MAX_VIEW_ITEMS;
+		if (excess > 0) {
+			listItems.getItems().remove(0, excess);
+		}
+
+		List<String> users = new ArrayList<>();
+		for (SessionRegistry.Session session : serverConnection.sessions.all()) {
+			users.add(session.username);
+		}
+		Collections.sort(users);
+		if (!users.equals(listUsers.getItems())) {
+			listUsers.getItems().setAll(users);
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,569 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+// Append-only record of every game: starts, moves, results, rematches and abandoned games,
+// written to numbered segment files. Game threads encode their records straight into a shared
+// buffer under a short lock and never wait for the disk, even when the buffer is full: the
+// record is dropped and that game is no longer journaled (see reserve). One writer thread swaps that buffer
+// for an empty one, writes the whole batch and forces it once. This is group commit: under load
+// one fsync covers the moves of every game played since the previous one, and a crash loses at
+// most the batches not yet forced. Each record carries its length and a CRC, so a torn tail is
+// found and cut off when the journal is reopened, and opening replays every segment to rebuild
+// the games that were still in progress.
+//
+// The journal keeps each live game's players and moves in memory. Once segmentBytes have been
+// appended since the last compaction, the writer starts a new segment with a checkpoint, a
+// START and the moves of every live game, and deletes the older segments, so finished games
+// do not stay on disk. A game is live from its start until it is abandoned, as rematches reuse
+// it; after a restart only the games still in progress are.
+//
+//   record   int body length, int CRC32C of the body, then the body:
+//            byte type, long game id, then by type
+//   START    short length + UTF-8 player1, short length + UTF-8 player2
+//   MOVE     byte column
+//   RESULT   byte winner (1 or 2, 0 for a draw)
+//   REMATCH, ABANDON  nothing more
+public class Journal {
+	static final byte START = 1;
+	static final byte MOVE = 2;
+	static final byte RESULT = 3;
+	static final byte REMATCH = 4;
+	static final byte ABANDON = 5;
+
+	static final int RECORD_HEADER = 8;
+	// A START with two 20-character names of up to 4 UTF-8 bytes each
+	static final int MAX_BODY = 1 + 8 + 2 * (2 + 80);
+	private static final String PREFIX = "journal-";
+	private static final String SUFFIX = ".log";
+
+	private final Path dir;
+	private final long segmentBytes;
+	private final boolean sync;
+	private final AtomicLong nextGameId = new AtomicLong(1);
+	// Games still in progress when the journal was last written, in the order they started
+	private final Map<Long, Game> recovered = new LinkedHashMap<>();
+	// Guarded by lock: what a checkpoint writes again, in the order the games started
+	private final Map<Long, Live> live = new LinkedHashMap<>();
+	private long recoveredRecords;
+	private long truncatedBytes;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	// The writer waits on pending for records
+	private final Condition pending = lock.newCondition();
+	// Guarded by lock: appenders fill active while the writer drains standby
+	private ByteBuffer active;
+	private ByteBuffer standby;
+	private int recordStart;
+	private final CRC32C crc = new CRC32C();
+	private boolean closed;
+	private volatile boolean failed;
+	// Guarded by lock: games that lost a record to a full buffer, whose later records are
+	// skipped, and those of them still owed an ABANDON. Replay must never rebuild a game from a
+	// move list with a hole in it, so the ABANDON goes in as soon as there is room
+	private final Set<Long> lost = new HashSet<>();
+	private final Set<Long> unmarked = new HashSet<>();
+
+	// Writer thread only; segmentSize is read under lock to decide when to compact
+	private FileChannel segment;
+	private int segmentIndex;
+	private long segmentSize;
+	private long checkpointSize;
+	private Thread writer;
+
+	private final LongAdder records = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder bytesWritten = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder compactions = new LongAdder();
+	private final LatencyHistogram forces = new LatencyHistogram();
+
+	// A game's players and its moves since the last START or REMATCH
+	private static final class Live {
+		final byte[] player1;
+		final byte[] player2;
+		final byte[] moves = new byte[Game.ROWS * Game.COLUMNS];
+		int count;
+
+		Live(byte[] player1, byte[] player2) {
+			this.player1 = player1;
+			this.player2 = player2;
+		}
+	}
+
+	private Journal(Path dir, long segmentBytes, int bufferBytes, boolean sync) {
+		this.dir = dir;
+		this.segmentBytes = segmentBytes;
+		this.sync = sync;
+		this.active = ByteBuffer.allocate(bufferBytes);
+		this.standby = ByteBuffer.allocate(bufferBytes);
+	}
+
+	// -Dconnect4.journalDir (default journal), -Dconnect4.journalSegmentBytes per file
+	// (default 64 MB), -Dconnect4.journalBufferBytes per batch (default 1 MB), and
+	// -Dconnect4.journalSync=false to leave writing back to the OS instead of forcing each batch
+	static Journal open() throws IOException {
+		return open(Paths.get(System.getProperty("connect4.journalDir", "journal")),
+				Long.getLong("connect4.journalSegmentBytes", 64L << 20),
+				Integer.getInteger("connect4.journalBufferBytes", 1 << 20),
+				!"false".equals(System.getProperty("connect4.journalSync")));
+	}
+
+	static Journal open(Path dir, long segmentBytes, int bufferBytes, boolean sync) throws IOException {
+		Journal journal = new Journal(dir, segmentBytes, Math.max(bufferBytes, RECORD_HEADER + MAX_BODY), sync);
+		Files.createDirectories(dir);
+		journal.recover();
+		journal.writer = new Thread(journal::drain, "journal-writer");
+		journal.writer.setDaemon(true);
+		journal.writer.start();
+		return journal;
+	}
+
+	// Ids carry on from the largest one already in the journal
+	long newGameId() {
+		return nextGameId.getAndIncrement();
+	}
+
+	Collection<Game> recovered() {
+		return Collections.unmodifiableCollection(recovered.values());
+	}
+
+	long recoveredRecords() {
+		return recoveredRecords;
+	}
+
+	long truncatedBytes() {
+		return truncatedBytes;
+	}
+
+	long records() {
+		return records.sum();
+	}
+
+	long batches() {
+		return batches.sum();
+	}
+
+	long bytesWritten() {
+		return bytesWritten.sum();
+	}
+
+	// Records not journaled because the buffer was full or their game had already lost one
+	long dropped() {
+		return dropped.sum();
+	}
+
+	long compactions() {
+		return compactions.sum();
+	}
+
+	LatencyHistogram forces() {
+		return forces;
+	}
+
+	void start(Game game) {
+		byte[] player1 = game.player1.getBytes(StandardCharsets.UTF_8);
+		byte[] player2 = game.player2.getBytes(StandardCharsets.UTF_8);
+		lock.lock();
+		try {
+			if (reserve(START, game.id, 4 + player1.length + player2.length)) {
+				active.putShort((short) player1.length).put(player1);
+				active.putShort((short) player2.length).put(player2);
+				commit();
+				live.put(game.id, new Live(player1, player2));
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void move(Game game, int column) {
+		append(MOVE, game.id, column);
+	}
+
+	// winner is 1 or 2 as in Game.getLastPlayer, or 0 for a draw
+	void result(Game game, int winner) {
+		append(RESULT, game.id, winner);
+	}
+
+	void rematch(Game game) {
+		append(REMATCH, game.id, -1);
+	}
+
+	void abandon(Game game) {
+		append(ABANDON, game.id, -1);
+	}
+
+	// A record with one byte of payload, or none when value is negative
+	private void append(byte type, long gameId, int value) {
+		lock.lock();
+		try {
+			if (reserve(type, gameId, value < 0 ? 0 : 1)) {
+				if (value >= 0) {
+					active.put((byte) value);
+				}
+				commit();
+				track(type, gameId, value);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Lock held, or replay before the writer starts: the live games after a record
+	private void track(byte type, long gameId, int value) {
+		Live game = live.get(gameId);
+		if (game == null) {
+			return;
+		}
+		if (type == MOVE && game.count < game.moves.length) {
+			game.moves[game.count++] = (byte) value;
+		} else if (type == REMATCH) {
+			game.count = 0;
+		} else if (type == ABANDON) {
+			live.remove(gameId);
+		}
+	}
+
+	// Lock held. Starts a record after room for its header. Appenders run on transport threads
+	// under the game's lock, so a full buffer is never waited out: the record is dropped and
+	// its game is marked lost instead. False then, and once the journal is closed or has failed:
+	// the game goes on without it
+	private boolean reserve(byte type, long gameId, int payload) {
+		if (failed || closed) {
+			return false;
+		}
+		markLost();
+		if (!lost.isEmpty() && lost.contains(gameId)) {
+			if (type == ABANDON) {
+				// The ABANDON owed to it stands in for this one
+				lost.remove(gameId);
+			}
+			dropped.increment();
+			return false;
+		}
+		int size = RECORD_HEADER + 1 + 8 + payload;
+		if (active.remaining() < size) {
+			live.remove(gameId);
+			lost.add(gameId);
+			if (type != START) {
+				unmarked.add(gameId);
+			}
+			dropped.increment();
+			pending.signal();
+			return false;
+		}
+		begin(type, gameId);
+		return true;
+	}
+
+	private void begin(byte type, long gameId) {
+		recordStart = active.position();
+		active.position(recordStart + RECORD_HEADER);
+		active.put(type).putLong(gameId);
+	}
+
+	// Lock held. Writes the ABANDONs owed to lost games, as many as there is room for
+	private void markLost() {
+		for (Iterator<Long> games = unmarked.iterator(); games.hasNext() && active.remaining() >= RECORD_HEADER + 9; ) {
+			begin(ABANDON, games.next());
+			commit();
+			games.remove();
+		}
+	}
+
+	// Lock held. Fills in the header of the record reserve started and wakes the writer
+	private void commit() {
+		seal(active, recordStart);
+		records.increment();
+		pending.signal();
+	}
+
+	// Lock held, for crc. The length and CRC of the record whose header starts at start
+	private void seal(ByteBuffer out, int start) {
+		int length = out.position() - start - RECORD_HEADER;
+		crc.reset();
+		crc.update(out.array(), start + RECORD_HEADER, length);
+		out.putInt(start, length);
+		out.putInt(start + 4, (int) crc.getValue());
+	}
+
+	// Lock held. Every live game as a START and its moves, led by an ABANDON of the newest id
+	// handed out, which replay treats like any other id so new ids still carry on from it once
+	// the segments that used it are gone
+	private ByteBuffer checkpoint() {
+		int size = RECORD_HEADER + 9;
+		for (Live game : live.values()) {
+			size += RECORD_HEADER + 13 + game.player1.length + game.player2.length + game.count * (RECORD_HEADER + 10);
+		}
+		ByteBuffer out = ByteBuffer.allocate(size);
+		seal(out, put(out, ABANDON, nextGameId.get() - 1));
+		for (Map.Entry<Long, Live> entry : live.entrySet()) {
+			Live game = entry.getValue();
+			int start = put(out, START, entry.getKey());
+			out.putShort((short) game.player1.length).put(game.player1);
+			out.putShort((short) game.player2.length).put(game.player2);
+			seal(out, start);
+			for (int i = 0; i < game.count; i++) {
+				start = put(out, MOVE, entry.getKey());
+				out.put(game.moves[i]);
+				seal(out, start);
+			}
+		}
+		out.flip();
+		return out;
+	}
+
+	// Starts a record in out after room for its header and returns where it starts
+	private static int put(ByteBuffer out, byte type, long gameId) {
+		int start = out.position();
+		out.position(start + RECORD_HEADER);
+		out.put(type).putLong(gameId);
+		return start;
+	}
+
+	// Writer thread: everything appended while the last batch was being written and forced
+	// becomes the next batch
+	private void drain() {
+		ByteBuffer checkpoint = null;
+		try {
+			while (true) {
+				lock.lock();
+				try {
+					while (active.position() == 0 && !closed) {
+						pending.awaitUninterruptibly();
+					}
+					if (active.position() == 0) {
+						return;
+					}
+					ByteBuffer batch = active;
+					active = standby;
+					standby = batch;
+					markLost();
+					// Taken with the batch, so it holds exactly the games the batch leaves behind
+					if (segmentSize - checkpointSize + batch.position() >= segmentBytes) {
+						checkpoint = checkpoint();
+					}
+				} finally {
+					lock.unlock();
+				}
+				standby.flip();
+				write(standby);
+				standby.clear();
+				if (checkpoint != null) {
+					compact(checkpoint);
+					checkpoint = null;
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Journal stopped: " + e.getMessage());
+			lock.lock();
+			try {
+				failed = true;
+			} finally {
+				lock.unlock();
+			}
+		} finally {
+			try {
+				if (segment != null) {
+					segment.close();
+				}
+			} catch (IOException e) {
+				System.err.println("Error closing journal: " + e.getMessage());
+			}
+		}
+	}
+
+	private void write(ByteBuffer batch) throws IOException {
+		int size = batch.remaining();
+		// Segments only change between batches, so a segment only ever ends on a record boundary
+		if (segment == null) {
+			roll();
+		}
+		while (batch.hasRemaining()) {
+			segment.write(batch);
+		}
+		segmentSize += size;
+		if (sync) {
+			long start = System.nanoTime();
+			segment.force(false);
+			forces.record(System.nanoTime() - start);
+		}
+		batches.increment();
+		bytesWritten.add(size);
+	}
+
+	// The batch before the checkpoint is already forced into the old segments, so a crash before
+	// they are all deleted replays them and then the checkpoint, which starts each live game over
+	private void compact(ByteBuffer checkpoint) throws IOException {
+		roll();
+		checkpointSize = checkpoint.remaining();
+		write(checkpoint);
+		for (int index : segmentIndexes()) {
+			if (index < segmentIndex) {
+				Files.deleteIfExists(segmentPath(index));
+			}
+		}
+		compactions.increment();
+	}
+
+	private void roll() throws IOException {
+		if (segment != null) {
+			segment.close();
+			segmentIndex++;
+		}
+		segment = FileChannel.open(segmentPath(segmentIndex),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		segmentSize = segment.size();
+	}
+
+	// Writes and forces whatever is buffered, then stops the writer. Later records are dropped
+	void close() {
+		lock.lock();
+		try {
+			closed = true;
+			pending.signal();
+		} finally {
+			lock.unlock();
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private Path segmentPath(int index) {
+		return dir.resolve(String.format("%s%06d%s", PREFIX, index, SUFFIX));
+	}
+
+	// Replays every segment in order. A record that is cut short or fails its CRC can only be
+	// the tail of a write that never finished, so the segment is truncated there and appending
+	// resumes from the last good record
+	private void recover() throws IOException {
+		long maxId = 0;
+		for (int index : segmentIndexes()) {
+			segmentIndex = index;
+			Path path = segmentPath(index);
+			ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+			int good = 0;
+			while (true) {
+				long id = replay(in);
+				if (id < 0) {
+					break;
+				}
+				maxId = Math.max(maxId, id);
+				good = in.position();
+				recoveredRecords++;
+			}
+			if (good < in.limit()) {
+				try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+					channel.truncate(good);
+				}
+				truncatedBytes += in.limit() - good;
+			}
+		}
+		nextGameId.set(maxId + 1);
+		// Nobody is left to rematch a decided game, so only the undecided ones stay live
+		for (Iterator<Map.Entry<Long, Live>> games = live.entrySet().iterator(); games.hasNext(); ) {
+			Map.Entry<Long, Live> entry = games.next();
+			Live moves = entry.getValue();
+			Game game = new Game(new String(moves.player1, StandardCharsets.UTF_8), new String(moves.player2, StandardCharsets.UTF_8));
+			game.id = entry.getKey();
+			for (int i = 0; i < moves.count; i++) {
+				game.makeMove(game.getCurrentPlayer(), moves.moves[i]);
+			}
+			if (game.checkWin() || game.checkDraw()) {
+				games.remove();
+			} else {
+				recovered.put(game.id, game);
+			}
+		}
+	}
+
+	private List<Integer> segmentIndexes() throws IOException {
+		List<Integer> indexes = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				try {
+					indexes.add(Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+				} catch (NumberFormatException e) {
+					// Not one of ours
+				}
+			}
+		}
+		Collections.sort(indexes);
+		return indexes;
+	}
+
+	// Applies the next record to the live games and returns its game id, or -1 at the end of
+	// the good records, leaving the position after the record it read
+	private long replay(ByteBuffer in) {
+		int start = in.position();
+		if (in.remaining() < RECORD_HEADER) {
+			return -1;
+		}
+		int length = in.getInt(start);
+		int checksum = in.getInt(start + 4);
+		if (length < 9 || length > MAX_BODY || in.remaining() - RECORD_HEADER < length) {
+			return -1;
+		}
+		crc.reset();
+		ByteBuffer body = in.duplicate();
+		body.position(start + RECORD_HEADER).limit(start + RECORD_HEADER + length);
+		crc.update(body);
+		if ((int) crc.getValue() != checksum) {
+			return -1;
+		}
+
+		in.position(start + RECORD_HEADER);
+		byte type = in.get();
+		long id = in.getLong();
+		switch (type) {
+			case START:
+				byte[] player1 = new byte[in.getShort()];
+				in.get(player1);
+				byte[] player2 = new byte[in.getShort()];
+				in.get(player2);
+				// A checkpoint starts a game over that older segments may still hold
+				live.put(id, new Live(player1, player2));
+				break;
+			case MOVE:
+				track(MOVE, id, in.get());
+				break;
+			case RESULT:
+				// The moves already decided the game; the record is for readers of the journal
+				in.get();
+				break;
+			case REMATCH:
+			case ABANDON:
+				track(type, id, -1);
+				break;
+			default:
+				return -1;
+		}
+		in.position(start + RECORD_HEADER + length);
+		return id;
+	}
+}
@@ -0,0 +1,71 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Fixed-size log-linear histogram of durations in nanoseconds, in the style of HdrHistogram:
+// exact below 64 ns, then 32 buckets per power of two, so any value is known to within about 3%.
+// Recording is an array increment plus two adders. It never locks and, once the adders have
+// grown their cells, never allocates, so it can sit on the message path.
+public class LatencyHistogram {
+	private static final int LINEAR = 64;
+	private static final int SUB_BUCKETS = 32;
+	private static final int BUCKETS = LINEAR + 58 * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+
+	void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(index(value));
+		count.increment();
+		sum.add(value);
+	}
+
+	long count() {
+		return count.sum();
+	}
+
+	long sumNanos() {
+		return sum.sum();
+	}
+
+	// The value below which a share p of recordings fall (the bucket's upper bound), 0 if empty.
+	// Reads race with recording, so under load the answer is a moment's snapshot, not exact
+	long percentile(double p) {
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(p * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return upperBound(i);
+			}
+		}
+		return upperBound(BUCKETS - 1);
+	}
+
+	static int index(long value) {
+		if (value < LINEAR) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - 5;
+		return LINEAR + (shift - 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	static long upperBound(int index) {
+		if (index < LINEAR) {
+			return index;
+		}
+		int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+		long sub = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((sub + 1) << shift) - 1;
+	}
+}
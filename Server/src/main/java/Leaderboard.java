@@ -0,0 +1,190 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Every rated player, best first: by rating, then by name. An indexed skip list, laid out as in
+// Redis sorted sets: each forward link also records how many places it skips, so the rank of a
+// player and the player at a rank are both found by one O(log n) walk down from the head, and a
+// page is that walk plus a step along the bottom level per entry. Changing a rating unlinks the
+// player's node and links a new one in its place. Not thread-safe; Ratings guards it
+public class Leaderboard {
+	static final int MAX_LEVEL = 32;
+
+	static final class Node {
+		final String name;
+		final int rating;
+		final Node[] next;
+		// span[i]: how many places next[i] is ahead of this node; not used while next[i] is null
+		final int[] span;
+
+		Node(String name, int rating, int levels) {
+			this.name = name;
+			this.rating = rating;
+			this.next = new Node[levels];
+			this.span = new int[levels];
+		}
+	}
+
+	private final Node head = new Node(null, 0, MAX_LEVEL);
+	private final Map<String, Node> byName = new HashMap<>();
+	private int levels = 1;
+	// Nodes linked in; a node being moved is briefly out of the list but still in byName
+	private int length;
+
+	int size() {
+		return length;
+	}
+
+	// The player's rating, or -1 if they are not on the board
+	int rating(String name) {
+		Node node = byName.get(name);
+		return node != null ? node.rating : -1;
+	}
+
+	// Add the player, or move them to their new rating
+	void put(String name, int rating) {
+		Node old = byName.get(name);
+		if (old != null) {
+			if (old.rating == rating) {
+				return;
+			}
+			unlink(old);
+		}
+		byName.put(name, link(name, rating));
+	}
+
+	void remove(String name) {
+		Node node = byName.remove(name);
+		if (node != null) {
+			unlink(node);
+		}
+	}
+
+	// 1 for the best player, 0 if the player is not on the board
+	int rank(String name) {
+		Node node = byName.get(name);
+		if (node == null) {
+			return 0;
+		}
+		Node x = head;
+		int rank = 0;
+		for (int i = levels - 1; i >= 0; i--) {
+			while (x.next[i] != null && !before(node, x.next[i])) {
+				rank += x.span[i];
+				x = x.next[i];
+			}
+			if (x == node) {
+				return rank;
+			}
+		}
+		return rank;
+	}
+
+	// Up to count players from rank on, best first
+	List<Node> page(int rank, int count) {
+		List<Node> page = new ArrayList<>(Math.max(0, Math.min(count, size() - rank + 1)));
+		Node x = at(rank);
+		while (x != null && page.size() < count) {
+			page.add(x);
+			x = x.next[0];
+		}
+		return page;
+	}
+
+	// The player at rank, or null past either end
+	private Node at(int rank) {
+		if (rank < 1 || rank > size()) {
+			return null;
+		}
+		Node x = head;
+		int traversed = 0;
+		for (int i = levels - 1; i >= 0; i--) {
+			while (x.next[i] != null && traversed + x.span[i] <= rank) {
+				traversed += x.span[i];
+				x = x.next[i];
+			}
+			if (traversed == rank) {
+				return x;
+			}
+		}
+		return null;
+	}
+
+	// Whether a sorts ahead of the entry (rating, name)
+	private static boolean before(Node a, int rating, String name) {
+		return a.rating > rating || a.rating == rating && a.name.compareTo(name) < 0;
+	}
+
+	private static boolean before(Node a, Node b) {
+		return before(a, b.rating, b.name);
+	}
+
+	private Node link(String name, int rating) {
+		Node[] update = new Node[MAX_LEVEL];
+		int[] rank = new int[MAX_LEVEL];
+		Node x = head;
+		for (int i = levels - 1; i >= 0; i--) {
+			rank[i] = i == levels - 1 ? 0 : rank[i + 1];
+			while (x.next[i] != null && before(x.next[i], rating, name)) {
+				rank[i] += x.span[i];
+				x = x.next[i];
+			}
+			update[i] = x;
+		}
+
+		int height = randomHeight();
+		if (height > levels) {
+			for (int i = levels; i < height; i++) {
+				rank[i] = 0;
+				update[i] = head;
+				head.span[i] = length;
+			}
+			levels = height;
+		}
+
+		Node node = new Node(name, rating, height);
+		for (int i = 0; i < height; i++) {
+			node.next[i] = update[i].next[i];
+			update[i].next[i] = node;
+			node.span[i] = update[i].span[i] - (rank[0] - rank[i]);
+			update[i].span[i] = rank[0] - rank[i] + 1;
+		}
+		// Links above the new node now jump over one more entry
+		for (int i = height; i < levels; i++) {
+			update[i].span[i]++;
+		}
+		length++;
+		return node;
+	}
+
+	private void unlink(Node node) {
+		Node x = head;
+		for (int i = levels - 1; i >= 0; i--) {
+			while (x.next[i] != null && before(x.next[i], node)) {
+				x = x.next[i];
+			}
+			if (x.next[i] == node) {
+				x.span[i] += node.span[i] - 1;
+				x.next[i] = node.next[i];
+			} else {
+				x.span[i]--;
+			}
+		}
+		while (levels > 1 && head.next[levels - 1] == null) {
+			levels--;
+		}
+		length--;
+	}
+
+	// Each level holds a quarter of the one below
+	private static int randomHeight() {
+		int height = 1;
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		while (height < MAX_LEVEL && random.nextInt(4) == 0) {
+			height++;
+		}
+		return height;
+	}
+}
@@ -0,0 +1,364 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Lobby presence as a sorted directory of idle players. Each watching session looks at one
+// page of it (a name prefix plus a cursor) and only hears about changes inside that page.
+// Joins and leaves update a ConcurrentSkipListMap and mark the name dirty without taking any
+// lock; once per tick the dirty names are re-read from the index and sent as a LOBBY_DELTA to
+// the sessions whose window they fall in, so a burst of logins costs each idle client at most
+// one small frame. A session gets a LOBBY_UPDATE snapshot of its page when it enters the lobby,
+// pages, searches or asks for a resync. Deltas carry the state of each name as of the tick, so
+// one that lands on a newer snapshot is at worst a tick stale and the next tick corrects it.
+// In a cluster the index also holds the idle players of the other nodes: each tick publishes
+// this node's own changes to its peers, and theirs arrive through peerChanged as stand-in
+// sessions that page, search and show up in deltas like local ones. A name idle on this node
+// shadows a stand-in for it.
+public class LobbyFeed {
+	static final int DEFAULT_PAGE_SIZE = 50;
+	static final int MAX_PAGE_SIZE = 200;
+
+	private final ScheduledExecutorService ticker;
+	private final SessionRegistry sessions;
+
+	// Every idle player by name; paging and searching are O(log n) seeks that never block updates
+	private final ConcurrentSkipListMap<String, SessionRegistry.Session> idle = new ConcurrentSkipListMap<>();
+	// Names whose presence changed since the last tick
+	private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+	// The skip list's own size() walks every entry
+	private final AtomicInteger size = new AtomicInteger();
+
+	interface Publisher {
+		// This node's players who became idle, and those who no longer are, as of one tick
+		void publish(List<String> joined, List<String> left);
+	}
+
+	// Set once the server has joined a cluster
+	private volatile Publisher publisher;
+	// Local names changed since the last tick, for the peers
+	private final Set<String> published = ConcurrentHashMap.newKeySet();
+	// Stand-ins for other nodes' idle players, by peer and name. Guarded by itself
+	private final Map<String, Map<String, SessionRegistry.Session>> remote = new HashMap<>();
+
+	// What a stand-in session is connected to: players on other nodes get no frames from here
+	static final class Elsewhere extends Connection {
+		static final Elsewhere INSTANCE = new Elsewhere();
+
+		@Override
+		void enqueue(byte[] frame) {
+		}
+
+		@Override
+		void scheduleFlush() {
+		}
+
+		@Override
+		void close() {
+		}
+	}
+
+	// The slice of the directory one session is looking at: names starting with prefix that sort
+	// after cursor, up to and including last. A page that was not full is open-ended, so the
+	// window is a fixed key range and may grow or shrink as players come and go.
+	static final class Window {
+		final String prefix;
+		final String cursor;
+		final String last;
+		final int pageSize;
+
+		Window(String prefix, String cursor, String last, int pageSize) {
+			this.prefix = prefix;
+			this.cursor = cursor;
+			this.last = last;
+			this.pageSize = pageSize;
+		}
+
+		// Where the window starts: just after the cursor, or at the first name with the prefix
+		<V> Iterable<Map.Entry<String, V>> from(NavigableMap<String, V> map) {
+			boolean afterCursor = cursor != null && cursor.compareTo(prefix) >= 0;
+			return (afterCursor ? map.tailMap(cursor, false) : map.tailMap(prefix, true)).entrySet();
+		}
+
+		// Entries are visited in order, so the first name past the window ends the scan
+		boolean pastEnd(String name) {
+			return !name.startsWith(prefix) || last != null && name.compareTo(last) > 0;
+		}
+	}
+
+	// One session's view of the lobby. Its monitor orders that session's snapshots and deltas,
+	// so versions arrive in sequence without clients ever waiting on each other
+	static final class Subscription {
+		private boolean active;
+		private Window window;
+		private int version;
+	}
+
+	LobbyFeed(SessionRegistry sessions, long tickMillis) {
+		this.sessions = sessions;
+		this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "lobby-ticker");
+			t.setDaemon(true);
+			return t;
+		});
+		ticker.scheduleWithFixedDelay(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+	}
+
+	// A player became available to challenge. If the session is released meanwhile, its own
+	// leave may have run before the put, so undo the join rather than leave a ghost behind
+	void joined(SessionRegistry.Session session) {
+		if (session.released) {
+			return;
+		}
+		if (idle.put(session.username, session) == null) {
+			size.incrementAndGet();
+		}
+		if (session.released && idle.remove(session.username, session)) {
+			size.decrementAndGet();
+			if (publisher != null) {
+				synchronized (remote) {
+					fallBack(session.username);
+				}
+			}
+		}
+		dirty.add(session.username);
+		if (publisher != null) {
+			published.add(session.username);
+		}
+	}
+
+	// Players in the lobby, without walking the index
+	int size() {
+		return size.get();
+	}
+
+	// A player started a game or logged out. Keyed on the session, so a new login that has
+	// already reclaimed the name is left alone
+	void left(SessionRegistry.Session session) {
+		if (idle.remove(session.username, session)) {
+			size.decrementAndGet();
+			dirty.add(session.username);
+			if (publisher != null) {
+				published.add(session.username);
+				synchronized (remote) {
+					fallBack(session.username);
+				}
+			}
+		}
+	}
+
+	// Start telling publisher about this node's lobby every tick
+	void publishTo(Publisher publisher) {
+		this.publisher = publisher;
+	}
+
+	// This node's idle players, for a peer that has just connected
+	List<String> localPlayers() {
+		List<String> names = new ArrayList<>();
+		for (SessionRegistry.Session session : idle.values()) {
+			if (!(session.connection instanceof Elsewhere)) {
+				names.add(session.username);
+			}
+		}
+		return names;
+	}
+
+	// Players that became idle or stopped being idle on the peer known here as key
+	void peerChanged(String key, List<String> joined, List<String> left) {
+		synchronized (remote) {
+			Map<String, SessionRegistry.Session> standIns = remote.computeIfAbsent(key, k -> new HashMap<>());
+			for (String name : joined) {
+				SessionRegistry.Session standIn = new SessionRegistry.Session(0, name, Elsewhere.INSTANCE, 0);
+				SessionRegistry.Session old = standIns.put(name, standIn);
+				if (old != null && idle.remove(name, old)) {
+					size.decrementAndGet();
+				}
+				if (idle.putIfAbsent(name, standIn) == null) {
+					size.incrementAndGet();
+				}
+				dirty.add(name);
+			}
+			for (String name : left) {
+				SessionRegistry.Session standIn = standIns.remove(name);
+				if (standIn != null && idle.remove(name, standIn)) {
+					size.decrementAndGet();
+					dirty.add(name);
+					fallBack(name);
+				}
+			}
+		}
+	}
+
+	// The peer's connection closed: none of its players are known to be idle any more
+	void peerGone(String key) {
+		synchronized (remote) {
+			Map<String, SessionRegistry.Session> standIns = remote.remove(key);
+			if (standIns == null) {
+				return;
+			}
+			for (SessionRegistry.Session standIn : standIns.values()) {
+				if (idle.remove(standIn.username, standIn)) {
+					size.decrementAndGet();
+					dirty.add(standIn.username);
+					fallBack(standIn.username);
+				}
+			}
+		}
+	}
+
+	// A name that just left the index may still be idle on another peer, e.g. while its player
+	// moves between nodes. Caller holds remote
+	private void fallBack(String name) {
+		for (Map<String, SessionRegistry.Session> standIns : remote.values()) {
+			SessionRegistry.Session standIn = standIns.get(name);
+			if (standIn != null) {
+				if (idle.putIfAbsent(name, standIn) == null) {
+					size.incrementAndGet();
+				}
+				return;
+			}
+		}
+	}
+
+	// Show a session the page it was last looking at (the first page if it never chose one)
+	void subscribe(SessionRegistry.Session session) {
+		Subscription subscription = session.lobby;
+		synchronized (subscription) {
+			Window window = subscription.window;
+			if (window == null) {
+				query(session, "", null, DEFAULT_PAGE_SIZE);
+			} else {
+				query(session, window.prefix, window.cursor, window.pageSize);
+			}
+		}
+	}
+
+	// Move a session's window and send it a snapshot of the new page. Anything that changes
+	// after the page is read is still dirty, and will reach the session through the new window
+	void query(SessionRegistry.Session session, String prefix, String cursor, int pageSize) {
+		prefix = prefix != null ? prefix : "";
+		pageSize = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+
+		Subscription subscription = session.lobby;
+		synchronized (subscription) {
+			List<String> page = new ArrayList<>();
+			boolean hasMore = false;
+			Window probe = new Window(prefix, cursor, null, pageSize);
+			for (Map.Entry<String, SessionRegistry.Session> entry : probe.from(idle)) {
+				if (probe.pastEnd(entry.getKey())) {
+					break;
+				}
+				if (page.size() == pageSize) {
+					hasMore = true;
+					break;
+				}
+				page.add(entry.getKey());
+			}
+
+			subscription.window = new Window(prefix, cursor, hasMore ? page.get(page.size() - 1) : null, pageSize);
+			subscription.active = true;
+			try {
+				session.connection.send(new Message(page, prefix, cursor, hasMore, ++subscription.version));
+			} catch (IOException e) {
+				System.err.println("Error sending lobby snapshot");
+			}
+		}
+	}
+
+	// The session is in a game; it gets a fresh snapshot if it comes back
+	void unsubscribe(SessionRegistry.Session session) {
+		synchronized (session.lobby) {
+			session.lobby.active = false;
+		}
+	}
+
+	private void tick() {
+		try {
+			publish();
+			flush();
+		} catch (Exception e) {
+			System.err.println("Error flushing lobby update: " + e.getMessage());
+		}
+	}
+
+	// Ticker thread only. Like flush, each name carries its state as of this tick
+	private void publish() {
+		Publisher publisher = this.publisher;
+		if (publisher == null || published.isEmpty()) {
+			return;
+		}
+		List<String> joined = new ArrayList<>();
+		List<String> left = new ArrayList<>();
+		for (String name : published) {
+			published.remove(name);
+			SessionRegistry.Session session = idle.get(name);
+			(session != null && !(session.connection instanceof Elsewhere) ? joined : left).add(name);
+		}
+		publisher.publish(joined, left);
+	}
+
+	// Ticker thread only
+	void flush() {
+		// Clear the mark before reading the index, so a change racing with this tick
+		// is either seen now or marks the name again for the next one
+		TreeMap<String, Boolean> changes = new TreeMap<>();
+		for (String name : dirty) {
+			dirty.remove(name);
+			changes.put(name, idle.containsKey(name));
+		}
+		if (changes.isEmpty()) {
+			return;
+		}
+
+		// Sessions looking at the same page get the same names, so each distinct delta is
+		// encoded once this tick and only restamped with the session's version
+		Map<List<List<String>>, byte[]> encoded = new HashMap<>();
+		for (SessionRegistry.Session session : sessions.all()) {
+			Subscription subscription = session.lobby;
+			synchronized (subscription) {
+				if (!subscription.active) {
+					continue;
+				}
+				Window window = subscription.window;
+				List<String> added = new ArrayList<>();
+				List<String> removed = new ArrayList<>();
+				for (Map.Entry<String, Boolean> change : window.from(changes)) {
+					if (window.pastEnd(change.getKey())) {
+						break;
+					}
+					(change.getValue() ? added : removed).add(change.getKey());
+				}
+				if (added.isEmpty() && removed.isEmpty()) {
+					continue;
+				}
+				try {
+					List<List<String>> key = Arrays.asList(added, removed);
+					byte[] template = encoded.get(key);
+					if (template == null) {
+						template = MessageCodec.encode(new Message(added, removed, 0));
+						encoded.put(key, template);
+					}
+					byte[] frame = MessageCodec.restamp(template, ++subscription.version);
+					if (frame != null) {
+						session.connection.send(frame, MessageType.LOBBY_DELTA);
+					} else {
+						session.connection.send(new Message(added, removed, subscription.version));
+					}
+				} catch (IOException e) {
+					System.err.println("Error broadcasting lobby update");
+				}
+			}
+		}
+	}
+}
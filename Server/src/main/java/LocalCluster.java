@@ -0,0 +1,101 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// A whole cluster on one machine, for trying it out and for load tests: starts N ServerMain
+// processes and runs the router in this one, on port 5555 where clients expect a server. Node i
+// serves clients on 5601+i, talks to its peers on 6601+i, has /metrics on 9601+i and keeps its
+// journal and logs under cluster/node-i. Node 0, where the router sends quick play, keeps the
+// ratings for all of them. Any -Dconnect4.* setting given here is passed on to every node (e.g.
+// -Dconnect4.bots= or -Dconnect4.journal=false); the nodes are stopped with this process.
+//
+//   java -cp target/classes LocalCluster [nodes]
+public class LocalCluster {
+	static final int CLIENT_PORT = 5601;
+	static final int CLUSTER_PORT = 6601;
+	static final int METRICS_PORT = 9601;
+	static final long STARTUP_MILLIS = 30_000;
+	static final long REPORT_MILLIS = 10_000;
+
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+		String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+
+		List<Process> processes = new ArrayList<>();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> processes.forEach(Process::destroy), "cluster-stop"));
+		List<InetSocketAddress> nodes = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			StringBuilder peers = new StringBuilder();
+			for (int j = 0; j < count; j++) {
+				if (j != i) {
+					peers.append(peers.length() > 0 ? "," : "").append("127.0.0.1:").append(CLUSTER_PORT + j);
+				}
+			}
+			String dir = Paths.get("cluster", "node-" + i).toString();
+			List<String> command = new ArrayList<>();
+			command.add(java);
+			for (String name : System.getProperties().stringPropertyNames()) {
+				if (name.startsWith("connect4.")) {
+					command.add("-D" + name + "=" + System.getProperty(name));
+				}
+			}
+			command.add("-Dconnect4.port=" + (CLIENT_PORT + i));
+			command.add("-Dconnect4.clusterPort=" + (CLUSTER_PORT + i));
+			command.add("-Dconnect4.nodeName=node-" + i);
+			command.add("-Dconnect4.peers=" + peers);
+			command.add("-Dconnect4.metricsPort=" + (METRICS_PORT + i));
+			command.add("-Dconnect4.journalDir=" + Paths.get(dir, "journal"));
+			command.add("-Dconnect4.ratingsNode=127.0.0.1:" + CLUSTER_PORT);
+			if (i == 0) {
+				command.add("-Dconnect4.ratingsFile=" + Paths.get(dir, "ratings.dat"));
+			} else {
+				command.add("-Dconnect4.ratings=false");
+			}
+			command.add("-Dconnect4.logDir=" + Paths.get(dir, "logs"));
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add("ServerMain");
+			Paths.get(dir).toFile().mkdirs();
+			processes.add(new ProcessBuilder(command).inheritIO().start());
+			nodes.add(new InetSocketAddress("127.0.0.1", CLIENT_PORT + i));
+		}
+		for (InetSocketAddress node : nodes) {
+			awaitListening(node);
+		}
+		System.out.println(count + " nodes up");
+
+		ClusterRouter router = new ClusterRouter(nodes);
+		Thread reporter = new Thread(() -> {
+			while (true) {
+				try {
+					Thread.sleep(REPORT_MILLIS);
+				} catch (InterruptedException e) {
+					return;
+				}
+				System.out.println("Router: " + router.stats());
+			}
+		}, "cluster-report");
+		reporter.setDaemon(true);
+		reporter.start();
+		router.run();
+	}
+
+	// The router sends clients to a node as soon as they connect, so wait until every node accepts
+	private static void awaitListening(InetSocketAddress node) throws Exception {
+		long deadline = System.currentTimeMillis() + STARTUP_MILLIS;
+		while (true) {
+			try (Socket probe = new Socket()) {
+				probe.connect(node, 1000);
+				return;
+			} catch (IOException e) {
+				if (System.currentTimeMillis() > deadline) {
+					throw new IOException("Node on port " + node.getPort() + " did not start", e);
+				}
+				Thread.sleep(200);
+			}
+		}
+	}
+}
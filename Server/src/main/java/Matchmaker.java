@@ -0,0 +1,237 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Quick play: players queue up and are paired with someone of similar rating. Joining and
+// leaving only add a request to a lock-free queue, so they cost the caller a microsecond or
+// so however many are waiting. One matcher thread owns everything else: once per tick
+// it takes in the requests and pairs whoever it can, oldest ticket first. A ticket accepts
+// opponents within a rating band that starts at -Dconnect4.matchBand and widens by
+// -Dconnect4.matchWidenPerSecond for every second waited, up to -Dconnect4.matchMaxBand. Two
+// players are paired only if each is inside the other's band, so someone who has waited long
+// is not handed a newcomer far from the newcomer's rating. Waiting tickets sit in buckets of
+// BUCKET_WIDTH rating points, oldest first, so joining and pairing are O(1) and finding an
+// opponent is a walk out over neighbouring buckets that stops at the edge of the band.
+public class Matchmaker {
+	static final int BASE_BAND = Integer.getInteger("connect4.matchBand", 50);
+	static final int WIDEN_PER_SECOND = Integer.getInteger("connect4.matchWidenPerSecond", 25);
+	static final int MAX_BAND = Integer.getInteger("connect4.matchMaxBand", 1000);
+	static final int BUCKET_WIDTH = 10;
+	// Ratings past the last bucket share it
+	private static final int BUCKETS = 512;
+
+	interface Pairing {
+		// Start a game; false if either player is no longer free, as for a challenge
+		boolean pair(SessionRegistry.Session a, SessionRegistry.Session b);
+	}
+
+	private static final class Request {
+		final SessionRegistry.Session session;
+		final boolean join;
+		final long at = System.nanoTime();
+
+		Request(SessionRegistry.Session session, boolean join) {
+			this.session = session;
+			this.join = join;
+		}
+	}
+
+	// Matcher thread only
+	private static final class Ticket {
+		final SessionRegistry.Session session;
+		final int rating;
+		final int bucket;
+		final long queuedAt;
+		// Paired or cancelled; dropped from its bucket and the age list when next passed over
+		boolean done;
+
+		Ticket(SessionRegistry.Session session, long queuedAt) {
+			this.session = session;
+			this.rating = session.rating;
+			this.bucket = Math.max(0, Math.min(BUCKETS - 1, rating / BUCKET_WIDTH));
+			this.queuedAt = queuedAt;
+		}
+
+		int band(long now) {
+			long waitedMillis = (now - queuedAt) / 1_000_000;
+			return (int) Math.min(MAX_BAND, BASE_BAND + WIDEN_PER_SECOND * waitedMillis / 1000);
+		}
+	}
+
+	private final Pairing pairing;
+	private final ScheduledExecutorService matcher;
+	private final ConcurrentLinkedQueue<Request> requests = new ConcurrentLinkedQueue<>();
+	// Matcher thread only
+	private final Map<SessionRegistry.Session, Ticket> tickets = new HashMap<>();
+	private final List<ArrayDeque<Ticket>> buckets = new ArrayList<>(BUCKETS);
+	private List<Ticket> byAge = new ArrayList<>();
+
+	// Players waiting as of the last tick
+	private volatile int depth;
+	private final LongAdder pairs = new LongAdder();
+	private final LatencyHistogram waits = new LatencyHistogram();
+	private final LatencyHistogram passes = new LatencyHistogram();
+
+	Matchmaker(Pairing pairing, long tickMillis) {
+		this.pairing = pairing;
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets.add(new ArrayDeque<>());
+		}
+		this.matcher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "matchmaker");
+			t.setDaemon(true);
+			return t;
+		});
+		matcher.scheduleWithFixedDelay(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+	}
+
+	// Queue a player at their current rating; joining twice keeps the first ticket
+	void join(SessionRegistry.Session session) {
+		requests.add(new Request(session, true));
+	}
+
+	// Take a player out of the queue, if they are in it. A leave that races with the tick that
+	// pairs them loses, and the game starts as it would for a challenge accepted at that moment
+	void leave(SessionRegistry.Session session) {
+		requests.add(new Request(session, false));
+	}
+
+	int depth() {
+		return depth;
+	}
+
+	long pairs() {
+		return pairs.sum();
+	}
+
+	// Time from joining to being paired, per player
+	LatencyHistogram waits() {
+		return waits;
+	}
+
+	// Time the matcher takes for one tick
+	LatencyHistogram passes() {
+		return passes;
+	}
+
+	private void tick() {
+		try {
+			long start = System.nanoTime();
+			match();
+			passes.record(System.nanoTime() - start);
+		} catch (Exception e) {
+			System.err.println("Error matching players: " + e);
+		}
+	}
+
+	// Matcher thread only
+	void match() {
+		Request request;
+		while ((request = requests.poll()) != null) {
+			if (request.join) {
+				if (!tickets.containsKey(request.session) && !request.session.released) {
+					enqueue(request.session, request.at);
+				}
+			} else {
+				Ticket ticket = tickets.remove(request.session);
+				if (ticket != null) {
+					ticket.done = true;
+				}
+			}
+		}
+
+		// After taking requests in, so no ticket is newer than now
+		long now = System.nanoTime();
+		List<Ticket> waiting = byAge;
+		byAge = new ArrayList<>(waiting.size());
+		List<Ticket> requeued = new ArrayList<>();
+		for (Ticket ticket : waiting) {
+			if (ticket.done) {
+				continue;
+			}
+			Ticket opponent = nearest(ticket, now);
+			if (opponent == null) {
+				byAge.add(ticket);
+				continue;
+			}
+			remove(ticket);
+			remove(opponent);
+			if (pairing.pair(ticket.session, opponent.session)) {
+				pairs.increment();
+				waits.record(now - ticket.queuedAt);
+				waits.record(now - opponent.queuedAt);
+			} else {
+				// One of them left or was challenged meanwhile; the other goes back in with the
+				// time it has already waited
+				requeued.add(ticket);
+				requeued.add(opponent);
+			}
+		}
+		for (Ticket ticket : requeued) {
+			SessionRegistry.Session session = ticket.session;
+			if (!session.released && session.opponent == null) {
+				enqueue(session, ticket.queuedAt);
+			}
+		}
+		depth = tickets.size();
+	}
+
+	private void enqueue(SessionRegistry.Session session, long queuedAt) {
+		Ticket ticket = new Ticket(session, queuedAt);
+		tickets.put(session, ticket);
+		buckets.get(ticket.bucket).add(ticket);
+		byAge.add(ticket);
+	}
+
+	private void remove(Ticket ticket) {
+		tickets.remove(ticket.session);
+		ticket.done = true;
+	}
+
+	// The oldest waiting player in the nearest bucket that ticket and they both accept, or null.
+	// Walks out from ticket's own bucket one step each way at a time, and stops once a bucket
+	// can only hold ratings outside ticket's band
+	private Ticket nearest(Ticket ticket, long now) {
+		int band = ticket.band(now);
+		for (int distance = 0; (distance - 1) * BUCKET_WIDTH < band; distance++) {
+			int below = ticket.bucket - distance;
+			int above = ticket.bucket + distance;
+			if (below < 0 && above >= BUCKETS) {
+				return null;
+			}
+			Ticket candidate = below >= 0 ? acceptable(buckets.get(below), ticket, band, now) : null;
+			if (candidate == null && distance > 0 && above < BUCKETS) {
+				candidate = acceptable(buckets.get(above), ticket, band, now);
+			}
+			if (candidate != null) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	// The oldest ticket in bucket other than ticket itself that is within its band, and whose
+	// own band takes ticket in. Finished tickets at the head are dropped on the way
+	private static Ticket acceptable(ArrayDeque<Ticket> bucket, Ticket ticket, int band, long now) {
+		while (!bucket.isEmpty() && bucket.peekFirst().done) {
+			bucket.pollFirst();
+		}
+		for (Ticket candidate : bucket) {
+			if (candidate.done || candidate == ticket) {
+				continue;
+			}
+			int gap = Math.abs(candidate.rating - ticket.rating);
+			if (gap <= band && gap <= candidate.band(now)) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+}
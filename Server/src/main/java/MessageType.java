@@ -1,3 +0,0 @@
-public enum MessageType {
-    SIMPLE, TEXT, NEWUSER, DISCONNECT, LOGIN, LOGIN_SUCCESS, LOGIN_ERROR, GAME_MOVE, GAME_STATE, GAME_WIN, GAME_LOSE, GAME_DRAW, GAME_RESTART, LOBBY_UPDATE, CHALLENGE_REQUEST, CHALLENGE_ACCEPT, CHALLENGE_DECLINE
-}
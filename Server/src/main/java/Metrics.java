@@ -0,0 +1,358 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.ObjectName;
+
+import com.sun.net.httpserver.HttpServer;
+
+// Server instrumentation. Every frame handled is counted and timed by message type, and every
+// frame queued for a client is counted by type. Every socket write is counted and timed.
+// Connections, sessions, games, lobby size and write-queue depths are read only when someone
+// asks. The hot path only increments adders and histogram buckets, indexed by the type's
+// ordinal, so recording never locks or allocates. The numbers are published as an MXBean
+// (connect4:type=Server) and as Prometheus text on http://127.0.0.1:<port>/metrics.
+public class Metrics implements MetricsMXBean {
+	private static final MessageType[] TYPES = MessageType.values();
+	private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+	private final Server server;
+	private final LongAdder[] received = new LongAdder[TYPES.length];
+	private final LongAdder[] sent = new LongAdder[TYPES.length];
+	private final LatencyHistogram[] handling = new LatencyHistogram[TYPES.length];
+	private final LatencyHistogram writes = new LatencyHistogram();
+	private final LongAdder bytesWritten = new LongAdder();
+	private final LongAdder slowClientsDropped = new LongAdder();
+	private final AtomicInteger games = new AtomicInteger();
+	private HttpServer http;
+
+	Metrics(Server server) {
+		this.server = server;
+		for (int i = 0; i < TYPES.length; i++) {
+			received[i] = new LongAdder();
+			sent[i] = new LongAdder();
+			handling[i] = new LatencyHistogram();
+		}
+	}
+
+	// -Dconnect4.metricsPort (default 9555, 0 for none) serves /metrics on the loopback
+	// interface only. A port already in use, or a second server in the same JVM, is logged
+	// and skipped
+	void start() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("connect4:type=Server"));
+		} catch (Exception e) {
+			server.log("Metrics MXBean not registered: " + e.getMessage());
+		}
+		int port = Integer.getInteger("connect4.metricsPort", 9555);
+		if (port <= 0) {
+			return;
+		}
+		try {
+			http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+			http.createContext("/metrics", exchange -> {
+				byte[] body = prometheus().getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			});
+			http.start();
+			server.log("Metrics on http://127.0.0.1:" + port + "/metrics");
+		} catch (IOException e) {
+			server.log("Metrics endpoint not started: " + e.getMessage());
+		}
+	}
+
+	void received(MessageType type, long nanos) {
+		received[type.ordinal()].increment();
+		handling[type.ordinal()].record(nanos);
+	}
+
+	void sent(MessageType type) {
+		sent[type.ordinal()].increment();
+	}
+
+	void wrote(long bytes, long nanos) {
+		bytesWritten.add(bytes);
+		writes.record(nanos);
+	}
+
+	void slowClientDropped() {
+		slowClientsDropped.increment();
+	}
+
+	void gameStarted() {
+		games.incrementAndGet();
+	}
+
+	void gameEnded() {
+		games.decrementAndGet();
+	}
+
+	@Override
+	public int getConnections() {
+		return server.clients.size();
+	}
+
+	@Override
+	public int getSessions() {
+		return server.sessions.size();
+	}
+
+	@Override
+	public int getGames() {
+		return games.get();
+	}
+
+	@Override
+	public int getLobbyPlayers() {
+		return server.lobby.size();
+	}
+
+	@Override
+	public int getParkedSeats() {
+		return server.parkedSeats.get();
+	}
+
+	@Override
+	public int getSpectators() {
+		int total = 0;
+		for (Spectators audience : server.audiences.values()) {
+			total += audience.size();
+		}
+		return total;
+	}
+
+	@Override
+	public int getMatchmakingQueue() {
+		return server.matchmaker.depth();
+	}
+
+	@Override
+	public long getMatchmakingPairs() {
+		return server.matchmaker.pairs();
+	}
+
+	@Override
+	public double getMatchWaitP99Millis() {
+		return server.matchmaker.waits().percentile(0.99) / 1e6;
+	}
+
+	@Override
+	public int getRatedPlayers() {
+		Ratings ratings = server.ratings;
+		return ratings != null ? ratings.size() : 0;
+	}
+
+	@Override
+	public long getRatedGames() {
+		Ratings ratings = server.ratings;
+		return ratings != null ? ratings.games() : 0;
+	}
+
+	@Override
+	public long getQueuedFrames() {
+		long total = 0;
+		for (Connection client : server.clients) {
+			total += client.queuedFrames();
+		}
+		return total;
+	}
+
+	@Override
+	public int getMaxQueueDepth() {
+		int max = 0;
+		for (Connection client : server.clients) {
+			max = Math.max(max, client.queuedFrames());
+		}
+		return max;
+	}
+
+	@Override
+	public long getSlowClientsDropped() {
+		return slowClientsDropped.sum();
+	}
+
+	@Override
+	public Map<String, Long> getMessagesReceived() {
+		return counts(received);
+	}
+
+	@Override
+	public Map<String, Long> getMessagesSent() {
+		return counts(sent);
+	}
+
+	@Override
+	public Map<String, Double> getHandlingP50Micros() {
+		return handlingMicros(0.5);
+	}
+
+	@Override
+	public Map<String, Double> getHandlingP99Micros() {
+		return handlingMicros(0.99);
+	}
+
+	@Override
+	public Map<String, Double> getHandlingP999Micros() {
+		return handlingMicros(0.999);
+	}
+
+	@Override
+	public long getSocketWrites() {
+		return writes.count();
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return bytesWritten.sum();
+	}
+
+	@Override
+	public double getWriteP99Micros() {
+		return writes.percentile(0.99) / 1e3;
+	}
+
+	@Override
+	public double getAnalysisCacheHitRate() {
+		return server.analyzer.cache().hitRate();
+	}
+
+	private static Map<String, Long> counts(LongAdder[] adders) {
+		Map<String, Long> counts = new LinkedHashMap<>();
+		for (MessageType type : TYPES) {
+			counts.put(type.name(), adders[type.ordinal()].sum());
+		}
+		return counts;
+	}
+
+	private Map<String, Double> handlingMicros(double p) {
+		Map<String, Double> micros = new LinkedHashMap<>();
+		for (MessageType type : TYPES) {
+			if (handling[type.ordinal()].count() > 0) {
+				micros.put(type.name(), handling[type.ordinal()].percentile(p) / 1e3);
+			}
+		}
+		return micros;
+	}
+
+	// Prometheus text exposition format, version 0.0.4
+	String prometheus() {
+		StringBuilder out = new StringBuilder(8192);
+		gauge(out, "connect4_connections", "Open client connections", getConnections());
+		gauge(out, "connect4_sessions", "Logged-in players, bots included", getSessions());
+		gauge(out, "connect4_games", "Games in progress", getGames());
+		gauge(out, "connect4_lobby_players", "Players waiting in the lobby", getLobbyPlayers());
+		gauge(out, "connect4_parked_seats", "Players whose connection dropped mid-game, waiting to resume", getParkedSeats());
+		gauge(out, "connect4_spectators", "Lobby players watching a game", getSpectators());
+		gauge(out, "connect4_matchmaking_queue", "Players waiting for a quick play opponent", getMatchmakingQueue());
+		counter(out, "connect4_matchmaking_pairs_total", "Games started from the quick play queue", getMatchmakingPairs());
+		summary(out, "connect4_matchmaking_wait_seconds", "Time from joining the quick play queue to being paired",
+				server.matchmaker.waits());
+		summary(out, "connect4_matchmaking_pass_seconds", "Time of one matchmaking pass over the queue",
+				server.matchmaker.passes());
+		gauge(out, "connect4_rated_players", "Players on the leaderboard", getRatedPlayers());
+		counter(out, "connect4_rated_games_total", "Finished games rated since startup", getRatedGames());
+		gauge(out, "connect4_write_queue_frames", "Frames queued for all clients", getQueuedFrames());
+		gauge(out, "connect4_write_queue_max_frames", "Longest single client write queue", getMaxQueueDepth());
+		counter(out, "connect4_slow_clients_dropped_total", "Clients closed for a full write queue", getSlowClientsDropped());
+
+		header(out, "connect4_messages_received_total", "Frames handled, by message type", "counter");
+		for (MessageType type : TYPES) {
+			sample(out, "connect4_messages_received_total", type, null, received[type.ordinal()].sum());
+		}
+		header(out, "connect4_messages_sent_total", "Frames queued for clients, by message type", "counter");
+		for (MessageType type : TYPES) {
+			sample(out, "connect4_messages_sent_total", type, null, sent[type.ordinal()].sum());
+		}
+		header(out, "connect4_message_handling_seconds", "Time to handle one frame, by message type", "summary");
+		for (MessageType type : TYPES) {
+			LatencyHistogram histogram = handling[type.ordinal()];
+			if (histogram.count() > 0) {
+				for (double q : QUANTILES) {
+					sample(out, "connect4_message_handling_seconds", type, q, histogram.percentile(q) / 1e9);
+				}
+				sample(out, "connect4_message_handling_seconds_sum", type, null, histogram.sumNanos() / 1e9);
+				sample(out, "connect4_message_handling_seconds_count", type, null, histogram.count());
+			}
+		}
+
+		summary(out, "connect4_socket_write_seconds", "Time of one socket write", writes);
+		counter(out, "connect4_socket_write_bytes_total", "Bytes written to client sockets", getBytesWritten());
+
+		EvaluationCache cache = server.analyzer.cache();
+		gauge(out, "connect4_analysis_cache_entries", "Positions in the analysis cache", cache.size());
+		counter(out, "connect4_analysis_cache_hits_total", "Analysis cache hits", cache.hits());
+		counter(out, "connect4_analysis_cache_misses_total", "Analysis cache misses", cache.misses());
+		counter(out, "connect4_analysis_cache_evictions_total", "Analysis cache evictions", cache.evictions());
+
+		Journal journal = server.journal;
+		if (journal != null) {
+			counter(out, "connect4_journal_records_total", "Records appended to the journal", journal.records());
+			counter(out, "connect4_journal_batches_total", "Group commits written to the journal", journal.batches());
+			counter(out, "connect4_journal_bytes_total", "Bytes written to the journal", journal.bytesWritten());
+			counter(out, "connect4_journal_dropped_total", "Records dropped because the journal buffer was full", journal.dropped());
+			counter(out, "connect4_journal_compactions_total", "Journal segments replaced by a checkpoint of the live games", journal.compactions());
+			summary(out, "connect4_journal_fsync_seconds", "Time to force one journal batch to disk", journal.forces());
+		}
+		Ratings ratings = server.ratings;
+		if (ratings != null) {
+			summary(out, "connect4_ratings_snapshot_seconds", "Time to write one ratings snapshot", ratings.snapshots());
+		}
+		return out.toString();
+	}
+
+	private static void header(StringBuilder out, String name, String help, String type) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void gauge(StringBuilder out, String name, String help, double value) {
+		header(out, name, help, "gauge");
+		sample(out, name, null, null, value);
+	}
+
+	private static void counter(StringBuilder out, String name, String help, double value) {
+		header(out, name, help, "counter");
+		sample(out, name, null, null, value);
+	}
+
+	private static void summary(StringBuilder out, String name, String help, LatencyHistogram histogram) {
+		header(out, name, help, "summary");
+		for (double q : QUANTILES) {
+			sample(out, name, null, q, histogram.percentile(q) / 1e9);
+		}
+		sample(out, name + "_sum", null, null, histogram.sumNanos() / 1e9);
+		sample(out, name + "_count", null, null, histogram.count());
+	}
+
+	private static void sample(StringBuilder out, String name, MessageType type, Double quantile, double value) {
+		out.append(name);
+		if (type != null || quantile != null) {
+			out.append('{');
+			if (type != null) {
+				out.append("type=\"").append(type.name()).append('"');
+			}
+			if (quantile != null) {
+				out.append(type != null ? "," : "").append("quantile=\"").append(quantile).append('"');
+			}
+			out.append('}');
+		}
+		out.append(' ');
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			out.append((long) value);
+		} else {
+			out.append(value);
+		}
+		out.append('\n');
+	}
+}
@@ -0,0 +1,51 @@
+import java.util.Map;
+
+// What Metrics shows over JMX, under connect4:type=Server. Latencies are in microseconds
+// and keyed by message type
+public interface MetricsMXBean {
+	int getConnections();
+
+	int getSessions();
+
+	int getGames();
+
+	int getLobbyPlayers();
+
+	int getParkedSeats();
+
+	int getSpectators();
+
+	int getMatchmakingQueue();
+
+	long getMatchmakingPairs();
+
+	double getMatchWaitP99Millis();
+
+	int getRatedPlayers();
+
+	long getRatedGames();
+
+	long getQueuedFrames();
+
+	int getMaxQueueDepth();
+
+	long getSlowClientsDropped();
+
+	Map<String, Long> getMessagesReceived();
+
+	Map<String, Long> getMessagesSent();
+
+	Map<String, Double> getHandlingP50Micros();
+
+	Map<String, Double> getHandlingP99Micros();
+
+	Map<String, Double> getHandlingP999Micros();
+
+	long getSocketWrites();
+
+	long getBytesWritten();
+
+	double getWriteP99Micros();
+
+	double getAnalysisCacheHitRate();
+}
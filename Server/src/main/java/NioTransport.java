@@ -0,0 +1,285 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Non-blocking transport: one acceptor thread hands sockets to a fixed pool of selector
+// event loops. An idle connection costs a SelectionKey and a NioConnection, the read buffer
+// is shared per event loop, and partial frames are only buffered while they are in flight.
+public class NioTransport extends Thread {
+	static final int READ_BUFFER_BYTES = 64 * 1024;
+	static final int WRITE_BATCH_FRAMES = 64;
+
+	private final Server server;
+	private final EventLoop[] loops;
+
+	NioTransport(Server server, int eventLoops) {
+		super("nio-acceptor");
+		this.server = server;
+		this.loops = new EventLoop[eventLoops];
+	}
+
+	public void run() {
+		try (ServerSocketChannel acceptor = ServerSocketChannel.open()) {
+			acceptor.bind(new InetSocketAddress(Server.PORT), 1024);
+			for (int i = 0; i < loops.length; i++) {
+				loops[i] = new EventLoop(i);
+				loops[i].start();
+			}
+			System.out.println("Server is waiting for a client");
+
+			int next = 0;
+			while (true) {
+				SocketChannel channel = acceptor.accept();
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+				EventLoop loop = loops[next];
+				next = (next + 1) % loops.length;
+
+				NioConnection c = new NioConnection(channel, loop);
+				server.onConnect(c);
+				loop.register(c);
+			}
+		} catch (IOException e) {
+			server.log("Server did not launch");
+		}
+	}
+
+	final class EventLoop extends Thread {
+		private final Selector selector;
+		private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+		// Shared by every connection on this loop; only partial frames get their own buffer
+		private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+		// Scratch array for gathering writes, also shared since only the loop thread flushes
+		final ByteBuffer[] writeBatch = new ByteBuffer[WRITE_BATCH_FRAMES];
+
+		EventLoop(int id) throws IOException {
+			super("nio-loop-" + id);
+			this.selector = Selector.open();
+		}
+
+		// Run a task on this loop; other threads must wake the selector to get it picked up
+		void execute(Runnable task) {
+			tasks.add(task);
+			if (Thread.currentThread() != this) {
+				selector.wakeup();
+			}
+		}
+
+		void register(NioConnection c) {
+			execute(() -> {
+				try {
+					c.key = c.channel.register(selector, SelectionKey.OP_READ, c);
+				} catch (IOException e) {
+					c.close();
+				}
+			});
+		}
+
+		public void run() {
+			while (true) {
+				Runnable task;
+				while ((task = tasks.poll()) != null) {
+					try {
+						task.run();
+					} catch (Exception e) {
+						System.err.println("Event loop task failed: " + e.getMessage());
+					}
+				}
+
+				try {
+					selector.select();
+				} catch (IOException e) {
+					System.err.println("Selector failed: " + e.getMessage());
+					continue;
+				}
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					NioConnection c = (NioConnection) key.attachment();
+					try {
+						if (key.isValid() && key.isReadable()) {
+							c.read(readBuffer);
+						}
+						if (key.isValid() && key.isWritable()) {
+							c.flush();
+						}
+					} catch (Exception e) {
+						System.err.println("Client disconnected: " + e.getMessage());
+						c.close();
+					}
+				}
+			}
+		}
+	}
+
+	final class NioConnection extends Connection {
+		final SocketChannel channel;
+		final EventLoop loop;
+		SelectionKey key;
+		private volatile boolean closed;
+
+		// Partially received length prefix / payload, null while no frame is in flight
+		private ByteBuffer header;
+		private ByteBuffer body;
+
+		NioConnection(SocketChannel channel, EventLoop loop) {
+			this.channel = channel;
+			this.loop = loop;
+		}
+
+		@Override
+		void enqueue(byte[] frame) throws IOException {
+			if (closed) {
+				throw new IOException("Connection closed");
+			}
+			super.enqueue(frame);
+		}
+
+		// The owning event loop is this connection's only writer
+		@Override
+		void scheduleFlush() {
+			loop.execute(() -> {
+				try {
+					flush();
+				} catch (IOException e) {
+					close();
+				}
+			});
+		}
+
+		// Event loop only. Hands every pending frame to one gathering write, so a burst of
+		// queued updates costs a single syscall. Leaves OP_WRITE armed (and the flush still
+		// scheduled) while the socket is full
+		void flush() throws IOException {
+			ByteBuffer[] batch = loop.writeBatch;
+			while (true) {
+				if (closed) {
+					return;
+				}
+				while (peekFrame() != null) {
+					int n = 0;
+					for (ByteBuffer frame : pendingFrames()) {
+						batch[n++] = frame;
+						if (n == batch.length) {
+							break;
+						}
+					}
+					long start = System.nanoTime();
+					long written = channel.write(batch, 0, n);
+					server.metrics.wrote(written, System.nanoTime() - start);
+					// Frames are written in order, so if the last one is unfinished the socket is full
+					boolean full = batch[n - 1].hasRemaining();
+					for (int i = 0; i < n; i++) {
+						if (!batch[i].hasRemaining()) {
+							pollFrame();
+						}
+						batch[i] = null;
+					}
+					if (full) {
+						key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+						return;
+					}
+				}
+				key.interestOps(SelectionKey.OP_READ);
+				if (!finishFlush()) {
+					return;
+				}
+			}
+		}
+
+		// Event loop only. Decodes every complete frame in the shared buffer in place
+		void read(ByteBuffer buffer) throws IOException {
+			buffer.clear();
+			if (channel.read(buffer) < 0) {
+				close();
+				return;
+			}
+			buffer.flip();
+
+			while (buffer.hasRemaining() && !closed) {
+				if (body == null) {
+					int length;
+					if (header == null && buffer.remaining() >= MessageCodec.HEADER_BYTES) {
+						length = buffer.getInt();
+					} else {
+						if (header == null) {
+							header = ByteBuffer.allocate(MessageCodec.HEADER_BYTES);
+						}
+						transfer(buffer, header);
+						if (header.hasRemaining()) {
+							return;
+						}
+						header.flip();
+						length = header.getInt();
+						header = null;
+					}
+					MessageCodec.checkLength(length);
+
+					if (buffer.remaining() >= length) {
+						Message data = MessageCodec.decode(buffer.array(),
+								buffer.arrayOffset() + buffer.position(), length);
+						buffer.position(buffer.position() + length);
+						server.onMessage(this, data);
+						continue;
+					}
+					body = ByteBuffer.allocate(length);
+				}
+
+				transfer(buffer, body);
+				if (body.hasRemaining()) {
+					return;
+				}
+				Message data = MessageCodec.decode(body.array(), 0, body.capacity());
+				body = null;
+				server.onMessage(this, data);
+			}
+		}
+
+		private void transfer(ByteBuffer from, ByteBuffer to) {
+			int n = Math.min(from.remaining(), to.remaining());
+			ByteBuffer slice = from.duplicate();
+			slice.limit(from.position() + n);
+			to.put(slice);
+			from.position(from.position() + n);
+		}
+
+		@Override
+		void abort() {
+			loop.execute(this::close);
+		}
+
+		@Override
+		void close() {
+			if (Thread.currentThread() != loop) {
+				loop.execute(this::close);
+				return;
+			}
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (key != null) {
+				key.cancel();
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {
+				System.err.println("Error closing resources: " + e.getMessage());
+			}
+			discardPending();
+			header = null;
+			body = null;
+			server.onDisconnect(this);
+		}
+	}
+}
@@ -0,0 +1,123 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Exact column scores for every position of the opening, read straight from a memory-mapped
+// file so the book costs no heap and pages in only as positions are looked up. The file
+// is written by BookGenerator. It has a 16-byte header followed by fixed 16-byte records sorted
+// by key, so a lookup is one binary search. A position and its left-right mirror share one
+// record, stored under the smaller of their two keys.
+//
+//   header: int magic, int version, int depth, int count
+//   record: long key, one signed byte per column (ParallelSolver scores, -128 for full), one pad byte
+public class OpeningBook {
+	static final int MAGIC = 0x43344f42;
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 16;
+	static final int RECORD_BYTES = 16;
+	static final byte FULL = Byte.MIN_VALUE;
+
+	private static final int STRIDE = Game.COLUMN_STRIDE;
+	private static final long COLUMN_BITS = (1L << STRIDE) - 1;
+
+	private final MappedByteBuffer records;
+	private final int depth;
+	private final int count;
+
+	private OpeningBook(MappedByteBuffer records, int depth, int count) {
+		this.records = records;
+		this.depth = depth;
+		this.count = count;
+	}
+
+	// Map a book file, or return null if there is none at path
+	static OpeningBook open(Path path) throws IOException {
+		if (!Files.isRegularFile(path)) {
+			return null;
+		}
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			// The mapping stays valid after the channel is closed
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+				throw new IOException("Not an opening book: " + path);
+			}
+			int depth = buffer.getInt(8);
+			int count = buffer.getInt(12);
+			if (buffer.limit() != HEADER_BYTES + (long) count * RECORD_BYTES) {
+				throw new IOException("Truncated opening book: " + path);
+			}
+			return new OpeningBook(buffer, depth, count);
+		}
+	}
+
+	// Positions with at most this many moves played are in the book
+	int depth() {
+		return depth;
+	}
+
+	int size() {
+		return count;
+	}
+
+	// The same position seen in a mirror: column c becomes column 6 - c. Pieces never carry
+	// from one column's seven bits into the next, so this works on keys as well as bitboards
+	static long mirror(long bits) {
+		long mirrored = 0;
+		for (int c = 0; c < Game.COLUMNS; c++) {
+			mirrored |= ((bits >>> (c * STRIDE)) & COLUMN_BITS) << ((Game.COLUMNS - 1 - c) * STRIDE);
+		}
+		return mirrored;
+	}
+
+	// Unique per position, the same for a position and its mirror
+	static long canonicalKey(long current, long mask) {
+		long key = current + mask;
+		return Math.min(key, mirror(key));
+	}
+
+	// Exact score of each column (ParallelSolver.UNKNOWN for full ones) for the side whose pieces
+	// are current, or null if the position is not in the book
+	int[] lookup(long current, long mask) {
+		if (Long.bitCount(mask) > depth) {
+			return null;
+		}
+		long key = current + mask;
+		long mirrored = mirror(key);
+		long target = Math.min(key, mirrored);
+
+		int low = 0;
+		int high = count - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long found = records.getLong(HEADER_BYTES + mid * RECORD_BYTES);
+			if (found < target) {
+				low = mid + 1;
+			} else if (found > target) {
+				high = mid - 1;
+			} else {
+				int base = HEADER_BYTES + mid * RECORD_BYTES + 8;
+				boolean flip = mirrored < key;
+				int[] scores = new int[Game.COLUMNS];
+				for (int c = 0; c < Game.COLUMNS; c++) {
+					byte score = records.get(base + (flip ? Game.COLUMNS - 1 - c : c));
+					scores[c] = score == FULL ? ParallelSolver.UNKNOWN : score;
+				}
+				return scores;
+			}
+		}
+		return null;
+	}
+
+	// Record layout shared with BookGenerator
+	static void putRecord(ByteBuffer out, long key, int[] scores) {
+		out.putLong(key);
+		for (int c = 0; c < Game.COLUMNS; c++) {
+			out.put(scores[c] == ParallelSolver.UNKNOWN ? FULL : (byte) scores[c]);
+		}
+		out.put((byte) 0);
+	}
+}
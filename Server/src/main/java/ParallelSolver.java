@@ -0,0 +1,353 @@
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Exact Connect-4 solver for analysis and the strongest bots. Where Solver looks a few plies
+// ahead and guesses, this one searches to the end of the game and returns the true score of
+// every column. It uses Lazy SMP on a ForkJoinPool: every worker searches on its own, and the
+// workers meet only in one shared transposition table. Each worker takes the unsolved root
+// column with the fewest workers on it. So the first N columns start in parallel, and once
+// every column is taken the idle workers join the ones still running. The table entry a
+// worker stores is a cutoff for all the others, so helpers on the same column share the work
+// instead of repeating it.
+//
+// Scores are from the point of view of the player to move: 0 is a draw, a positive score is a
+// win and a negative one a loss, and the magnitude counts the stones the winner still has in
+// hand when the fourth lands (so faster wins and slower losses score higher).
+public class ParallelSolver {
+	// Score slot of a column that is full, or that the search gave up on
+	static final int UNKNOWN = Integer.MIN_VALUE;
+	static final int DEFAULT_TABLE_BITS = 22;
+
+	private static final int MAX_MOVES = Solver.MAX_MOVES;
+	// Nobody can win before their fourth stone, which bounds every real score
+	private static final int MIN_SCORE = -MAX_MOVES / 2 + 3;
+	private static final int MAX_SCORE = (MAX_MOVES + 1) / 2 - 3;
+	// Table values: 0 is empty, 1..37 an upper bound, 38..74 a lower bound
+	private static final int LOWER_BOUND_OFFSET = MAX_SCORE - 2 * MIN_SCORE + 2;
+
+	private final ForkJoinPool pool;
+	private final int threads;
+	// One long per entry: the low 32 bits of the key above 8 bits of bound. The slot is the key
+	// modulo a prime larger than 2^17, which with those 32 bits pins down the whole 49-bit key,
+	// and a single-word entry can never be seen half written, so the table needs no locks
+	private final AtomicLongArray table;
+	private final int tableSize;
+	private final LongAdder nodes = new LongAdder();
+
+	ParallelSolver(int threads) {
+		this(threads, DEFAULT_TABLE_BITS);
+	}
+
+	ParallelSolver(int threads, int tableBits) {
+		this.threads = Math.max(1, threads);
+		this.pool = new ForkJoinPool(this.threads, p -> {
+			ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+			t.setName("solver-" + t.getPoolIndex());
+			t.setDaemon(true);
+			return t;
+		}, null, false);
+		this.tableSize = largestPrimeBelow(1 << tableBits);
+		this.table = new AtomicLongArray(tableSize);
+	}
+
+	private static int largestPrimeBelow(int n) {
+		int p = n - 1;
+		while (!BigInteger.valueOf(p).isProbablePrime(30)) {
+			p--;
+		}
+		return p;
+	}
+
+	int threads() {
+		return threads;
+	}
+
+	// Positions searched since the solver was created, across all workers
+	long nodes() {
+		return nodes.sum();
+	}
+
+	void shutdown() {
+		pool.shutdownNow();
+	}
+
+	// Exact score of each column for the side whose pieces are current, UNKNOWN for full columns.
+	// Returns null if deadlineNanos (System.nanoTime) passes first; the table keeps what was
+	// learned, so asking again later starts from there
+	int[] analyze(long current, long mask, int moves, long deadlineNanos) {
+		Analysis analysis = new Analysis(current, mask, moves, deadlineNanos);
+		List<ForkJoinTask<?>> workers = new ArrayList<>();
+		for (int w = 0; w < threads; w++) {
+			workers.add(pool.submit(new Worker(analysis, w)));
+		}
+		for (ForkJoinTask<?> worker : workers) {
+			worker.join();
+		}
+		if (analysis.abandoned) {
+			return null;
+		}
+		int[] scores = new int[Game.COLUMNS];
+		for (int c = 0; c < Game.COLUMNS; c++) {
+			scores[c] = analysis.scores.get(c);
+		}
+		return scores;
+	}
+
+	// The best column for a set of scores; ties go to the column nearer the center
+	static int bestColumn(int[] scores) {
+		int best = -1;
+		for (int column : Solver.ORDER) {
+			if (scores[column] != UNKNOWN && (best < 0 || scores[column] > scores[best])) {
+				best = column;
+			}
+		}
+		return best;
+	}
+
+	private int get(long key) {
+		long entry = table.getOpaque((int) (key % tableSize));
+		return entry >>> 8 == (key & 0xFFFFFFFFL) ? (int) (entry & 0xFF) : 0;
+	}
+
+	// Every real score lies within [MIN_SCORE, MAX_SCORE], so clamping a bound keeps it true
+	private static int clamp(int score) {
+		return Math.max(MIN_SCORE, Math.min(score, MAX_SCORE));
+	}
+
+	private void put(long key, int value) {
+		table.setOpaque((int) (key % tableSize), (key & 0xFFFFFFFFL) << 8 | value);
+	}
+
+	// One analyze call: the position, and the column scores as the workers settle them
+	private static final class Analysis {
+		final long current;
+		final long mask;
+		final int moves;
+		final long deadline;
+		final AtomicIntegerArray scores = new AtomicIntegerArray(Game.COLUMNS);
+		// Workers currently searching each column
+		final AtomicIntegerArray load = new AtomicIntegerArray(Game.COLUMNS);
+		volatile boolean abandoned;
+
+		Analysis(long current, long mask, int moves, long deadline) {
+			this.current = current;
+			this.mask = mask;
+			this.moves = moves;
+			this.deadline = deadline;
+			for (int c = 0; c < Game.COLUMNS; c++) {
+				scores.set(c, UNKNOWN);
+			}
+		}
+
+		boolean open(int column) {
+			return (Solver.playable(mask) & Solver.columnMask(column)) != 0 && scores.get(column) == UNKNOWN;
+		}
+	}
+
+	private final class Worker implements Runnable {
+		private final Analysis analysis;
+		private final int index;
+		// Move ordering scratch space, one row per move number
+		private final long[][] candidates = new long[MAX_MOVES + 1][Game.COLUMNS];
+		private final int[] moveScores = new int[Game.COLUMNS];
+		private int column;
+		private boolean stopped;
+		private long visited;
+
+		Worker(Analysis analysis, int index) {
+			this.analysis = analysis;
+			this.index = index;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!analysis.abandoned && (column = pick()) >= 0) {
+					stopped = false;
+					int score = score(column);
+					analysis.load.decrementAndGet(column);
+					if (!stopped) {
+						analysis.scores.compareAndSet(column, UNKNOWN, score);
+					}
+				}
+			} finally {
+				nodes.add(visited);
+			}
+		}
+
+		// The open column with the fewest workers. Scanning starts at a different place for
+		// each worker, so the first pass hands every worker a different column
+		private int pick() {
+			int best = -1;
+			int bestLoad = Integer.MAX_VALUE;
+			for (int i = 0; i < Game.COLUMNS; i++) {
+				int c = Solver.ORDER[(i + index) % Game.COLUMNS];
+				if (analysis.open(c) && analysis.load.get(c) < bestLoad) {
+					best = c;
+					bestLoad = analysis.load.get(c);
+				}
+			}
+			if (best >= 0) {
+				analysis.load.incrementAndGet(best);
+			}
+			return best;
+		}
+
+		private int score(int column) {
+			long current = analysis.current;
+			long mask = analysis.mask;
+			long move = Solver.playable(mask) & Solver.columnMask(column);
+			if ((Solver.winningCells(current, mask) & move) != 0) {
+				return (MAX_MOVES + 1 - analysis.moves) / 2;
+			}
+			return -solve(current ^ mask, mask | move, analysis.moves + 1);
+		}
+
+		// Narrow the score down with null-window searches, probing toward 0 first
+		// since most positions are closer to a draw than to a quick win
+		private int solve(long current, long mask, int moves) {
+			if ((Solver.winningCells(current, mask) & Solver.playable(mask)) != 0) {
+				return (MAX_MOVES + 1 - moves) / 2;
+			}
+			int min = -(MAX_MOVES - moves) / 2;
+			int max = (MAX_MOVES + 1 - moves) / 2;
+			while (min < max && !stopped) {
+				int med = min + (max - min) / 2;
+				if (med <= 0 && min / 2 < med) {
+					med = min / 2;
+				} else if (med >= 0 && max / 2 > med) {
+					med = max / 2;
+				}
+				int r = negamax(current, mask, moves, med, med + 1);
+				if (r <= med) {
+					max = r;
+				} else {
+					min = r;
+				}
+			}
+			return min;
+		}
+
+		// Give up on this column once another worker has settled it, and on everything
+		// once the deadline has passed
+		private boolean shouldStop() {
+			if (analysis.abandoned || analysis.scores.get(column) != UNKNOWN) {
+				return true;
+			}
+			if (System.nanoTime() - analysis.deadline > 0) {
+				analysis.abandoned = true;
+				return true;
+			}
+			return false;
+		}
+
+		// Alpha-beta for a position where the side to move cannot win at once
+		private int negamax(long current, long mask, int moves, int alpha, int beta) {
+			if ((++visited & 1023) == 0 && shouldStop()) {
+				stopped = true;
+			}
+			if (stopped) {
+				return 0;
+			}
+
+			long possible = Solver.playable(mask);
+			long opponentWins = Solver.winningCells(current ^ mask, mask);
+			long forced = possible & opponentWins;
+			if (forced != 0) {
+				if ((forced & (forced - 1)) != 0) {
+					return -(MAX_MOVES - moves) / 2;
+				}
+				possible = forced;
+			}
+			possible &= ~(opponentWins >>> 1);
+			if (possible == 0) {
+				return -(MAX_MOVES - moves) / 2;
+			}
+			if (moves >= MAX_MOVES - 2) {
+				return 0;
+			}
+
+			int min = -(MAX_MOVES - 2 - moves) / 2;
+			if (alpha < min) {
+				alpha = min;
+				if (alpha >= beta) {
+					return alpha;
+				}
+			}
+			int max = (MAX_MOVES - 1 - moves) / 2;
+			if (beta > max) {
+				beta = max;
+				if (alpha >= beta) {
+					return beta;
+				}
+			}
+
+			long key = current + mask;
+			int stored = get(key);
+			if (stored > MAX_SCORE - MIN_SCORE + 1) {
+				min = stored - LOWER_BOUND_OFFSET;
+				if (alpha < min) {
+					alpha = min;
+					if (alpha >= beta) {
+						return alpha;
+					}
+				}
+			} else if (stored != 0) {
+				max = stored + MIN_SCORE - 1;
+				if (beta > max) {
+					beta = max;
+					if (alpha >= beta) {
+						return beta;
+					}
+				}
+			}
+
+			// Moves that open the most new threats first, center-first among equals. Near the
+			// top of the tree each worker breaks ties differently, so helpers that share a
+			// column spread out over its subtrees instead of all racing down the same line
+			long[] order = candidates[moves];
+			int rotate = moves - analysis.moves <= 3 ? index : 0;
+			int n = 0;
+			for (int k = 0; k < Game.COLUMNS; k++) {
+				int c = Solver.ORDER[(k + rotate) % Game.COLUMNS];
+				long move = possible & Solver.columnMask(c);
+				if (move == 0) {
+					continue;
+				}
+				int score = Long.bitCount(Solver.winningCells(current | move, mask | move));
+				int i = n++;
+				while (i > 0 && moveScores[i - 1] < score) {
+					order[i] = order[i - 1];
+					moveScores[i] = moveScores[i - 1];
+					i--;
+				}
+				order[i] = move;
+				moveScores[i] = score;
+			}
+
+			for (int i = 0; i < n; i++) {
+				long move = order[i];
+				int score = -negamax(current ^ mask, mask | move, moves + 1, -beta, -alpha);
+				if (stopped) {
+					return 0;
+				}
+				if (score >= beta) {
+					put(key, clamp(score) + LOWER_BOUND_OFFSET);
+					return score;
+				}
+				if (score > alpha) {
+					alpha = score;
+				}
+			}
+			put(key, clamp(alpha) - MIN_SCORE + 1);
+			return alpha;
+		}
+	}
+}
@@ -0,0 +1,238 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Elo ratings of everyone who has finished a game, ranked on a Leaderboard. A result takes the
+// write lock for two O(log n) moves on the board; rank lookups and pages share the read lock, so
+// they run side by side and never see one player of a game rated and the other not. Every
+// -Dconnect4.ratingsSnapshotSeconds a snapshot thread copies the board out under the read lock,
+// writes it to a temporary file without holding anything, forces it and renames it over the
+// previous snapshot, so the file on disk is always a whole table. A crash loses at most the
+// results since the last snapshot; the journal still has the games themselves.
+//
+//   file   int magic, int count, then per player: name as DataOutput.writeUTF, int rating
+public class Ratings {
+	// A win between two equally rated players moves each of them by half of this
+	static final int K_FACTOR = Integer.getInteger("connect4.eloK", 32);
+	static final int MAX_PAGE_SIZE = 100;
+	private static final int MAGIC = 0x43345254;
+
+	private final Path file;
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	// Guarded by lock
+	private final Leaderboard board = new Leaderboard();
+	// Results recorded so far; a snapshot with nothing new since the last one is skipped
+	private final AtomicLong changes = new AtomicLong();
+	// Guarded by this
+	private long saved;
+	private ScheduledExecutorService snapshotter;
+
+	private final LatencyHistogram snapshots = new LatencyHistogram();
+
+	private Ratings(Path file) {
+		this.file = file;
+	}
+
+	// Ratings that last only as long as the server
+	static Ratings inMemory() {
+		return new Ratings(null);
+	}
+
+	// -Dconnect4.ratingsFile (default ratings.dat), loaded now and snapshotted every
+	// -Dconnect4.ratingsSnapshotSeconds (default 30)
+	static Ratings open() throws IOException {
+		return open(Paths.get(System.getProperty("connect4.ratingsFile", "ratings.dat")),
+				Long.getLong("connect4.ratingsSnapshotSeconds", 30));
+	}
+
+	static Ratings open(Path file, long snapshotSeconds) throws IOException {
+		Ratings ratings = new Ratings(file);
+		ratings.load();
+		ratings.snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "ratings-snapshot");
+			t.setDaemon(true);
+			return t;
+		});
+		ratings.snapshotter.scheduleWithFixedDelay(ratings::tick, snapshotSeconds, snapshotSeconds, TimeUnit.SECONDS);
+		return ratings;
+	}
+
+	// A player's rating, or the starting rating if they have never finished a game
+	int rating(String name) {
+		lock.readLock().lock();
+		try {
+			int rating = board.rating(name);
+			return rating >= 0 ? rating : SessionRegistry.INITIAL_RATING;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	// Rate a finished game; returns the two players' new ratings, winner's first. For a draw
+	// either player may be passed as the winner
+	int[] record(String winner, String loser, boolean draw) {
+		lock.writeLock().lock();
+		try {
+			int a = board.rating(winner);
+			int b = board.rating(loser);
+			a = a >= 0 ? a : SessionRegistry.INITIAL_RATING;
+			b = b >= 0 ? b : SessionRegistry.INITIAL_RATING;
+			double expected = 1 / (1 + Math.pow(10, (b - a) / 400.0));
+			int change = (int) Math.round(K_FACTOR * ((draw ? 0.5 : 1) - expected));
+			board.put(winner, a + change);
+			board.put(loser, b - change);
+			changes.incrementAndGet();
+			return new int[] {a + change, b - change};
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	// Take a player's rating as the cluster node that keeps ratings has it
+	void put(String name, int rating) {
+		lock.writeLock().lock();
+		try {
+			board.put(name, rating);
+			changes.incrementAndGet();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	// 1 for the best player, 0 for one who has not finished a game
+	int rank(String name) {
+		lock.readLock().lock();
+		try {
+			return board.rank(name);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	int size() {
+		lock.readLock().lock();
+		try {
+			return board.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	// Games rated since the server started
+	long games() {
+		return changes.get();
+	}
+
+	// Time to write one snapshot, copy and fsync included
+	LatencyHistogram snapshots() {
+		return snapshots;
+	}
+
+	// A LEADERBOARD page of up to pageSize players: centred on player if they are ranked,
+	// otherwise starting at rank. Pages near the end are moved back so they stay full
+	Message page(String player, int rank, int pageSize) {
+		pageSize = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+		lock.readLock().lock();
+		try {
+			int total = board.size();
+			int centre = player != null ? board.rank(player) : 0;
+			if (centre > 0) {
+				rank = centre - pageSize / 2;
+			}
+			rank = Math.max(1, Math.min(rank, total - pageSize + 1));
+			List<Leaderboard.Node> page = board.page(rank, pageSize);
+			List<String> names = new ArrayList<>(page.size());
+			int[] ratings = new int[page.size()];
+			for (int i = 0; i < page.size(); i++) {
+				names.add(page.get(i).name);
+				ratings[i] = page.get(i).rating;
+			}
+			return new Message(centre > 0 ? player : null, rank, total, names, ratings);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	// Every rated player, best first, as they stood at one moment
+	List<Leaderboard.Node> all() {
+		lock.readLock().lock();
+		try {
+			return board.page(1, board.size());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private void load() throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(file + " is not a ratings file");
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String name = in.readUTF();
+				board.put(name, in.readInt());
+			}
+		} catch (NoSuchFileException e) {
+			// First run
+		}
+	}
+
+	private void tick() {
+		try {
+			snapshot();
+		} catch (Exception e) {
+			System.err.println("Error writing ratings snapshot: " + e.getMessage());
+		}
+	}
+
+	// Write the table if anything changed since the last snapshot. Games finish while the file
+	// is written; they are in the next one
+	synchronized void snapshot() throws IOException {
+		long version = changes.get();
+		if (file == null || version == saved) {
+			return;
+		}
+		long start = System.nanoTime();
+		List<Leaderboard.Node> all = all();
+
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileOutputStream stream = new FileOutputStream(temporary.toFile());
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+			out.writeInt(MAGIC);
+			out.writeInt(all.size());
+			for (Leaderboard.Node node : all) {
+				out.writeUTF(node.name);
+				out.writeInt(node.rating);
+			}
+			out.flush();
+			stream.getFD().sync();
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		saved = version;
+		snapshots.record(System.nanoTime() - start);
+	}
+
+	// Stop the snapshot thread and write whatever it has not
+	void close() {
+		if (snapshotter != null) {
+			snapshotter.shutdown();
+		}
+		tick();
+	}
+}
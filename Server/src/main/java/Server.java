@@ -1,93 +1,902 @@
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 public class Server {
+	// -Dconnect4.port; nodes of a cluster each take their own and leave 5555 to the router
+	static final int PORT = Integer.getInteger("connect4.port", 5555);
+
 	int count = 1;
-	ArrayList<ClientThread> clients = new ArrayList<ClientThread>();
-	HashSet<String> usernames = new HashSet<>();
-	HashMap<String, ClientThread> usernameToClient = new HashMap<>();
-	HashMap<String, String> playerPairs = new HashMap<>();
-	HashMap<String, Game> games = new HashMap<>();
-	HashMap<String, Boolean> rematchRequests = new HashMap<>();
-	TheServer server;
+	Set<Connection> clients = ConcurrentHashMap.newKeySet();
+	SessionRegistry sessions = new SessionRegistry();
+	// Lobby joins and leaves within one tick (-Dconnect4.lobbyTickMs) go out as a single delta
+	LobbyFeed lobby = new LobbyFeed(sessions, Long.getLong("connect4.lobbyTickMs", 50));
+	Thread server;
 	private Consumer<Message> callback;
-
+	// Exact solving, shared by the hard bots and position analysis so they share one table
+	ParallelSolver solver;
+	OpeningBook book;
+	Analyzer analyzer;
+	final Metrics metrics = new Metrics(this);
+	// Every game's moves and results, and the games it recovered keyed by both players' names
+	// until both are back to finish them, for as long as a dropped player's seat is held
+	Journal journal;
+	final Map<String, Game> recovered = new ConcurrentHashMap<>();
+	// A player whose connection drops mid-game keeps their seat for -Dconnect4.resumeSeconds
+	// (default 30, 0 to forfeit at once); the wheel forfeits the seats nobody comes back for
+	private final long resumeSeconds = Long.getLong("connect4.resumeSeconds", 30);
+	final TimerWheel timers = new TimerWheel("timer-wheel", 100, TimeUnit.MILLISECONDS, 512);
+	final AtomicInteger parkedSeats = new AtomicInteger();
+	// Who is watching each live game; a game nobody has watched has no entry
+	final Map<Game, Spectators> audiences = new ConcurrentHashMap<>();
+	// Quick play, paired by rating every -Dconnect4.matchTickMs
+	final Matchmaker matchmaker = new Matchmaker(this::startGame, Long.getLong("connect4.matchTickMs", 100));
+	// Elo ratings of every player who has finished a game, ranked for the leaderboard
+	Ratings ratings;
+	// Lobby presence shared with the other nodes of a cluster, if this server is one
+	ClusterNode cluster;
+
+	// The transport is chosen at startup with -Dconnect4.transport:
+	// "nio" (default) multiplexes all sockets over a few selector threads,
+	// "threads" keeps one blocking platform thread per client,
+	// "virtual" runs the same blocking read loop on a virtual thread per client
 	Server(Consumer<Message> call) {
 		callback = call;
-		server = new TheServer();
+		String transport = System.getProperty("connect4.transport", "nio");
+		if ("threads".equals(transport)) {
+			server = new TheServer(false);
+		} else if ("virtual".equals(transport)) {
+			server = new TheServer(true);
+		} else {
+			int eventLoops = Integer.getInteger("connect4.eventLoops",
+					Math.max(2, Runtime.getRuntime().availableProcessors()));
+			server = new NioTransport(this, eventLoops);
+		}
+		// -Dconnect4.solverThreads defaults to half the cores; the rest are left to human games
+		solver = new ParallelSolver(Integer.getInteger("connect4.solverThreads",
+				Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+		book = openBook();
+		analyzer = new Analyzer(this, solver, book);
+		metrics.start();
+		journal = openJournal();
+		ratings = openRatings();
+		cluster = openCluster();
+		startBots();
 		server.start();
 	}
 
-	// Send updated list of available players to all clients in lobby
-	private void broadcastLobbyUpdate() {
-		ArrayList<String> lobbyPlayers = new ArrayList<>();
-		// Only include players who are not currently in a game
-		for (String player : usernameToClient.keySet()) {
-			if (!playerPairs.containsKey(player)) {
-				lobbyPlayers.add(player);
+	// Computer opponents wait in the lobby before any client can connect, so their names are
+	// never taken. -Dconnect4.bots lists the levels to offer (empty for none),
+	// -Dconnect4.botsPerLevel how many of each, and -Dconnect4.botThreads how many searches
+	// may run at once; the rest of the cores are left to human games
+	private void startBots() {
+		String levels = System.getProperty("connect4.bots", "easy,medium,hard");
+		int perLevel = Integer.getInteger("connect4.botsPerLevel", 1);
+		int threads = Integer.getInteger("connect4.botThreads",
+				Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+		ExecutorService executor = null;
+		for (String name : levels.split(",")) {
+			if (name.trim().isEmpty()) {
+				continue;
+			}
+			BotPlayer.Level level = BotPlayer.Level.valueOf(name.trim().toUpperCase(Locale.ROOT));
+			if (executor == null) {
+				executor = Executors.newFixedThreadPool(threads, r -> {
+					Thread t = new Thread(r, "bot-search");
+					t.setDaemon(true);
+					t.setPriority(Thread.MIN_PRIORITY);
+					return t;
+				});
+			}
+			String base = "Bot-" + name.trim().substring(0, 1).toUpperCase(Locale.ROOT)
+					+ name.trim().substring(1).toLowerCase(Locale.ROOT);
+			for (int i = 1; i <= perLevel; i++) {
+				String username = i == 1 ? base : base + "-" + i;
+				BotPlayer bot = new BotPlayer(this, username, level, executor, solver, book);
+				SessionRegistry.Session session = sessions.claim(username, bot);
+				if (session != null) {
+					session.rating = ratings.rating(username);
+					lobby.joined(session);
+				}
+			}
+		}
+	}
+
+	// -Dconnect4.openingBook (default opening.book), if that file exists. Mapped, not read:
+	// the book stays out of the heap and pages in as positions are looked up
+	private OpeningBook openBook() {
+		Path path = Paths.get(System.getProperty("connect4.openingBook", "opening.book"));
+		try {
+			OpeningBook book = OpeningBook.open(path);
+			if (book != null) {
+				log("Opening book " + path + ": " + book.size() + " positions up to move " + book.depth());
+			}
+			return book;
+		} catch (IOException e) {
+			log("Opening book not used: " + e.getMessage());
+			return null;
+		}
+	}
+
+	// -Dconnect4.journal=false runs without one; see Journal.open for the other settings.
+	// A journal that cannot be opened is logged and the server runs without it
+	private Journal openJournal() {
+		if ("false".equals(System.getProperty("connect4.journal"))) {
+			return null;
+		}
+		try {
+			Journal journal = Journal.open();
+			Runtime.getRuntime().addShutdownHook(new Thread(journal::close, "journal-flush"));
+			for (Game game : journal.recovered()) {
+				recovered.put(game.player1, game);
+				recovered.put(game.player2, game);
+				timers.schedule(resumeSeconds, TimeUnit.SECONDS, () -> expireRecovered(journal, game));
 			}
+			log("Journal replayed " + journal.recoveredRecords() + " records, " + journal.recovered().size()
+					+ " games to resume" + (journal.truncatedBytes() > 0
+					? ", cut " + journal.truncatedBytes() + " bytes of unfinished writes" : ""));
+			return journal;
+		} catch (IOException e) {
+			log("Journal not used: " + e.getMessage());
+			return null;
+		}
+	}
+
+	// -Dconnect4.ratings=false keeps ratings in memory only; see Ratings.open for the file.
+	// A file that cannot be read is logged and left alone, and ratings start over in memory
+	private Ratings openRatings() {
+		if ("false".equals(System.getProperty("connect4.ratings"))) {
+			return Ratings.inMemory();
+		}
+		try {
+			Ratings ratings = Ratings.open();
+			Runtime.getRuntime().addShutdownHook(new Thread(ratings::close, "ratings-flush"));
+			log("Ratings loaded for " + ratings.size() + " players");
+			return ratings;
+		} catch (IOException e) {
+			log("Ratings not saved: " + e.getMessage());
+			return Ratings.inMemory();
+		}
+	}
+
+	// -Dconnect4.clusterPort makes this server a cluster node; see ClusterNode.open. A node that
+	// cannot listen is logged and runs on its own
+	private ClusterNode openCluster() {
+		if (Integer.getInteger("connect4.clusterPort") == null) {
+			return null;
+		}
+		try {
+			ClusterNode node = ClusterNode.open(lobby, ratings, this::ratingChanged, this::log);
+			log("Cluster node " + node.name() + " listening on port " + node.port() + ", peers " + node.peers());
+			return node;
+		} catch (IOException e) {
+			log("Cluster not joined: " + e.getMessage());
+			return null;
+		}
+	}
+
+	// Pair two players together and initialize their game
+	// Returns false if either player left or got paired with someone else in the meantime
+	private boolean matchPlayers(SessionRegistry.Session player1, SessionRegistry.Session player2) {
+		Game game = new Game(player1.username, player2.username);
+		if (!sessions.pair(player1, player2, game)) {
+			return false;
+		}
+		metrics.gameStarted();
+		unwatch(player1);
+		unwatch(player2);
+		matchmaker.leave(player1);
+		matchmaker.leave(player2);
+		if (journal != null) {
+			game.id = journal.newGameId();
+			journal.start(game);
 		}
-		
-		Message lobbyUpdate = new Message(MessageType.LOBBY_UPDATE, lobbyPlayers);
-		
-		for (ClientThread client : clients) {
-			if (client.username != null && !playerPairs.containsKey(client.username)) {
+
+		try {
+			int[][] board = game.getBoard();
+			Message gameStart = new Message(MessageType.GAME_STATE, board, true, game.getSequence());
+			player1.connection.send(gameStart);
+
+			gameStart = new Message(MessageType.GAME_STATE, board, false, game.getSequence());
+			player2.connection.send(gameStart);
+
+			Message setOpponent = new Message(MessageType.NEWUSER, player2.username);
+			player1.connection.send(setOpponent);
+
+			setOpponent = new Message(MessageType.NEWUSER, player1.username);
+			player2.connection.send(setOpponent);
+
+			callback.accept(new Message("Game started with " + player1.username + " and " + player2.username));
+		} catch (Exception e) {
+			System.err.println("Error starting game");
+		}
+		return true;
+	}
+
+	// Start a game between two lobby players, from a challenge or the quick play queue, and
+	// take them out of the lobby
+	private boolean startGame(SessionRegistry.Session player1, SessionRegistry.Session player2) {
+		if (!matchPlayers(player1, player2)) {
+			return false;
+		}
+		lobby.unsubscribe(player1);
+		lobby.unsubscribe(player2);
+		lobby.left(player1);
+		lobby.left(player2);
+		return true;
+	}
+
+	// A recovered game whose players were not both back in time is abandoned, so it is neither
+	// held in memory nor written into every journal checkpoint from now on
+	private void expireRecovered(Journal journal, Game game) {
+		if (recovered.remove(game.player1, game)) {
+			recovered.remove(game.player2, game);
+			journal.abandon(game);
+			log("Recovered game between " + game.player1 + " and " + game.player2 + " expired");
+		}
+	}
+
+	// A game the journal recovered carries on once both of its players are logged in and idle.
+	// Pairing decides it, so if both players log in at once only one of them resumes the game.
+	// It pairs inside the update of player1's entry, so the game cannot expire halfway through
+	private void resumeRecovered(SessionRegistry.Session session) {
+		Game game = recovered.get(session.username);
+		if (game == null) {
+			return;
+		}
+		SessionRegistry.Session opponent = sessions.get(session.username.equals(game.player1) ? game.player2 : game.player1);
+		if (opponent == null) {
+			return;
+		}
+		boolean[] paired = new boolean[1];
+		recovered.computeIfPresent(game.player1, (name, held) -> {
+			paired[0] = held == game && sessions.pair(session, opponent, game);
+			return paired[0] ? null : held;
+		});
+		if (!paired[0]) {
+			return;
+		}
+		recovered.remove(game.player2, game);
+		metrics.gameStarted();
+		unwatch(session);
+		unwatch(opponent);
+		lobby.unsubscribe(session);
+		lobby.unsubscribe(opponent);
+		lobby.left(session);
+		lobby.left(opponent);
+
+		game.lock.lock();
+		try {
+			int[][] board = game.getBoard();
+			session.connection.send(new Message(MessageType.GAME_STATE,
+					board, session.username.equals(game.getCurrentPlayer()), game.getSequence()));
+			opponent.connection.send(new Message(MessageType.GAME_STATE,
+					board, opponent.username.equals(game.getCurrentPlayer()), game.getSequence()));
+			session.connection.send(new Message(MessageType.NEWUSER, opponent.username));
+			opponent.connection.send(new Message(MessageType.NEWUSER, session.username));
+			callback.accept(new Message("Game resumed between " + game.player1 + " and " + game.player2
+					+ " at move " + game.getMoveCount()));
+		} catch (Exception e) {
+			System.err.println("Error resuming game");
+		} finally {
+			game.lock.unlock();
+		}
+	}
+
+	// Watch the game player is in, starting from a snapshot. Only lobby players may watch; they
+	// stay in the lobby and a challenge they accept ends the watching
+	private void spectate(SessionRegistry.Session session, String player) {
+		unwatch(session);
+		SessionRegistry.Session target = player != null && session.opponent == null ? sessions.get(player) : null;
+		Game game = target != null ? target.game : null;
+		try {
+			if (game != null) {
+				game.lock.lock();
 				try {
-					client.out.writeObject(lobbyUpdate);
-				} catch (Exception e) {
-					System.err.println("Error broadcasting lobby update");
+					// Checked under the lock leave takes to end the audience, so a game that is
+					// ending either takes this spectator with it or is never joined
+					if (target.game == game) {
+						audiences.computeIfAbsent(game, g -> new Spectators()).add(session);
+						session.watching = game;
+						session.connection.send(new Message(MessageType.SPECTATE, game.player1, game.player2));
+						session.connection.send(new Message(MessageType.GAME_STATE, game.getBoard(), false, game.getSequence()));
+						return;
+					}
+				} finally {
+					game.lock.unlock();
 				}
 			}
+			if (player != null) {
+				session.connection.send(new Message(MessageType.SPECTATE, (String) null, (String) null));
+			}
+		} catch (Exception e) {
+			System.err.println("Error starting to spectate");
 		}
 	}
 
-	// Pair two players together and initialize their game
-	private void matchPlayers(String player1, String player2) {
-		playerPairs.put(player1, player2);
-		playerPairs.put(player2, player1);
+	private void unwatch(SessionRegistry.Session session) {
+		Game game = session.watching;
+		if (game != null) {
+			session.watching = null;
+			Spectators audience = audiences.get(game);
+			if (audience != null) {
+				audience.remove(session);
+			}
+		}
+	}
 
-		// Store game instance for both players to prevent null lookups
-		Game game = new Game(player1, player2);
-		games.put(player1, game);
-		games.put(player2, game);
+	// Caller holds game.lock
+	private void tellSpectators(Game game, Message message) {
+		Spectators audience = audiences.get(game);
+		if (audience != null) {
+			audience.send(message);
+		}
+	}
 
-		ClientThread client1 = usernameToClient.get(player1);
-		ClientThread client2 = usernameToClient.get(player2);
+	// A frame already sent to a player, queued as is for the spectators
+	private void tellSpectators(Game game, byte[] frame, MessageType type) {
+		Spectators audience = audiences.get(game);
+		if (audience != null) {
+			audience.send(frame, type);
+		}
+	}
 
+	// A game whose players have gone: its spectators are told and sent back to the lobby
+	private void endAudience(Game game) {
+		game.lock.lock();
 		try {
-			Message gameStart = new Message(MessageType.GAME_STATE, game.getBoard(), true);
-			client1.out.writeObject(gameStart);
+			Spectators audience = audiences.remove(game);
+			if (audience != null) {
+				audience.end(game);
+			}
+		} finally {
+			game.lock.unlock();
+		}
+	}
+
+	// Describe the move just made in game, from the point of view of one player
+	private Message moveDelta(Game game, boolean isPlayerTurn) {
+		return new Message(game.getLastColumn(), game.getLastRow(), game.getLastPlayer(),
+				game.getMoveCount(), game.getSequence(), isPlayerTurn);
+	}
+
+	// The registry entry for a connection, or null if it is not (or no longer) logged in
+	private SessionRegistry.Session sessionOf(Connection client) {
+		SessionRegistry.Session session = sessions.get(client.username);
+		return session != null && session.connection == client ? session : null;
+	}
+
+	// Entry point for every frame a transport reads off a socket
+	void onMessage(Connection client, Message data) {
+		long start = System.nanoTime();
+		if (data.type == MessageType.LOGIN) {
+			if (!sessions.isLoggedIn(data.username)) {
+				callback.accept(data);
+			}
+		} else {
+			callback.accept(data);
+		}
+		updateClients(client, data);
+		metrics.received(data.type, System.nanoTime() - start);
+	}
+
+	// Report a server event to whoever is watching (the GUI today)
+	void log(String event) {
+		callback.accept(new Message(event));
+	}
+
+	// Transports register a connection as soon as its socket is accepted
+	void onConnect(Connection client) {
+		client.metrics = metrics;
+		clients.add(client);
+	}
+
+	// This runs whether client disconnects gracefully or abruptly
+	void onDisconnect(Connection client) {
+		clients.remove(client);
+		if (!park(client)) {
+			leave(client);
+		}
+	}
 
-			gameStart = new Message(MessageType.GAME_STATE, game.getBoard(), false);
-			client2.out.writeObject(gameStart);
+	// Stands in for a player whose socket dropped mid-game. Frames for them are dropped, so a
+	// parked seat holds no socket or buffers, only its session, game and expiry timer
+	static final class ParkedSeat extends Connection {
+		TimerWheel.Timeout expiry;
 
-			Message setOpponent = new Message(MessageType.NEWUSER, player2);
-			client1.out.writeObject(setOpponent);
+		ParkedSeat(String username) {
+			this.username = username;
+		}
+
+		@Override
+		void enqueue(byte[] frame) {
+		}
+
+		@Override
+		void scheduleFlush() {
+		}
 
-			setOpponent = new Message(MessageType.NEWUSER, player1);
-			client2.out.writeObject(setOpponent);
+		@Override
+		void close() {
+		}
+	}
 
-			callback.accept(new Message("Game started with " + player1 + " and " + player2));
+	// Hold a dropped player's seat in their game until they resume or the timer forfeits it.
+	// Returns false if they were not in a game, and the caller cleans up as usual
+	private boolean park(Connection client) {
+		SessionRegistry.Session session = sessionOf(client);
+		if (resumeSeconds <= 0 || session == null || session.opponent == null) {
+			return false;
+		}
+		ParkedSeat seat = new ParkedSeat(session.username);
+		seat.expiry = timers.schedule(resumeSeconds, TimeUnit.SECONDS, () -> {
+			parkedSeats.decrementAndGet();
+			leave(seat);
+		});
+		SessionRegistry.Session parked = sessions.transfer(session, seat);
+		if (parked == null) {
+			seat.expiry.cancel();
+			return false;
+		}
+		parkedSeats.incrementAndGet();
+		SessionRegistry.Session opponent = parked.opponent;
+		if (opponent != null) {
+			try {
+				opponent.connection.send(new Message(session.username + " lost connection, waiting "
+						+ resumeSeconds + " s for them to return"));
+			} catch (Exception e) {
+				System.err.println("Error notifying opponent of dropped connection");
+			}
+		}
+		log(session.username + " dropped, seat held for " + resumeSeconds + " s");
+		return true;
+	}
+
+	// A player back from a dropped connection takes their seat again and gets a fresh snapshot,
+	// or lands in the lobby if their opponent left in the meantime
+	private void resume(Connection client, SessionRegistry.Session current, Message message) {
+		SessionRegistry.Session parked = sessions.get(message.username);
+		SessionRegistry.Session session = null;
+		if (current == null && parked != null && parked.connection instanceof ParkedSeat
+				&& parked.token == message.token && ((ParkedSeat) parked.connection).expiry.cancel()) {
+			parkedSeats.decrementAndGet();
+			session = sessions.transfer(parked, client);
+		}
+		try {
+			if (session == null) {
+				client.send(new Message(MessageType.LOGIN_ERROR, "Session expired, please log in again"));
+				return;
+			}
+			client.username = session.username;
+			client.send(new Message(MessageType.LOGIN_SUCCESS, session.username, session.token));
+
+			Game game = session.game;
+			SessionRegistry.Session opponent = session.opponent;
+			if (game != null && opponent != null) {
+				game.lock.lock();
+				try {
+					client.send(new Message(MessageType.GAME_STATE, game.getBoard(),
+							session.username.equals(game.getCurrentPlayer()), game.getSequence()));
+				} finally {
+					game.lock.unlock();
+				}
+				client.send(new Message(MessageType.NEWUSER, opponent.username));
+				opponent.connection.send(new Message(session.username + " is back"));
+			} else {
+				lobby.joined(session);
+				lobby.subscribe(session);
+				client.send(new Message("Your opponent left while you were away"));
+			}
+			callback.accept(new Message(session.username + " resumed their session"));
 		} catch (Exception e) {
-			System.err.println("Error starting game");
+			System.err.println("Error resuming session");
+		}
+	}
+
+	// Clean up player state and notify opponent if in a game
+	private void leave(Connection client) {
+		SessionRegistry.Session session = sessions.release(client.username, client);
+		if (session == null) {
+			return;
+		}
+		lobby.unsubscribe(session);
+		lobby.left(session);
+		unwatch(session);
+		matchmaker.leave(session);
+
+		// The opponent is back in the lobby and has missed every delta since the game started
+		SessionRegistry.Session opponent = session.formerOpponent;
+		if (opponent != null) {
+			metrics.gameEnded();
+			if (journal != null) {
+				journal.abandon(session.formerGame);
+			}
+			endAudience(session.formerGame);
+			try {
+				Message userLeft = new Message(MessageType.DISCONNECT, session.username);
+				opponent.connection.send(userLeft);
+			} catch (Exception e) {
+				System.err.println("Error notifying opponent of disconnect");
+			}
+			// A parked opponent stays out of the lobby until they are back. A bot is listed
+			// again but never watches the lobby, so it is sent no pages or deltas
+			if (!(opponent.connection instanceof ParkedSeat)) {
+				lobby.joined(opponent);
+				if (!(opponent.connection instanceof BotPlayer)) {
+					lobby.subscribe(opponent);
+				}
+			}
+		}
+	}
+
+	// Rate a finished game here, or on the cluster node that keeps ratings, in which case the
+	// new ratings come back through ratingChanged
+	private void rate(SessionRegistry.Session winner, SessionRegistry.Session loser, boolean draw) throws IOException {
+		int[] rated = cluster != null
+				? cluster.record(winner.username, loser.username, draw)
+				: ratings.record(winner.username, loser.username, draw);
+		if (rated != null) {
+			rated(winner, rated[0]);
+			rated(loser, rated[1]);
+		}
+	}
+
+	// Cluster link threads: a rating given out by the ratings node, for a player who may be here
+	private void ratingChanged(String name, int rating) {
+		SessionRegistry.Session session = sessions.get(name);
+		if (session != null && session.rating != rating) {
+			try {
+				rated(session, rating);
+			} catch (IOException e) {
+				System.err.println("Error sending rating");
+			}
+		}
+	}
+
+	// Tell a player their rating after a game, and pair them on it from now on
+	private void rated(SessionRegistry.Session player, int rating) throws IOException {
+		int change = rating - player.rating;
+		player.rating = rating;
+		player.connection.send(new Message(String.format("Your rating: %d (%+d)", rating, change)));
+	}
+
+	// Process game move and check for win/draw conditions
+	private void handleMove(SessionRegistry.Session session, int column) {
+		Game game = session.game;
+		SessionRegistry.Session opponent = session.opponent;
+		if (game == null || opponent == null) {
+			return;
+		}
+
+		// Held while sending so both players see updates in sequence order;
+		// only the two players of this game ever contend on it
+		game.lock.lock();
+		try {
+			// Validate move (correct turn, valid column, space available)
+			if (!game.makeMove(session.username, column)) {
+				return;
+			}
+			if (journal != null) {
+				journal.move(game, column);
+				if (game.checkWin() || game.checkDraw()) {
+					journal.result(game, game.checkWin() ? game.getLastPlayer() : 0);
+				}
+			}
+
+			if (game.checkWin()) {
+				game.setGameActive(false);
+
+				Message winMessage = new Message(MessageType.GAME_WIN, "You won!", game.getBoard());
+				session.connection.send(winMessage);
+
+				Message loseMessage = new Message(MessageType.GAME_LOSE, "You lost!", winMessage.board);
+				opponent.connection.send(loseMessage);
+
+				rate(session, opponent, false);
+
+				tellSpectators(game, moveDelta(game, false));
+				tellSpectators(game, new Message(session.username + " won against " + opponent.username));
+				callback.accept(new Message(session.username + " won against " + opponent.username));
+			}
+			else if (game.checkDraw()) {
+				game.setGameActive(false);
+
+				// Both players get the same bytes
+				byte[] draw = MessageCodec.encode(new Message(MessageType.GAME_DRAW, "Game ended in a draw", game.getBoard()));
+				session.connection.send(draw, MessageType.GAME_DRAW);
+				opponent.connection.send(draw, MessageType.GAME_DRAW);
+
+				rate(session, opponent, true);
+
+				tellSpectators(game, moveDelta(game, false));
+				tellSpectators(game, new Message("Draw between " + session.username + " and " + opponent.username));
+				callback.accept(new Message("Draw between " + session.username + " and " + opponent.username));
+			}
+			else {
+				// Only the dropped piece goes out; clients hold the board
+				Message opponentTurn = moveDelta(game, true);
+				opponent.connection.send(opponentTurn);
+
+				// Spectators see the move as the waiting player does
+				byte[] waitTurn = MessageCodec.encode(moveDelta(game, false));
+				session.connection.send(waitTurn, MessageType.GAME_DELTA);
+				tellSpectators(game, waitTurn, MessageType.GAME_DELTA);
+			}
+		} catch (Exception e) {
+			System.err.println("Error updating game");
+		} finally {
+			game.lock.unlock();
+		}
+	}
+
+	// Handle rematch requests - both players must agree before restarting
+	private void handleRematch(SessionRegistry.Session session) {
+		Game game = session.game;
+		SessionRegistry.Session opponent = session.opponent;
+		if (game == null || opponent == null) {
+			return;
+		}
+
+		game.lock.lock();
+		try {
+			session.rematchRequested = true;
+
+			// If both players have requested rematch, reset the game
+			if (opponent.rematchRequested) {
+				game.reset();
+				if (journal != null) {
+					journal.rematch(game);
+				}
+				session.rematchRequested = false;
+				opponent.rematchRequested = false;
+
+				// One snapshot for whoever moves first, one shared by the other player and the spectators
+				int[][] board = game.getBoard();
+				byte[] toMove = MessageCodec.encode(new Message(MessageType.GAME_STATE, board, true, game.getSequence()));
+				byte[] toWait = MessageCodec.encode(new Message(MessageType.GAME_STATE, board, false, game.getSequence()));
+				boolean sessionFirst = game.getCurrentPlayer().equals(session.username);
+				session.connection.send(sessionFirst ? toMove : toWait, MessageType.GAME_STATE);
+				opponent.connection.send(sessionFirst ? toWait : toMove, MessageType.GAME_STATE);
+				tellSpectators(game, toWait, MessageType.GAME_STATE);
+
+				callback.accept(new Message("Game restarted between " + game.player1 +
+						" and " + game.player2));
+			} else {
+				session.connection.send(new Message(opponent.username + " has received your rematch request"));
+				opponent.connection.send(new Message(session.username + " has requested a rematch"));
+			}
+		} catch (Exception e) {
+			System.err.println("Error with rematch request");
+		} finally {
+			game.lock.unlock();
+		}
+	}
+
+	public void updateClients(Connection client, Message message) {
+		SessionRegistry.Session session = sessionOf(client);
+		switch (message.type) {
+			case TEXT:
+				SessionRegistry.Session recipient = sessions.get(message.recipient);
+				if (recipient != null) {
+					try {
+						recipient.connection.send(message);
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+				break;
+
+			case LOGIN:
+				// Validate username
+				String loginError = null;
+				SessionRegistry.Session claimed = null;
+				if (message.username == null || message.username.trim().isEmpty()) {
+					loginError = "Username cannot be empty";
+				} else if (message.username.length() > 20) {
+					loginError = "Username too long (max 20 characters)";
+				} else if (session != null) {
+					loginError = "Already logged in as " + session.username;
+				} else if ((claimed = sessions.claim(message.username, client)) == null) {
+					// Claiming is atomic, so two clients racing for a name cannot both get it
+					loginError = "Username already taken";
+				}
+
+				try {
+					if (loginError != null) {
+						client.send(new Message(MessageType.LOGIN_ERROR, loginError));
+					} else {
+						client.username = message.username;
+						claimed.rating = ratings.rating(claimed.username);
+						client.send(new Message(MessageType.LOGIN_SUCCESS, message.username, claimed.token));
+
+						lobby.joined(claimed);
+						lobby.subscribe(claimed);
+						resumeRecovered(claimed);
+					}
+				} catch (Exception e) {
+					System.err.println("Error logging in");
+				}
+				break;
+
+			case CHALLENGE_REQUEST:
+				String challenger = message.username;
+				SessionRegistry.Session challenged = sessions.get(message.recipient);
+
+				if (challenged != null && challenged.opponent == null) {
+					try {
+						Message challengeMsg = new Message(MessageType.CHALLENGE_REQUEST, challenger, challenged.username);
+						challenged.connection.send(challengeMsg);
+						callback.accept(new Message(challenger + " challenged " + challenged.username));
+					} catch (Exception e) {
+						System.err.println("Error sending challenge");
+					}
+				}
+				break;
+
+			case CHALLENGE_ACCEPT:
+				SessionRegistry.Session accepter = sessions.get(message.username);
+				SessionRegistry.Session requestor = sessions.get(message.recipient);
+
+				if (accepter != null && requestor != null) {
+					startGame(requestor, accepter);
+				}
+				break;
+
+			case CHALLENGE_DECLINE:
+				String decliner = message.username;
+				SessionRegistry.Session requester = sessions.get(message.recipient);
+
+				if (requester != null) {
+					try {
+						Message declineMsg = new Message(MessageType.CHALLENGE_DECLINE, decliner, requester.username);
+						requester.connection.send(declineMsg);
+					} catch (Exception e) {
+						System.err.println("Error sending decline");
+					}
+				}
+				break;
+
+			case GAME_MOVE:
+				if (session != null) {
+					handleMove(session, message.column);
+				}
+				break;
+
+			case GAME_RESTART:
+				if (session != null) {
+					handleRematch(session);
+				}
+				break;
+
+			case GAME_RESYNC:
+				// Client saw a gap in move sequence numbers, send it a fresh snapshot
+				Game game = session == null ? null : session.game != null ? session.game : session.watching;
+				if (game != null) {
+					game.lock.lock();
+					try {
+						client.send(new Message(MessageType.GAME_STATE, game.getBoard(),
+								session.game == game && session.username.equals(game.getCurrentPlayer()), game.getSequence()));
+					} catch (Exception e) {
+						System.err.println("Error resyncing game");
+					} finally {
+						game.lock.unlock();
+					}
+				}
+				break;
+
+			case ANALYSIS_REQUEST:
+				// Hints for the player's current game; answered later from the analysis executor
+				if (session != null) {
+					analyzer.request(session);
+				}
+				break;
+
+			case LOBBY_QUERY:
+				// Search or page through the lobby; the session then only hears about that page
+				if (session != null && session.opponent == null) {
+					lobby.query(session, message.prefix, message.cursor, message.pageSize);
+				}
+				break;
+
+			case LOBBY_RESYNC:
+				// Client saw a gap in lobby versions, send it a fresh snapshot
+				if (session != null && session.opponent == null) {
+					lobby.subscribe(session);
+				}
+				break;
+
+			case SPECTATE:
+				// Watch the game the named player is in, or stop watching when no name is given
+				if (session != null) {
+					spectate(session, message.username);
+				}
+				break;
+
+			case QUEUE_JOIN:
+				// Quick play: the reply confirms the player is queued, and a game starts
+				// as soon as the matcher finds an opponent
+				if (session != null && session.opponent == null) {
+					matchmaker.join(session);
+					try {
+						client.send(new Message(MessageType.QUEUE_JOIN, session.username));
+					} catch (Exception e) {
+						System.err.println("Error confirming quick play");
+					}
+				}
+				break;
+
+			case QUEUE_LEAVE:
+				if (session != null) {
+					matchmaker.leave(session);
+					try {
+						client.send(new Message(MessageType.QUEUE_LEAVE, session.username));
+					} catch (Exception e) {
+						System.err.println("Error confirming quick play cancel");
+					}
+				}
+				break;
+
+			case LEADERBOARD_QUERY:
+				// A page of the leaderboard from a rank, or around the named player
+				if (session != null) {
+					try {
+						client.send(ratings.page(message.username, message.rank, message.pageSize));
+					} catch (Exception e) {
+						System.err.println("Error sending leaderboard");
+					}
+				}
+				break;
+
+			case SESSION_RESUME:
+				resume(client, session, message);
+				break;
+
+			case DISCONNECT:
+				leave(client);
+				break;
+
+			default:
+				break;
 		}
 	}
 
 	public class TheServer extends Thread {
+		private final boolean virtualThreads;
+		// Runs each client's outbound drain; idle clients hold no writer thread
+		private final ExecutorService writers;
+
+		TheServer(boolean virtualThreads) {
+			this.virtualThreads = virtualThreads;
+			this.writers = virtualThreads ? Executors.newVirtualThreadPerTaskExecutor() : Executors.newCachedThreadPool();
+		}
+
 		public void run() {
-			try (ServerSocket mysocket = new ServerSocket(5555)) {
+			try (ServerSocket mysocket = new ServerSocket(PORT, 1024)) {
 				System.out.println("Server is waiting for a client");
 
 				while (true) {
-					ClientThread c = new ClientThread(mysocket.accept(), count);
-					clients.add(c);
-					c.start();
+					ClientThread c = new ClientThread(mysocket.accept(), count, writers);
+					onConnect(c);
+					if (virtualThreads) {
+						Thread.ofVirtual().name("client-" + count).start(c);
+					} else {
+						new Thread(c, "client-" + count).start();
+					}
 					count++;
 				}
 			} catch (Exception e) {
@@ -96,266 +905,62 @@ public class Server {
 		}
 	}
 
-	class ClientThread extends Thread {
+	// Blocking transport: one thread (platform or virtual) per socket, parked in readFrame between messages.
+	// Outbound frames are drained by a task on the transport's writer executor, one at a time per client
+	class ClientThread extends Connection implements Runnable {
 		Socket connection;
 		int count;
-		ObjectInputStream in;
-		ObjectOutputStream out;
-		String username;
+		DataInputStream in;
+		volatile DataOutputStream out;
+		private final ExecutorService writers;
 
-		ClientThread(Socket s, int count) {
+		ClientThread(Socket s, int count, ExecutorService writers) {
 			this.connection = s;
 			this.count = count;
+			this.writers = writers;
 		}
 
-		public void updateClients(Message message) {
-			switch (message.type) {
-				case TEXT:
-					String recipient = message.recipient;
-					if (usernameToClient.containsKey(recipient)) {
-						ClientThread recipientThread = usernameToClient.get(recipient);
-						try {
-							recipientThread.out.writeObject(message);
-						} catch (Exception e) {
-							e.printStackTrace();
-						}
-					}
-					break;
-
-				case LOGIN:
-					// Validate username
-					if (message.username == null || message.username.trim().isEmpty()) {
-						try {
-							Message loginError = new Message(MessageType.LOGIN_ERROR, "Username cannot be empty");
-							out.writeObject(loginError);
-						} catch (Exception e) {
-							System.err.println("Error sending login error");
-						}
-					} else if (message.username.length() > 20) {
-						try {
-							Message loginError = new Message(MessageType.LOGIN_ERROR, "Username too long (max 20 characters)");
-							out.writeObject(loginError);
-						} catch (Exception e) {
-							System.err.println("Error sending login error");
-						}
-					} else if (usernames.contains(message.username)) {
-						try {
-							Message loginError = new Message(MessageType.LOGIN_ERROR, "Username already taken");
-							out.writeObject(loginError);
-						} catch (Exception e) {
-							System.err.println("Error with login error");
-						}
-					} else {
-						username = message.username;
-						usernames.add(username);
-						usernameToClient.put(username, this);
-						try {
-							Message loginSuccess = new Message(MessageType.LOGIN_SUCCESS, username);
-							out.writeObject(loginSuccess);
-
-							broadcastLobbyUpdate();
-						} catch (Exception e) {
-							System.err.println("Error logging in");
-						}
-					}
-					break;
-
-				case CHALLENGE_REQUEST:
-					String challenger = message.username;
-					String challenged = message.recipient;
-					
-					if (usernameToClient.containsKey(challenged) && !playerPairs.containsKey(challenged)) {
-						ClientThread challengedClient = usernameToClient.get(challenged);
-						try {
-							Message challengeMsg = new Message(MessageType.CHALLENGE_REQUEST, challenger, challenged);
-							challengedClient.out.writeObject(challengeMsg);
-							callback.accept(new Message(challenger + " challenged " + challenged));
-						} catch (Exception e) {
-							System.err.println("Error sending challenge");
-						}
-					}
-					break;
-
-				case CHALLENGE_ACCEPT:
-					String accepter = message.username;
-					String requestor = message.recipient;
-					
-					if (usernameToClient.containsKey(requestor) && !playerPairs.containsKey(requestor)) {
-						matchPlayers(requestor, accepter);
-						broadcastLobbyUpdate();
-					}
-					break;
-
-				case CHALLENGE_DECLINE:
-					String decliner = message.username;
-					String requester = message.recipient;
-					
-					if (usernameToClient.containsKey(requester)) {
-						ClientThread requesterClient = usernameToClient.get(requester);
-						try {
-							Message declineMsg = new Message(MessageType.CHALLENGE_DECLINE, decliner, requester);
-							requesterClient.out.writeObject(declineMsg);
-						} catch (Exception e) {
-							System.err.println("Error sending decline");
-						}
-					}
-					break;
-
-				case GAME_MOVE:
-					// Process game move and check for win/draw conditions
-					String opp = playerPairs.get(username);
-					if (opp != null) {
-						Game game = games.get(username);
-						if (game == null) {
-							game = games.get(opp);
-						}
-
-						if (game != null) {
-							// Validate move (correct turn, valid column, space available)
-							boolean validMove = game.makeMove(username, message.column);
-
-							if (validMove) {
-								if (game.checkWin()) {
-									game.setGameActive(false);
-
-									try {
-										Message winMessage = new Message(MessageType.GAME_WIN,
-												"You won!", game.getBoard());
-										out.writeObject(winMessage);
-
-										ClientThread opponentClient = usernameToClient.get(opp);
-										Message loseMessage = new Message(MessageType.GAME_LOSE,
-												"You lost!", game.getBoard());
-										opponentClient.out.writeObject(loseMessage);
-
-										callback.accept(new Message(username + " won against " + opp));
-									} catch (Exception e) {
-										System.err.println("Error with result");
-									}
-								}
-								else if (game.checkDraw()) {
-									game.setGameActive(false);
-
-									try {
-										Message drawMessage = new Message(MessageType.GAME_DRAW,
-												"Game ended in a draw", game.getBoard());
-										out.writeObject(drawMessage);
-
-										ClientThread opponentClient = usernameToClient.get(opp);
-										opponentClient.out.writeObject(drawMessage);
-
-										callback.accept(new Message("Draw between " + username + " and " + opp));
-									} catch (Exception e) {
-										System.err.println("Error with result");
-									}
-								}
-								else {
-									try {
-										ClientThread opponentClient = usernameToClient.get(opp);
-
-										Message opponentTurn = new Message(MessageType.GAME_STATE,
-												game.getBoard(), true);
-										opponentClient.out.writeObject(opponentTurn);
-
-										Message waitTurn = new Message(MessageType.GAME_STATE,
-												game.getBoard(), false);
-										out.writeObject(waitTurn);
-
-									} catch (Exception e) {
-										System.err.println("Error updating game");
-									}
-								}
-							}
-						}
-					}
-					break;
-
-				case GAME_RESTART:
-					// Handle rematch requests - both players must agree before restarting
-					String opponent = playerPairs.get(username);
-					if (opponent != null) {
-						Game game;
-						if (games.get(username) != null) {
-							game = games.get(username);
-						} else {
-							game = games.get(opponent);
-						}
-
-						if (game != null) {
-							rematchRequests.put(username, true);
-
-							// If both players have requested rematch, reset the game
-							if (rematchRequests.containsKey(opponent) && rematchRequests.get(opponent)) {
-								game.reset();
-
-								rematchRequests.remove(username);
-								rematchRequests.remove(opponent);
-
-								try {
-									ClientThread player1Client = usernameToClient.get(game.player1);
-									ClientThread player2Client = usernameToClient.get(game.player2);
-
-									String currentPlayer = game.getCurrentPlayer();
-
-									player1Client.out.writeObject(new Message(MessageType.GAME_STATE,
-											game.getBoard(), currentPlayer.equals(game.player1)));
-									player2Client.out.writeObject(new Message(MessageType.GAME_STATE,
-											game.getBoard(), currentPlayer.equals(game.player2)));
-
-									callback.accept(new Message("Game restarted between " + game.player1 +
-											" and " + game.player2));
-								} catch (Exception e) {
-									System.err.println("Error restarting game");
-								}
-							} else {
-								try {
-									out.writeObject(new Message(opponent + " has received your rematch request"));
-
-									ClientThread opponentClient = usernameToClient.get(opponent);
-									opponentClient.out.writeObject(new Message(username + " has requested a rematch"));
-								} catch (Exception e) {
-									System.err.println("Error with rematch request");
-								}
-							}
-						}
-					}
-					break;
-
-				case DISCONNECT:
-					if (username != null) {
-						usernames.remove(username);
-						usernameToClient.remove(username);
-
-						String disconnectedOpponent = playerPairs.get(username);
-						if (disconnectedOpponent != null) {
-							ClientThread opponentClient = usernameToClient.get(disconnectedOpponent);
-
-							try {
-								Message userLeft = new Message(MessageType.DISCONNECT, username);
-								opponentClient.out.writeObject(userLeft);
-							} catch (Exception e) {
-								System.err.println("Error with disconnect");
-							}
-
-							playerPairs.remove(username);
-							playerPairs.remove(disconnectedOpponent);
-							games.remove(username);
-							games.remove(disconnectedOpponent);
-						}
-						
-						broadcastLobbyUpdate();
+		@Override
+		void scheduleFlush() {
+			writers.execute(this::flush);
+		}
+
+		// Writes everything queued so far, then flushes once; a slow receiver only stalls its own writer
+		private void flush() {
+			try {
+				do {
+					long start = System.nanoTime();
+					long bytes = 0;
+					ByteBuffer frame;
+					while ((frame = pollFrame()) != null) {
+						bytes += frame.remaining();
+						out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
 					}
-					break;
-				
-				default:
-					break;
+					out.flush();
+					metrics.wrote(bytes, System.nanoTime() - start);
+				} while (finishFlush());
+			} catch (Exception e) {
+				System.err.println("Client disconnected: " + e.getMessage());
+				discardPending();
+				close();
+			}
+		}
+
+		// Closing the socket closes both streams; out is left alone so that a thread other
+		// than the writer never flushes its buffer
+		@Override
+		void close() {
+			try {
+				if (connection != null) connection.close();
+			} catch (Exception e) {
+				System.err.println("Error closing resources: " + e.getMessage());
 			}
 		}
 
 		public void run() {
 			try {
-				out = new ObjectOutputStream(connection.getOutputStream());
-				in = new ObjectInputStream(connection.getInputStream());
+				out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+				in = new DataInputStream(connection.getInputStream());
 				connection.setTcpNoDelay(true);
 			} catch (Exception e) {
 				System.out.println("Streams not open: " + e.getMessage());
@@ -364,15 +969,8 @@ public class Server {
 			try {
 				while (true) {
 					try {
-						Message data = (Message) in.readObject();
-						if (data.type == MessageType.LOGIN) {
-							if (!usernames.contains(data.username)) {
-								callback.accept(data);
-							}
-						} else {
-							callback.accept(data);
-						}
-						updateClients(data);
+						Message data = MessageCodec.readFrame(in);
+						onMessage(this, data);
 					} catch (Exception e) {
 						System.err.println("Client disconnected: " + e.getMessage());
 						break;
@@ -381,40 +979,8 @@ public class Server {
 			} finally {
 				// Clean up resources and notify opponent of disconnect
 				// This runs whether client disconnects gracefully or abruptly
-				clients.remove(this);
-				try {
-					if (in != null) in.close();
-					if (out != null) out.close();
-					if (connection != null) connection.close();
-				} catch (Exception e) {
-					System.err.println("Error closing resources: " + e.getMessage());
-				}
-				
-				// Clean up player state and notify opponent if in a game
-				if (username != null) {
-					usernames.remove(username);
-					usernameToClient.remove(username);
-					
-					String disconnectedOpponent = playerPairs.get(username);
-					if (disconnectedOpponent != null) {
-						ClientThread opponentClient = usernameToClient.get(disconnectedOpponent);
-						if (opponentClient != null) {
-							try {
-								Message userLeft = new Message(MessageType.DISCONNECT, username);
-								opponentClient.out.writeObject(userLeft);
-							} catch (Exception e) {
-								System.err.println("Error notifying opponent of disconnect");
-							}
-						}
-						
-						playerPairs.remove(username);
-						playerPairs.remove(disconnectedOpponent);
-						games.remove(username);
-						games.remove(disconnectedOpponent);
-					}
-					
-					broadcastLobbyUpdate();
-				}
+				close();
+				onDisconnect(this);
 			}
 		}
 	}
@@ -0,0 +1,12 @@
+// Headless launcher: runs the server without JavaFX or a display. Server events go to the
+// in-memory EventLog and from there to logs/server.log (see EventLog.open for the settings), e.g.
+//   java -Dconnect4.transport=nio -cp target/classes ServerMain
+public class ServerMain {
+	public static void main(String[] args) throws Exception {
+		EventLog events = EventLog.open();
+		Runtime.getRuntime().addShutdownHook(new Thread(events::close, "event-log-flush"));
+
+		new Server(events::record);
+		events.record("Server started on port " + Server.PORT);
+	}
+}
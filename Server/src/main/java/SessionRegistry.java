@@ -0,0 +1,167 @@
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Thread-safe registry of logged-in players and who they are playing.
+// Login and logout are single ConcurrentHashMap operations, reads never lock,
+// and pairing only locks the two sessions involved (always in id order, so no deadlock).
+public class SessionRegistry {
+	private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+	private final AtomicLong nextId = new AtomicLong();
+	private final SecureRandom random = new SecureRandom();
+
+	// Where every player's rating starts
+	static final int INITIAL_RATING = 1200;
+
+	static final class Session {
+		final long id;
+		final String username;
+		final Connection connection;
+		// Proof of identity for SESSION_RESUME; carried over when the seat is transferred
+		final long token;
+		// Guarded by this session's monitor; volatile so lobby reads can skip the lock
+		volatile Session opponent;
+		volatile Game game;
+		volatile boolean released;
+		// Set by release: the opponent this session was unpaired from, if any
+		volatile Session formerOpponent;
+		// Set by release with formerOpponent: the game they were playing
+		volatile Game formerGame;
+		// Guarded by the game's monitor
+		boolean rematchRequested;
+		// The game this lobby player is spectating, if any
+		volatile Game watching;
+		// Elo rating, read at login and updated after every rated game; quick play pairs on it
+		volatile int rating = INITIAL_RATING;
+		// The lobby page this session is watching, if any
+		final LobbyFeed.Subscription lobby = new LobbyFeed.Subscription();
+
+		Session(long id, String username, Connection connection, long token) {
+			this.id = id;
+			this.username = username;
+			this.connection = connection;
+			this.token = token;
+		}
+	}
+
+	// Atomically claim a username; returns null if someone else already holds it
+	Session claim(String username, Connection connection) {
+		Session session = new Session(nextId.incrementAndGet(), username, connection, random.nextLong());
+		return sessions.putIfAbsent(username, session) == null ? session : null;
+	}
+
+	Session get(String username) {
+		return username == null ? null : sessions.get(username);
+	}
+
+	boolean isLoggedIn(String username) {
+		return username != null && sessions.containsKey(username);
+	}
+
+	int size() {
+		return sessions.size();
+	}
+
+	// Every logged-in session, weakly consistent and never blocking writers
+	Iterable<Session> all() {
+		return sessions.values();
+	}
+
+	// Pair two idle players into game; fails if either has left or is already paired
+	boolean pair(Session a, Session b, Game game) {
+		if (a == b) {
+			return false;
+		}
+		Session first = a.id < b.id ? a : b;
+		Session second = first == a ? b : a;
+		synchronized (first) {
+			synchronized (second) {
+				if (a.released || b.released || a.opponent != null || b.opponent != null) {
+					return false;
+				}
+				a.opponent = b;
+				b.opponent = a;
+				a.game = game;
+				b.game = game;
+				a.rematchRequested = false;
+				b.rematchRequested = false;
+				return true;
+			}
+		}
+	}
+
+	// Hand a player's name, opponent and game over to another connection: a placeholder while
+	// their socket is gone, or the new socket when they come back. The old session ends as if
+	// released, and the opponent is re-pointed at the new one under the same locks as pair.
+	// Returns the new session, or null if old had already been released or replaced
+	Session transfer(Session old, Connection connection) {
+		while (true) {
+			Session opponent = old.opponent;
+			Session first = opponent == null || old.id < opponent.id ? old : opponent;
+			Session second = first == old ? opponent : old;
+			synchronized (first) {
+				synchronized (second != null ? second : first) {
+					if (old.opponent != opponent) {
+						continue;
+					}
+					if (old.released) {
+						return null;
+					}
+					Session moved = new Session(nextId.incrementAndGet(), old.username, connection, old.token);
+					moved.opponent = opponent;
+					moved.game = old.game;
+					moved.rematchRequested = old.rematchRequested;
+					moved.rating = old.rating;
+					if (!sessions.replace(old.username, old, moved)) {
+						return null;
+					}
+					old.released = true;
+					old.opponent = null;
+					old.game = null;
+					if (opponent != null && opponent.opponent == old) {
+						opponent.opponent = moved;
+					}
+					return moved;
+				}
+			}
+		}
+	}
+
+	// Remove a player's session, but only if it still belongs to this connection.
+	// Returns the session whose opponent (if any) has been unpaired, or null if nothing was held.
+	Session release(String username, Connection connection) {
+		Session session = get(username);
+		if (session == null || session.connection != connection || !sessions.remove(username, session)) {
+			return null;
+		}
+		while (true) {
+			Session opponent;
+			synchronized (session) {
+				session.released = true;
+				opponent = session.opponent;
+				if (opponent == null) {
+					return session;
+				}
+			}
+			Session first = session.id < opponent.id ? session : opponent;
+			Session second = first == session ? opponent : session;
+			synchronized (first) {
+				synchronized (second) {
+					// Retry if the pairing changed between the two lock acquisitions
+					if (session.opponent == opponent) {
+						Game game = session.game;
+						session.opponent = null;
+						session.game = null;
+						if (opponent.opponent == session) {
+							opponent.opponent = null;
+							opponent.game = null;
+						}
+						session.formerOpponent = opponent;
+						session.formerGame = game;
+						return session;
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,287 @@
+import java.util.Random;
+
+// Negamax alpha-beta search for the bots, on the same bitboard layout as Game: column c owns
+// bits c * 7 .. c * 7 + 5, and bit c * 7 + 6 is a sentinel that is never set. A position is the
+// pieces of the player to move plus the mask of every filled cell. Search runs by iterative
+// deepening against a deadline, so a move is always ready (the last depth that finished) when
+// time runs out, and the transposition table from shallower passes orders the deeper ones.
+// One Solver per thread: the table and counters are not shared.
+public class Solver {
+	static final int MAX_MOVES = Game.ROWS * Game.COLUMNS;
+	// Winning with the side to move's next piece scores WIN - 1, each extra ply costs one point;
+	// anything this close to WIN is a proven result rather than a heuristic guess
+	static final int WIN = 10_000;
+	private static final int PROVEN = WIN - MAX_MOVES - 1;
+
+	private static final int STRIDE = Game.COLUMN_STRIDE;
+	private static final long BOTTOM = bottomMask();
+	private static final long BOARD = BOTTOM * ((1L << Game.ROWS) - 1);
+	private static final long CENTER = columnMask(Game.COLUMNS / 2);
+	// Center columns first: they take part in the most lines
+	static final int[] ORDER = {3, 2, 4, 1, 5, 0, 6};
+	// Shifts between neighbouring cells along a row and the two diagonals
+	private static final int[] LINES = {STRIDE, STRIDE - 1, STRIDE + 1};
+
+	// Fixed-size table, always-replace: keys[i] holds current + mask (unique per position),
+	// entries[i] the packed score, depth, bound and best column
+	static final int TABLE_BITS = 20;
+	private static final int EXACT = 0;
+	private static final int LOWER = 1;
+	private static final int UPPER = 2;
+	private final long[] keys;
+	private final int[] entries;
+	private final int shift;
+	// Move ordering scratch space, one row per ply so recursion never allocates
+	private final int[][] columns = new int[MAX_MOVES + 1][Game.COLUMNS];
+	private final int[] scores = new int[Game.COLUMNS];
+
+	private long deadline;
+	private boolean timed;
+	private boolean aborted;
+	private long nodes;
+
+	Solver() {
+		this(TABLE_BITS);
+	}
+
+	Solver(int tableBits) {
+		keys = new long[1 << tableBits];
+		entries = new int[1 << tableBits];
+		shift = 64 - tableBits;
+	}
+
+	private static long bottomMask() {
+		long bottom = 0;
+		for (int c = 0; c < Game.COLUMNS; c++) {
+			bottom |= 1L << (c * STRIDE);
+		}
+		return bottom;
+	}
+
+	static long columnMask(int column) {
+		return ((1L << Game.ROWS) - 1) << (column * STRIDE);
+	}
+
+	static int columnOf(long move) {
+		return Long.numberOfTrailingZeros(move) / STRIDE;
+	}
+
+	// The lowest empty cell of every column that is not full
+	static long playable(long mask) {
+		return (mask + BOTTOM) & BOARD;
+	}
+
+	// Empty cells where pieces would complete four in a row, playable now or not
+	static long winningCells(long pieces, long mask) {
+		// vertical
+		long r = (pieces << 1) & (pieces << 2) & (pieces << 3);
+		// horizontal and both diagonals: three pieces on either side or split around the cell
+		for (int s : LINES) {
+			long p = (pieces << s) & (pieces << 2 * s);
+			r |= p & (pieces << 3 * s);
+			r |= p & (pieces >>> s);
+			p = (pieces >>> s) & (pieces >>> 2 * s);
+			r |= p & (pieces << s);
+			r |= p & (pieces >>> 3 * s);
+		}
+		return r & (BOARD ^ mask);
+	}
+
+	// Nodes visited by the last bestMove call
+	long nodes() {
+		return nodes;
+	}
+
+	// The column to play for the side whose pieces are current. Searches one ply deeper at a
+	// time up to maxDepth, stopping at deadlineNanos (System.nanoTime) or once the result is proven
+	int bestMove(long current, long mask, int moves, int maxDepth, long deadlineNanos) {
+		deadline = deadlineNanos;
+		nodes = 0;
+		aborted = false;
+
+		long possible = playable(mask);
+		long wins = winningCells(current, mask) & possible;
+		if (wins != 0) {
+			return columnOf(wins);
+		}
+
+		int best = fallback(current, mask);
+		int limit = Math.min(maxDepth, MAX_MOVES - moves);
+		for (int depth = 1; depth <= limit; depth++) {
+			// Depth 1 always completes, so even an expired deadline gets a considered move
+			timed = depth > 1;
+			int alpha = -WIN;
+			int bestAtDepth = best;
+			int[] order = columns[0];
+			int count = order(order, current, mask, possible, best);
+			for (int i = 0; i < count; i++) {
+				int column = order[i];
+				long move = possible & columnMask(column);
+				int score = -search(current ^ mask, mask | move, moves + 1, depth - 1, -WIN, -alpha, 1);
+				if (aborted) {
+					break;
+				}
+				if (score > alpha) {
+					alpha = score;
+					bestAtDepth = column;
+				}
+			}
+			if (aborted) {
+				break;
+			}
+			best = bestAtDepth;
+			if (alpha >= PROVEN || alpha <= -PROVEN) {
+				break;
+			}
+		}
+		return best;
+	}
+
+	// A move that does not hand the opponent an immediate win, if there is one
+	private static int fallback(long current, long mask) {
+		long possible = playable(mask);
+		long safe = possible & ~(winningCells(current ^ mask, mask) >>> 1);
+		long pick = safe != 0 ? safe : possible;
+		for (int column : ORDER) {
+			if ((pick & columnMask(column)) != 0) {
+				return column;
+			}
+		}
+		return -1;
+	}
+
+	// A plausible but unconsidered move, for the weaker levels: wins and forced blocks are
+	// still played, otherwise any column that does not lose on the spot
+	static int casualMove(long current, long mask, Random random) {
+		long possible = playable(mask);
+		long wins = winningCells(current, mask) & possible;
+		if (wins != 0) {
+			return columnOf(wins);
+		}
+		long opponentWins = winningCells(current ^ mask, mask);
+		long forced = possible & opponentWins;
+		long candidates = forced != 0 ? forced : possible & ~(opponentWins >>> 1);
+		if (candidates == 0) {
+			candidates = possible;
+		}
+		int pick = random.nextInt(Long.bitCount(candidates));
+		for (int i = 0; i < pick; i++) {
+			candidates &= candidates - 1;
+		}
+		return columnOf(candidates);
+	}
+
+	// Fill out with the columns worth trying, the hinted one first, then by how many threats
+	// the move creates (ties keep center-first order); returns how many there are
+	private int order(int[] out, long current, long mask, long candidates, int hint) {
+		int n = 0;
+		for (int column : ORDER) {
+			long move = candidates & columnMask(column);
+			if (move == 0) {
+				continue;
+			}
+			int score = column == hint ? Integer.MAX_VALUE : Long.bitCount(winningCells(current | move, mask | move));
+			int i = n++;
+			while (i > 0 && scores[i - 1] < score) {
+				out[i] = out[i - 1];
+				scores[i] = scores[i - 1];
+				i--;
+			}
+			out[i] = column;
+			scores[i] = score;
+		}
+		return n;
+	}
+
+	private int search(long current, long mask, int moves, int depth, int alpha, int beta, int ply) {
+		if ((++nodes & 1023) == 0 && timed && System.nanoTime() - deadline > 0) {
+			aborted = true;
+		}
+		if (aborted || moves == MAX_MOVES) {
+			return 0;
+		}
+
+		long possible = playable(mask);
+		if ((winningCells(current, mask) & possible) != 0) {
+			return WIN - ply - 1;
+		}
+		// Block an opponent threat if there is one, and never play right under one
+		long opponentWins = winningCells(current ^ mask, mask);
+		long forced = possible & opponentWins;
+		if (forced != 0) {
+			if ((forced & (forced - 1)) != 0) {
+				return -(WIN - ply - 2);
+			}
+			possible = forced;
+		}
+		possible &= ~(opponentWins >>> 1);
+		if (possible == 0) {
+			return -(WIN - ply - 2);
+		}
+		if (depth == 0) {
+			return evaluate(current, mask);
+		}
+
+		long key = current + mask;
+		int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+		int hint = -1;
+		if (keys[slot] == key) {
+			int entry = entries[slot];
+			hint = (entry >>> 26) - 1;
+			if ((entry >>> 16 & 0xFF) >= depth) {
+				int score = fromTable((short) entry, ply);
+				int bound = entry >>> 24 & 3;
+				if (bound == EXACT || bound == LOWER && score >= beta || bound == UPPER && score <= alpha) {
+					return score;
+				}
+			}
+		}
+
+		int originalAlpha = alpha;
+		int best = -WIN;
+		int bestColumn = -1;
+		int[] order = columns[ply];
+		int count = order(order, current, mask, possible, hint);
+		for (int i = 0; i < count; i++) {
+			int column = order[i];
+			long move = possible & columnMask(column);
+			int score = -search(current ^ mask, mask | move, moves + 1, depth - 1, -beta, -alpha, ply + 1);
+			if (aborted) {
+				return 0;
+			}
+			if (score > best) {
+				best = score;
+				bestColumn = column;
+			}
+			if (score > alpha) {
+				alpha = score;
+				if (alpha >= beta) {
+					break;
+				}
+			}
+		}
+
+		int bound = best <= originalAlpha ? UPPER : best >= beta ? LOWER : EXACT;
+		keys[slot] = key;
+		entries[slot] = (toTable(best, ply) & 0xFFFF) | depth << 16 | bound << 24 | (bestColumn + 1) << 26;
+		return best;
+	}
+
+	// Proven scores count plies from the root; the table stores them from the node so that
+	// a position reached by a different path length reads back correctly
+	private static int toTable(int score, int ply) {
+		return score >= PROVEN ? score + ply : score <= -PROVEN ? score - ply : score;
+	}
+
+	private static int fromTable(int score, int ply) {
+		return score >= PROVEN ? score - ply : score <= -PROVEN ? score + ply : score;
+	}
+
+	// Heuristic for the side to move at the depth limit: open threats count most, center pieces a little
+	private static int evaluate(long current, long mask) {
+		long opponent = current ^ mask;
+		int threats = Long.bitCount(winningCells(current, mask)) - Long.bitCount(winningCells(opponent, mask));
+		int center = Long.bitCount(current & CENTER) - Long.bitCount(opponent & CENTER);
+		return 8 * threats + 2 * center;
+	}
+}
@@ -0,0 +1,57 @@
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// The lobby players watching one game. Each update is encoded once and the same bytes are
+// queued on every spectator's connection, so a move costs one encode however many are watching.
+// Queueing never waits on a socket: a slow spectator only backs up its own queue and is dropped
+// when that fills, without holding up the players or the other spectators. Joins and leaves
+// copy the list; sends, one per move, just walk it.
+public class Spectators {
+	private final CopyOnWriteArrayList<SessionRegistry.Session> watchers = new CopyOnWriteArrayList<>();
+
+	void add(SessionRegistry.Session session) {
+		watchers.add(session);
+	}
+
+	void remove(SessionRegistry.Session session) {
+		watchers.remove(session);
+	}
+
+	int size() {
+		return watchers.size();
+	}
+
+	void send(Message message) {
+		if (watchers.isEmpty()) {
+			return;
+		}
+		try {
+			send(MessageCodec.encode(message), message.type);
+		} catch (IOException e) {
+			System.err.println("Error encoding spectator update");
+		}
+	}
+
+	// A frame the caller has already encoded, typically the one it sent the waiting player
+	void send(byte[] frame, MessageType type) {
+		for (SessionRegistry.Session watcher : watchers) {
+			try {
+				watcher.connection.send(frame, type);
+			} catch (IOException e) {
+				// Too far behind and already closed; its disconnect also unwatches it
+				watchers.remove(watcher);
+			}
+		}
+	}
+
+	// The game is over: tell everyone watching and let them go
+	void end(Game game) {
+		send(new Message(MessageType.SPECTATE, (String) null, (String) null));
+		for (SessionRegistry.Session watcher : watchers) {
+			if (watcher.watching == game) {
+				watcher.watching = null;
+			}
+		}
+		watchers.clear();
+	}
+}
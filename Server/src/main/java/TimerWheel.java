@@ -0,0 +1,112 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// Hashed timing wheel (Varghese and Lauck) for many coarse timeouts, such as parked games
+// waiting for their player to come back. A ring of slots is advanced one slot per tick by a
+// single daemon thread; a timeout waits in the slot its deadline falls in and fires on the lap
+// it is due. Scheduling and cancelling are O(1) from any thread and never lock: new timeouts
+// reach the wheel through a queue drained once per tick, and a cancelled timeout is only
+// unlinked when its slot next comes round. Tasks run on the wheel thread and must be short.
+public class TimerWheel {
+	static final class Timeout {
+		private static final int WAITING = 0;
+		private static final int CANCELLED = 1;
+		private static final int EXPIRED = 2;
+
+		private final Runnable task;
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(WAITING);
+		// Wheel thread only: the next timeout in the same slot
+		private Timeout next;
+
+		Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		// True if the task will now never run, false if it already ran or is running
+		boolean cancel() {
+			return state.compareAndSet(WAITING, CANCELLED);
+		}
+	}
+
+	private final long tickNanos;
+	private final long start = System.nanoTime();
+	private final Timeout[] slots;
+	private final int mask;
+	private final ConcurrentLinkedQueue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+	// Ticks completed; written by the wheel thread only
+	private volatile long tick;
+
+	// slots is rounded up to a power of two; a timeout further away than slots ticks goes round
+	// the wheel more than once
+	TimerWheel(String name, long tick, TimeUnit unit, int slots) {
+		int size = 2;
+		while (size < slots) {
+			size <<= 1;
+		}
+		this.tickNanos = unit.toNanos(tick);
+		this.slots = new Timeout[size];
+		this.mask = size - 1;
+		Thread thread = new Thread(this::run, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	// Runs task on the wheel thread once delay has passed, rounded up to the next tick
+	Timeout schedule(long delay, TimeUnit unit, Runnable task) {
+		long deadline = (System.nanoTime() - start + unit.toNanos(delay) + tickNanos - 1) / tickNanos;
+		Timeout timeout = new Timeout(task, deadline);
+		incoming.add(timeout);
+		return timeout;
+	}
+
+	private void run() {
+		while (true) {
+			long wake = start + (tick + 1) * tickNanos;
+			long now;
+			while ((now = System.nanoTime()) < wake) {
+				LockSupport.parkNanos(wake - now);
+			}
+			long current = tick + 1;
+			Timeout timeout;
+			while ((timeout = incoming.poll()) != null) {
+				// Already due ones go in this tick's slot
+				int slot = (int) (Math.max(timeout.deadline, current) & mask);
+				timeout.next = slots[slot];
+				slots[slot] = timeout;
+			}
+			expire((int) (current & mask), current);
+			tick = current;
+		}
+	}
+
+	private void expire(int slot, long current) {
+		Timeout previous = null;
+		Timeout timeout = slots[slot];
+		while (timeout != null) {
+			Timeout next = timeout.next;
+			int state = timeout.state.get();
+			if (state == Timeout.CANCELLED || timeout.deadline <= current) {
+				if (previous == null) {
+					slots[slot] = next;
+				} else {
+					previous.next = next;
+				}
+				timeout.next = null;
+				if (state == Timeout.WAITING && timeout.state.compareAndSet(Timeout.WAITING, Timeout.EXPIRED)) {
+					try {
+						timeout.task.run();
+					} catch (RuntimeException e) {
+						System.err.println("Timer task failed: " + e);
+					}
+				}
+			} else {
+				previous = timeout;
+			}
+			timeout = next;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class AnalyzerTest {
+	// Thirty moves into a known draw: small enough to solve at once, with full columns
+	static final String MIDGAME = "153233145111176477634234566773";
+
+	@Test
+	void clockGivesReferencedEntriesASecondChance() {
+		EvaluationCache cache = new EvaluationCache(2);
+		byte[] scores = new byte[Game.COLUMNS];
+		cache.put(1, 10, scores);
+		cache.put(2, 20, scores);
+		assertNotNull(cache.get(1, 10));
+		cache.put(3, 30, scores);
+		assertNotNull(cache.get(1, 10));
+		assertNull(cache.get(2, 20));
+		assertNotNull(cache.get(3, 30));
+		assertEquals(1, cache.evictions());
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	void aHashCollisionIsAMiss() {
+		EvaluationCache cache = new EvaluationCache(4);
+		cache.put(1, 10, new byte[Game.COLUMNS]);
+		assertNull(cache.get(1, 11));
+		assertEquals(0, cache.hits());
+		assertEquals(1, cache.misses());
+	}
+
+	@Test
+	void mirroredPositionsShareOneEntry() {
+		Analyzer analyzer = new Analyzer(null, new ParallelSolver(1), null);
+		int[] scores = analyze(analyzer, MIDGAME);
+		assertNotNull(scores);
+		assertEquals(1, analyzer.cache().size());
+
+		int[] mirrored = analyze(analyzer, mirror(MIDGAME));
+		assertEquals(1, analyzer.cache().hits());
+		assertEquals(1, analyzer.cache().size());
+		for (int c = 0; c < Game.COLUMNS; c++) {
+			assertEquals(scores[c], mirrored[Game.COLUMNS - 1 - c], "column " + c);
+		}
+
+		// The cached, flipped answer is the one a fresh solve of the mirror gives
+		int[] solved = analyze(new Analyzer(null, new ParallelSolver(1), null), mirror(MIDGAME));
+		assertArrayEquals(solved, mirrored);
+	}
+
+	@Test
+	void evaluationsCountMovesToTheEnd() {
+		// Six moves in, a win with the next stone (move 6) scores (43 - 6) / 2 and a loss to the
+		// opponent's next stone (move 7) scores -(43 - 7) / 2
+		int[] scores = {18, -18, 0, ParallelSolver.UNKNOWN, 17, -17, 0};
+		assertArrayEquals(new int[] {1, -1, 0, Message.COLUMN_FULL, 2, -2, 0}, Analyzer.evaluations(scores, 6));
+		int[] unsolved = new int[Game.COLUMNS];
+		Arrays.fill(unsolved, Message.UNSOLVED);
+		assertArrayEquals(unsolved, Analyzer.evaluations(null, 6));
+	}
+
+	private static int[] analyze(Analyzer analyzer, String moves) {
+		Game game = Game.fromMoves(moves);
+		return analyzer.analyze(game.moverPieces(), game.occupied(), game.hash(), game.mirrorHash());
+	}
+
+	private static String mirror(String moves) {
+		StringBuilder mirrored = new StringBuilder();
+		for (char c : moves.toCharArray()) {
+			mirrored.append((char) ('1' + '7' - c));
+		}
+		return mirrored.toString();
+	}
+}
@@ -0,0 +1,138 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+// A human and a bot play a game to a draw and agree to a rematch. The bot's searches are held
+// back so the test plays its moves, but everything the bot chooses to do on its own (accept,
+// ask for the rematch, move when the new game starts) runs exactly as it would on the server
+class BotPlayerTest {
+	// Forty-two moves without four in a row
+	static final String DRAWN = "153233145111176477634234566773467642222555";
+
+	// Runs nothing until the test says so
+	static final class Held extends AbstractExecutorService {
+		final List<Runnable> tasks = new ArrayList<>();
+
+		@Override
+		public void execute(Runnable task) {
+			tasks.add(task);
+		}
+
+		void runAll() {
+			List<Runnable> pending = new ArrayList<>(tasks);
+			tasks.clear();
+			pending.forEach(Runnable::run);
+		}
+
+		@Override
+		public void shutdown() {
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return false;
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return false;
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) {
+			return true;
+		}
+	}
+
+	// Drains its frames as soon as they are queued
+	static final class Human extends Connection {
+		@Override
+		void scheduleFlush() {
+			do {
+				while (pollFrame() != null) {
+					// Nothing the human is sent matters here
+				}
+			} while (finishFlush());
+		}
+
+		@Override
+		void close() {
+		}
+	}
+
+	@Test
+	void aBotFinishesADrawAndStartsTheRematch() {
+		Server server = TestServers.start(30);
+		Held executor = new Held();
+		BotPlayer bot = new BotPlayer(server, "Bot-Test", BotPlayer.Level.EASY, executor, server.solver, null);
+		assertNotNull(server.sessions.claim("Bot-Test", bot));
+		Human human = new Human();
+		server.onMessage(human, new Message(MessageType.LOGIN, "ann"));
+
+		// The bot challenges, so it is player one and moves first in every game
+		server.onMessage(human, new Message(MessageType.CHALLENGE_ACCEPT, "ann", "Bot-Test"));
+		Game game = server.sessions.get("ann").game;
+		assertNotNull(game);
+		assertEquals("Bot-Test", game.player1);
+
+		for (int i = 0; i < DRAWN.length(); i++) {
+			boolean botTurn = i % 2 == 0;
+			assertEquals(botTurn ? 1 : 0, executor.tasks.size(), "searches queued before move " + i);
+			executor.tasks.clear();
+			server.onMessage(botTurn ? bot : human, new Message(botTurn ? "Bot-Test" : "ann", DRAWN.charAt(i) - '1'));
+		}
+		assertTrue(game.checkDraw());
+
+		// The draw reaches the bot as a shared frame, and it asks for a rematch
+		assertEquals(1, executor.tasks.size());
+		executor.runAll();
+		assertTrue(server.sessions.get("Bot-Test").rematchRequested);
+
+		// The human agrees, and the bot's snapshot of the new game says it is to move
+		server.onMessage(human, new Message(MessageType.GAME_RESTART, "ann"));
+		assertEquals(0, game.getMoveCount());
+		assertFalse(game.checkDraw());
+		assertEquals(1, executor.tasks.size());
+		executor.runAll();
+		assertEquals(1, game.getMoveCount());
+		assertSame(game, server.sessions.get("Bot-Test").game);
+	}
+
+	// When the human walks out the bot is listed as idle again, but is sent no lobby pages
+	@Test
+	void aBotLeftAloneIsListedButDoesNotWatchTheLobby() {
+		Server server = TestServers.start(30);
+		List<MessageType> received = new ArrayList<>();
+		BotPlayer bot = new BotPlayer(server, "Bot-Alone", BotPlayer.Level.EASY, new Held(), server.solver, null) {
+			@Override
+			void send(Message message) {
+				received.add(message.type);
+				super.send(message);
+			}
+		};
+		assertNotNull(server.sessions.claim("Bot-Alone", bot));
+		Human human = new Human();
+		server.onMessage(human, new Message(MessageType.LOGIN, "bob"));
+		server.onMessage(human, new Message(MessageType.CHALLENGE_ACCEPT, "bob", "Bot-Alone"));
+		assertNotNull(server.sessions.get("Bot-Alone").game);
+
+		received.clear();
+		server.onMessage(human, new Message(MessageType.DISCONNECT, "bob"));
+		assertEquals(Collections.singletonList(MessageType.DISCONNECT), received);
+		assertTrue(server.lobby.localPlayers().contains("Bot-Alone"));
+	}
+}
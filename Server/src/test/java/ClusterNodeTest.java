@@ -0,0 +1,137 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.Test;
+
+// Nodes on ephemeral loopback ports, each with its own lobby ticking every few milliseconds
+class ClusterNodeTest {
+	static final long TICK_MILLIS = 5;
+	static final long TIMEOUT_MILLIS = 10_000;
+
+	static final class Idle extends Connection {
+		@Override
+		void scheduleFlush() {
+		}
+
+		@Override
+		void close() {
+		}
+	}
+
+	@Test
+	void aPeerListsThePlayersIdleOnAnotherNode() throws Exception {
+		LobbyFeed listening = new LobbyFeed(new SessionRegistry(), TICK_MILLIS);
+		ClusterNode a = open(listening, "a", Collections.emptyList());
+		SessionRegistry registry = new SessionRegistry();
+		LobbyFeed publishing = new LobbyFeed(registry, TICK_MILLIS);
+		SessionRegistry.Session early = registry.claim("ann", new Idle());
+		publishing.joined(early);
+		ClusterNode b = open(publishing, "b", Collections.singletonList(address(a)));
+
+		// Players idle before the link came up arrive in the snapshot, later ones as deltas
+		await(() -> listening.size() == 1);
+		SessionRegistry.Session late = registry.claim("bob", new Idle());
+		publishing.joined(late);
+		await(() -> listening.size() == 2);
+		publishing.left(early);
+		await(() -> listening.size() == 1);
+		assertEquals(1, b.links());
+		assertTrue(listening.localPlayers().isEmpty());
+	}
+
+	// A peer that accepts the link and never reads fills its queue and is dropped, and no
+	// publish waits on it meanwhile
+	@Test
+	void aStalledPeerIsDroppedWithoutBlockingThePublisher() throws Exception {
+		try (ServerSocket stalled = new ServerSocket(0, 64, InetAddress.getLoopbackAddress())) {
+			ClusterNode node = open(new LobbyFeed(new SessionRegistry(), TICK_MILLIS), "c",
+					Collections.singletonList(new InetSocketAddress(InetAddress.getLoopbackAddress(), stalled.getLocalPort())));
+			await(() -> node.links() == 1);
+
+			List<String> names = new ArrayList<>();
+			for (int i = 0; i < 100 * ClusterNode.NAMES_PER_FRAME; i++) {
+				names.add("player" + i);
+			}
+			List<String> none = Collections.emptyList();
+			assertTimeoutPreemptively(Duration.ofMillis(TIMEOUT_MILLIS), () -> {
+				while (node.links() == 1) {
+					node.publish(names, none);
+				}
+			});
+		}
+	}
+
+	// One node keeps ratings and a second sends it its results; both answer from the same board
+	@Test
+	void resultsAreRatedOnTheRatingsNodeAndCopiedToItsPeers() throws Exception {
+		InetSocketAddress keeper;
+		try (ServerSocket probe = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			keeper = new InetSocketAddress(InetAddress.getLoopbackAddress(), probe.getLocalPort());
+		}
+		Ratings kept = Ratings.inMemory();
+		kept.record("ann", "bob", false);
+		Ratings copy = Ratings.inMemory();
+		Map<String, Integer> told = new ConcurrentHashMap<>();
+		ClusterNode peer = ClusterNode.open(new LobbyFeed(new SessionRegistry(), TICK_MILLIS), copy, told::put,
+				event -> {
+				}, "p", new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), Collections.singletonList(keeper), keeper);
+		ClusterNode owner = ClusterNode.open(new LobbyFeed(new SessionRegistry(), TICK_MILLIS), kept, (name, rating) -> {
+		}, event -> {
+		}, "r", keeper, Collections.singletonList(address(peer)), keeper);
+
+		// Ratings from before the link came up arrive in the snapshot
+		await(() -> peer.ratingsReachable() && copy.size() == 2);
+		assertEquals(kept.rating("ann"), copy.rating("ann"));
+
+		// A game on the peer is rated by the owner, and the peer hears the result from it
+		assertEquals(null, peer.record("cat", "dan", false));
+		await(() -> copy.size() == 4);
+		assertEquals(kept.rating("cat"), (int) told.get("cat"));
+		assertEquals(kept.rating("dan"), (int) told.get("dan"));
+
+		// One on the owner is rated there at once
+		int[] rated = owner.record("ann", "cat", true);
+		assertEquals(kept.rating("ann"), rated[0]);
+		await(() -> told.get("ann") != null && told.get("ann") == rated[0]);
+		assertEquals(names(kept), names(copy));
+		assertEquals(kept.rank("cat"), copy.rank("cat"));
+	}
+
+	private static List<String> names(Ratings ratings) {
+		List<String> names = new ArrayList<>();
+		for (Leaderboard.Node node : ratings.all()) {
+			names.add(node.name + "=" + node.rating);
+		}
+		return names;
+	}
+
+	private static ClusterNode open(LobbyFeed lobby, String name, List<InetSocketAddress> peers) throws IOException {
+		return ClusterNode.open(lobby, Ratings.inMemory(), (player, rating) -> {
+		}, event -> {
+		}, name, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), peers, null);
+	}
+
+	private static InetSocketAddress address(ClusterNode node) {
+		return new InetSocketAddress(InetAddress.getLoopbackAddress(), node.port());
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.currentTimeMillis() < deadline, "timed out");
+			Thread.sleep(TICK_MILLIS);
+		}
+	}
+}
@@ -0,0 +1,167 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+// Checks the bitboard Game against a plain array implementation of the rules: every move
+// sequence up to DEPTH plies, then random games played to the end, compare move acceptance,
+// wins, draws, full columns and the board after each move
+class GameTest {
+    static final int DEPTH = 7;
+    static final int PLAYOUTS = 20_000;
+
+    // The rules as the original 2D-array server applied them
+    static final class Reference {
+        final int[][] board = new int[Game.ROWS][Game.COLUMNS];
+        int moves;
+        int mover = 1;
+        boolean won;
+
+        // Row the piece landed in, or -1 if the column is full
+        int drop(int column) {
+            for (int row = Game.ROWS - 1; row >= 0; row--) {
+                if (board[row][column] == 0) {
+                    board[row][column] = mover;
+                    moves++;
+                    won |= fourAnywhere(mover);
+                    mover = 3 - mover;
+                    return row;
+                }
+            }
+            return -1;
+        }
+
+        boolean fourAnywhere(int player) {
+            int[][] directions = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+            for (int row = 0; row < Game.ROWS; row++) {
+                for (int column = 0; column < Game.COLUMNS; column++) {
+                    for (int[] d : directions) {
+                        int run = 0;
+                        for (int k = 0; k < 4; k++) {
+                            int r = row + d[0] * k;
+                            int c = column + d[1] * k;
+                            if (r >= 0 && r < Game.ROWS && c >= 0 && c < Game.COLUMNS && board[r][c] == player) {
+                                run++;
+                            }
+                        }
+                        if (run == 4) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    @Test
+    void everySequenceUpToDepthMatchesReference() {
+        long[] checked = new long[1];
+        enumerate(new int[DEPTH], 0, new Reference(), checked);
+        // 7 + 7^2 + ... + 7^7 sequences, the first wins and the first full columns among them
+        assertEquals(960799, checked[0]);
+    }
+
+    // The reference is carried down the tree and undone on the way back; each Game is replayed
+    // from the start, and only its last move is compared
+    private void enumerate(int[] columns, int depth, Reference reference, long[] checked) {
+        if (depth == DEPTH) {
+            return;
+        }
+        for (int column = 0; column < Game.COLUMNS; column++) {
+            columns[depth] = column;
+            Game game = new Game("a", "b");
+            for (int i = 0; i < depth; i++) {
+                game.makeMove(game.getCurrentPlayer(), columns[i]);
+            }
+            boolean won = reference.won;
+            int row = step(game, reference, column);
+            checked[0]++;
+            enumerate(columns, depth + 1, reference, checked);
+            if (row >= 0) {
+                reference.board[row][column] = 0;
+                reference.moves--;
+                reference.mover = 3 - reference.mover;
+                reference.won = won;
+            }
+        }
+    }
+
+    @Test
+    void randomGamesToTheEndMatchReference() {
+        Random random = new Random(42);
+        int draws = 0;
+        int wins = 0;
+        for (int i = 0; i < PLAYOUTS; i++) {
+            Game game = new Game("a", "b");
+            Reference reference = new Reference();
+            // Keep playing after a win, as the rules allow until the server deactivates the game,
+            // so full boards and full columns come up in every playout
+            while (reference.moves < Game.ROWS * Game.COLUMNS) {
+                int column = random.nextInt(Game.COLUMNS);
+                step(game, reference, column);
+            }
+            if (reference.won) {
+                wins++;
+            } else {
+                draws++;
+            }
+            for (int column = 0; column < Game.COLUMNS; column++) {
+                assertFalse(game.makeMove(game.getCurrentPlayer(), column), "full board accepted a move");
+            }
+        }
+        assertTrue(wins > 0 && draws > 0, wins + " wins, " + draws + " draws");
+    }
+
+    @Test
+    void knownDrawIsADrawWithoutAWin() {
+        String moves = "153233145111176477634234566773467642222555";
+        Game game = new Game("a", "b");
+        Reference reference = new Reference();
+        for (char c : moves.toCharArray()) {
+            step(game, reference, c - '1');
+            assertFalse(game.checkWin());
+        }
+        assertTrue(game.checkDraw());
+        assertFalse(reference.won);
+    }
+
+    @Test
+    void rejectsWrongTurnBadColumnsAndInactiveGames() {
+        Game game = new Game("a", "b");
+        assertFalse(game.makeMove("b", 3));
+        assertFalse(game.makeMove("a", -1));
+        assertFalse(game.makeMove("a", Game.COLUMNS));
+        game.setGameActive(false);
+        assertFalse(game.makeMove("a", 3));
+        game.setGameActive(true);
+        assertTrue(game.makeMove("a", 3));
+        assertEquals(1, game.getSequence());
+        game.reset();
+        assertEquals(0, game.getMoveCount());
+        assertEquals("a", game.getCurrentPlayer());
+        assertArrayEquals(new int[Game.ROWS][Game.COLUMNS], game.getBoard());
+    }
+
+    // One move on both, then everything observable compared; returns the reference's row
+    private int step(Game game, Reference reference, int column) {
+        String mover = reference.mover == 1 ? "a" : "b";
+        assertFalse(game.makeMove(reference.mover == 1 ? "b" : "a", column), "move out of turn accepted");
+        int row = reference.drop(column);
+        assertEquals(row >= 0, game.makeMove(mover, column), "column " + column + " accepted");
+        if (row >= 0) {
+            assertEquals(column, game.getLastColumn());
+            assertEquals(row, game.getLastRow());
+            assertEquals(mover.equals("a") ? 1 : 2, game.getLastPlayer());
+        }
+        assertEquals(reference.won, game.checkWin());
+        assertEquals(reference.moves == Game.ROWS * Game.COLUMNS, game.checkDraw());
+        assertEquals(reference.moves, game.getMoveCount());
+        assertEquals(reference.mover == 1 ? "a" : "b", game.getCurrentPlayer());
+        assertArrayEquals(reference.board, game.getBoard());
+        return row;
+    }
+}
@@ -0,0 +1,144 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class JournalTest {
+	static final long SEGMENT_BYTES = 64L << 20;
+	static final int BUFFER_BYTES = 1 << 20;
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void recoversGamesInProgressAndCutsATornTail() throws IOException {
+		Journal journal = Journal.open(dir, SEGMENT_BYTES, BUFFER_BYTES, false);
+		Game playing = start(journal, "ann", "bob");
+		play(journal, playing, "44455");
+		Game finished = start(journal, "cat", "dan");
+		play(journal, finished, "1212121");
+		journal.result(finished, finished.getLastPlayer());
+		Game left = start(journal, "eve", "fay");
+		play(journal, left, "3");
+		journal.abandon(left);
+		journal.close();
+		Files.write(dir.resolve("journal-000000.log"), new byte[] {0, 0, 0, 12, 1, 2}, StandardOpenOption.APPEND);
+
+		journal = Journal.open(dir, SEGMENT_BYTES, BUFFER_BYTES, false);
+		assertEquals(6, journal.truncatedBytes());
+		assertEquals(1, journal.recovered().size());
+		Game recovered = journal.recovered().iterator().next();
+		assertEquals(playing.id, recovered.id);
+		assertEquals("ann", recovered.player1);
+		assertArrayEquals(playing.getBoard(), recovered.getBoard());
+		assertEquals(playing.getCurrentPlayer(), recovered.getCurrentPlayer());
+		assertTrue(journal.newGameId() > left.id);
+		journal.close();
+	}
+
+	// The smallest buffer the journal allows fills many times over, and whichever records were
+	// dropped, every game replay brings back is the game as it was played
+	@Test
+	void aFullBufferNeverLeavesAGapInARecoveredGame() throws IOException {
+		Journal journal = Journal.open(dir, SEGMENT_BYTES, 0, true);
+		Random random = new Random(7);
+		Map<Long, Game> games = new HashMap<>();
+		for (int i = 0; i < 16; i++) {
+			Game game = start(journal, "p" + i, "q" + i);
+			games.put(game.id, game);
+		}
+		Game[] playing = games.values().toArray(new Game[0]);
+		for (int i = 0; i < 200_000; i++) {
+			Game game = playing[random.nextInt(playing.length)];
+			int column = random.nextInt(Game.COLUMNS);
+			if (!game.makeMove(game.getCurrentPlayer(), column)) {
+				continue;
+			}
+			journal.move(game, column);
+			if (game.checkWin() || game.checkDraw()) {
+				journal.result(game, game.checkWin() ? game.getLastPlayer() : 0);
+				game.reset();
+				journal.rematch(game);
+			}
+		}
+		assertTrue(journal.dropped() > 0, "buffer never filled");
+		journal.close();
+
+		journal = Journal.open(dir, SEGMENT_BYTES, BUFFER_BYTES, false);
+		for (Game recovered : journal.recovered()) {
+			Game played = games.get(recovered.id);
+			assertNotNull(played);
+			assertArrayEquals(played.getBoard(), recovered.getBoard(), "game " + recovered.id);
+		}
+		journal.close();
+	}
+
+	// Thousands of finished games through 4 KB segments leave one segment, under 4 KB past its
+	// checkpoint, and the games still in progress come back from the checkpoint
+	@Test
+	void compactionDropsFinishedGamesAndKeepsLiveOnes() throws IOException {
+		Journal journal = Journal.open(dir, 4096, BUFFER_BYTES, false);
+		Game first = start(journal, "ann", "bob");
+		play(journal, first, "4455");
+		long lastId = 0;
+		for (int i = 0; i < 5000; i++) {
+			Game game = start(journal, "cat", "dan");
+			play(journal, game, "1212121");
+			journal.result(game, game.getLastPlayer());
+			journal.abandon(game);
+			lastId = game.id;
+		}
+		Game second = start(journal, "eve", "fay");
+		play(journal, second, "3");
+		journal.close();
+		assertTrue(journal.compactions() > 0);
+
+		long bytes = 0;
+		int segments = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "journal-*.log")) {
+			for (Path file : files) {
+				bytes += Files.size(file);
+				segments++;
+			}
+		}
+		assertEquals(1, segments);
+		assertTrue(bytes < 4096 + 512, bytes + " bytes");
+
+		journal = Journal.open(dir, 4096, BUFFER_BYTES, false);
+		Map<Long, Game> recovered = new HashMap<>();
+		for (Game game : journal.recovered()) {
+			recovered.put(game.id, game);
+		}
+		assertEquals(2, recovered.size());
+		assertArrayEquals(first.getBoard(), recovered.get(first.id).getBoard());
+		assertArrayEquals(second.getBoard(), recovered.get(second.id).getBoard());
+		assertTrue(journal.newGameId() > second.id && second.id > lastId);
+		journal.close();
+	}
+
+	static Game start(Journal journal, String player1, String player2) {
+		Game game = new Game(player1, player2);
+		game.id = journal.newGameId();
+		journal.start(game);
+		return game;
+	}
+
+	static void play(Journal journal, Game game, String moves) {
+		for (char c : moves.toCharArray()) {
+			int column = c - '1';
+			assertTrue(game.makeMove(game.getCurrentPlayer(), column));
+			journal.move(game, column);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+
+// The skip list against a TreeMap of the same players sorted the slow way. Ratings come from a
+// narrow band so that many players tie and the order falls back to their names
+class LeaderboardTest {
+	static final int PLAYERS = 200;
+	static final int OPERATIONS = 5_000;
+	static final int CHECK_EVERY = 100;
+
+	// Best first: by rating, then by name
+	static final Comparator<Map.Entry<String, Integer>> ORDER = Comparator
+			.comparing((Map.Entry<String, Integer> e) -> -e.getValue())
+			.thenComparing(Map.Entry::getKey);
+
+	@Test
+	void randomPutsUpdatesAndRemovesMatchASortedReference() {
+		Random random = new Random(42);
+		Leaderboard board = new Leaderboard();
+		TreeMap<String, Integer> reference = new TreeMap<>();
+		for (int i = 1; i <= OPERATIONS; i++) {
+			String name = "player" + random.nextInt(PLAYERS);
+			if (random.nextInt(4) == 0) {
+				board.remove(name);
+				reference.remove(name);
+			} else {
+				// Sometimes the same rating again, which must leave the board as it is
+				int rating = random.nextInt(8) == 0 && reference.containsKey(name)
+						? reference.get(name) : 1180 + random.nextInt(40);
+				board.put(name, rating);
+				reference.put(name, rating);
+			}
+			if (i % CHECK_EVERY == 0) {
+				check(board, reference, random);
+			}
+		}
+	}
+
+	@Test
+	void anEmptyBoardHasNoRanksOrPages() {
+		Leaderboard board = new Leaderboard();
+		assertEquals(0, board.size());
+		assertEquals(0, board.rank("ann"));
+		assertEquals(-1, board.rating("ann"));
+		assertTrue(board.page(1, 10).isEmpty());
+		assertTrue(board.page(0, 10).isEmpty());
+
+		board.put("ann", 1200);
+		board.remove("ann");
+		board.remove("ann");
+		assertEquals(0, board.size());
+		assertTrue(board.page(1, 10).isEmpty());
+	}
+
+	private static void check(Leaderboard board, TreeMap<String, Integer> reference, Random random) {
+		List<Map.Entry<String, Integer>> sorted = new ArrayList<>(reference.entrySet());
+		sorted.sort(ORDER);
+		assertEquals(sorted.size(), board.size());
+		for (int i = 0; i < PLAYERS; i++) {
+			String name = "player" + i;
+			Integer rating = reference.get(name);
+			assertEquals(rating != null ? rating : -1, board.rating(name), name);
+			assertEquals(rating != null ? indexOf(sorted, name) + 1 : 0, board.rank(name), name);
+		}
+
+		// Pages from the top, from anywhere, running off the end and from past either end
+		assertPage(sorted, board, 1, 10);
+		assertPage(sorted, board, 1 + random.nextInt(sorted.size() + 1), 1 + random.nextInt(30));
+		assertPage(sorted, board, Math.max(1, sorted.size() - 3), 10);
+		assertPage(sorted, board, sorted.size() + 1, 10);
+		assertPage(sorted, board, 0, 10);
+		assertPage(sorted, board, 1, sorted.size());
+	}
+
+	private static void assertPage(List<Map.Entry<String, Integer>> sorted, Leaderboard board, int rank, int count) {
+		List<Leaderboard.Node> page = board.page(rank, count);
+		List<Map.Entry<String, Integer>> expected = rank < 1 || rank > sorted.size()
+				? List.of() : sorted.subList(rank - 1, Math.min(sorted.size(), rank - 1 + count));
+		assertEquals(expected.size(), page.size(), "page from " + rank);
+		for (int i = 0; i < page.size(); i++) {
+			assertEquals(expected.get(i).getKey(), page.get(i).name);
+			assertEquals((int) expected.get(i).getValue(), page.get(i).rating);
+		}
+	}
+
+	private static int indexOf(List<Map.Entry<String, Integer>> sorted, String name) {
+		for (int i = 0; i < sorted.size(); i++) {
+			if (sorted.get(i).getKey().equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
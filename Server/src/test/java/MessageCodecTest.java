@@ -0,0 +1,77 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import org.junit.jupiter.api.Test;
+
+class MessageCodecTest {
+    private static Message roundTrip(Message message) throws IOException {
+        byte[] frame = MessageCodec.encodeBinary(message);
+        return MessageCodec.decode(frame, MessageCodec.HEADER_BYTES, frame.length - MessageCodec.HEADER_BYTES);
+    }
+
+    @Test
+    void boardsSurviveTheTwoBitPacking() throws IOException {
+        int[][] board = new int[MessageCodec.ROWS][MessageCodec.COLUMNS];
+        for (int r = 0; r < MessageCodec.ROWS; r++) {
+            for (int c = 0; c < MessageCodec.COLUMNS; c++) {
+                board[r][c] = (r * MessageCodec.COLUMNS + c) % 3;
+            }
+        }
+        Message decoded = roundTrip(new Message(MessageType.GAME_STATE, board, true, 7));
+        assertArrayEquals(board, decoded.board);
+        assertEquals(7, decoded.sequence);
+    }
+
+    @Test
+    void listsAndStringsRoundTrip() throws IOException {
+        Message decoded = roundTrip(new Message(new ArrayList<>(Arrays.asList("a", "b")), new ArrayList<>(Arrays.asList("c")), 3));
+        assertEquals(Arrays.asList("a", "b"), decoded.playerList);
+        assertEquals(Arrays.asList("c"), decoded.removedList);
+        decoded = roundTrip(new Message("alice", "bob", "héllo"));
+        assertEquals("héllo", decoded.message);
+        assertEquals("bob", decoded.recipient);
+        decoded = roundTrip(new Message(MessageType.GAME_RESULT, "alice", "bob", true));
+        assertEquals("alice", decoded.username);
+        assertEquals("bob", decoded.recipient);
+        assertTrue(decoded.draw);
+    }
+
+    @Test
+    void serializedFramesAreRefusedByDefault() throws IOException {
+        assertFalse(MessageCodec.ACCEPT_SERIALIZED);
+        byte[] frame = MessageCodec.encodeSerialized(new Message(MessageType.LOGIN, "alice"));
+        assertThrows(IOException.class,
+                () -> MessageCodec.decode(frame, MessageCodec.HEADER_BYTES, frame.length - MessageCodec.HEADER_BYTES));
+    }
+
+    @Test
+    void serializedMessagesDecodeWhenAccepted() throws IOException {
+        Message message = new Message(MessageType.LOBBY_UPDATE, new ArrayList<>(Arrays.asList("a", "b")));
+        message.board = new int[MessageCodec.ROWS][MessageCodec.COLUMNS];
+        byte[] frame = MessageCodec.encodeSerialized(message);
+        int offset = MessageCodec.HEADER_BYTES + 1;
+        Message decoded = MessageCodec.decodeSerialized(frame, offset, frame.length - offset);
+        assertEquals(MessageType.LOBBY_UPDATE, decoded.type);
+        assertEquals(Arrays.asList("a", "b"), decoded.playerList);
+    }
+
+    @Test
+    void otherClassesAreNeverResolved() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new Date());
+        }
+        byte[] payload = bytes.toByteArray();
+        assertThrows(InvalidClassException.class, () -> MessageCodec.decodeSerialized(payload, 0, payload.length));
+    }
+}
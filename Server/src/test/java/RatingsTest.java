@@ -0,0 +1,121 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RatingsTest {
+	static final int START = SessionRegistry.INITIAL_RATING;
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void eloMovesEvenlyMatchedPlayersByHalfTheFactor() {
+		Ratings ratings = Ratings.inMemory();
+		assertArrayEquals(new int[] {START + Ratings.K_FACTOR / 2, START - Ratings.K_FACTOR / 2},
+				ratings.record("ann", "bob", false));
+
+		// Evenly matched and drawn: nobody moves
+		assertArrayEquals(new int[] {START, START}, ratings.record("cat", "dan", true));
+
+		// The favourite gains less for a win than the underdog loses in a draw
+		int[] favourite = ratings.record("ann", "cat", false);
+		assertTrue(favourite[0] - (START + Ratings.K_FACTOR / 2) < Ratings.K_FACTOR / 2);
+		int before = ratings.rating("bob");
+		int[] draw = ratings.record("bob", "ann", true);
+		assertTrue(draw[0] > before);
+		assertEquals(favourite[0] - draw[1], draw[0] - before);
+
+		assertEquals(START, ratings.rating("eve"));
+		assertEquals(0, ratings.rank("eve"));
+		assertEquals(1, ratings.rank("ann"));
+	}
+
+	@Test
+	void pagesCentreOnThePlayerAndStayFullAtTheEnds() {
+		Ratings ratings = Ratings.inMemory();
+		Random random = new Random(7);
+		for (int i = 0; i < 500; i++) {
+			ratings.record("player" + random.nextInt(60), "player" + random.nextInt(60), random.nextInt(5) == 0);
+		}
+		int total = ratings.size();
+		List<String> all = ratings.page(null, 1, Ratings.MAX_PAGE_SIZE).playerList;
+		assertEquals(total, all.size());
+
+		for (String player : all) {
+			Message page = ratings.page(player, 0, 10);
+			int rank = ratings.rank(player);
+			int first = Math.max(1, Math.min(rank - 5, total - 9));
+			assertEquals(player, page.username);
+			assertEquals(first, page.rank);
+			assertEquals(total, page.total);
+			assertEquals(all.subList(first - 1, first + 9), page.playerList);
+			assertEquals(player, page.playerList.get(rank - first));
+			for (int i = 0; i < page.ratings.length; i++) {
+				assertEquals(ratings.rating(page.playerList.get(i)), page.ratings[i]);
+			}
+		}
+
+		// Someone unranked gets the page at the rank asked for, moved back from the end
+		Message unranked = ratings.page("nobody", total, 10);
+		assertNull(unranked.username);
+		assertEquals(total - 9, unranked.rank);
+		assertEquals(all.subList(total - 10, total), unranked.playerList);
+	}
+
+	@Test
+	void shortAndEmptyBoardsGiveWhatThereIs() {
+		Ratings ratings = Ratings.inMemory();
+		Message empty = ratings.page("ann", 1, 20);
+		assertEquals(0, empty.total);
+		assertTrue(empty.playerList.isEmpty());
+
+		ratings.record("ann", "bob", false);
+		ratings.record("cat", "bob", false);
+		Message page = ratings.page("bob", 0, 20);
+		assertEquals(1, page.rank);
+		assertEquals(3, page.total);
+		assertEquals(List.of("ann", "cat", "bob"), page.playerList);
+	}
+
+	@Test
+	void aSnapshotLoadsBackTheSameBoard() throws IOException {
+		Path file = dir.resolve("ratings.dat");
+		Ratings ratings = Ratings.open(file, 3600);
+		Random random = new Random(11);
+		for (int i = 0; i < 200; i++) {
+			ratings.record("player" + random.nextInt(40), "player" + random.nextInt(40), random.nextInt(4) == 0);
+		}
+		Message before = ratings.page(null, 1, Ratings.MAX_PAGE_SIZE);
+		ratings.close();
+		assertTrue(Files.exists(file));
+
+		Ratings loaded = Ratings.open(file, 3600);
+		try {
+			Message after = loaded.page(null, 1, Ratings.MAX_PAGE_SIZE);
+			assertEquals(before.total, after.total);
+			assertEquals(before.playerList, after.playerList);
+			assertArrayEquals(before.ratings, after.ratings);
+			List<String> ranks = new ArrayList<>();
+			for (String player : after.playerList) {
+				ranks.add(player + "=" + loaded.rank(player));
+			}
+			List<String> expected = new ArrayList<>();
+			for (String player : before.playerList) {
+				expected.add(player + "=" + ratings.rank(player));
+			}
+			assertEquals(expected, ranks);
+		} finally {
+			loaded.close();
+		}
+	}
+}
@@ -0,0 +1,140 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.lang.management.ManagementFactory;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+// Races claim, pair, transfer and release on a handful of shared names in short rounds, and
+// checks the registry between rounds while every thread waits: one live session per name, and
+// every pairing complete
+class SessionRegistryTest {
+	static final int THREADS = 8;
+	static final int ROUNDS = 2_000;
+	static final int OPERATIONS = 100;
+	static final String[] NAMES = {"ann", "bob", "cat", "dan", "eve", "fay"};
+	static final long TIMEOUT_SECONDS = 60;
+
+	static final class Stub extends Connection {
+		@Override
+		void scheduleFlush() {
+		}
+
+		@Override
+		void close() {
+		}
+	}
+
+	@Test
+	void racingClaimPairTransferAndReleaseKeepsTheRegistryConsistent() throws Exception {
+		SessionRegistry registry = new SessionRegistry();
+		// Every session any thread created, to find live ones the registry lost track of
+		Queue<SessionRegistry.Session> created = new ConcurrentLinkedQueue<>();
+		Queue<Throwable> errors = new ConcurrentLinkedQueue<>();
+		// The last thread to arrive checks the registry before the next round starts
+		CyclicBarrier round = new CyclicBarrier(THREADS, () -> {
+			try {
+				check(registry, created);
+			} catch (Throwable e) {
+				errors.add(e);
+			}
+		});
+		CountDownLatch done = new CountDownLatch(THREADS);
+		for (int t = 0; t < THREADS; t++) {
+			Thread thread = new Thread(() -> {
+				try {
+					for (int r = 0; r < ROUNDS && errors.isEmpty(); r++) {
+						race(registry, created);
+						round.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+					}
+				} catch (Throwable e) {
+					errors.add(e);
+				} finally {
+					done.countDown();
+				}
+			}, "registry-race-" + t);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		if (!done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+			long[] deadlocked = ManagementFactory.getThreadMXBean().findDeadlockedThreads();
+			fail(deadlocked != null ? deadlocked.length + " threads deadlocked" : "threads did not finish in time");
+		}
+		if (!errors.isEmpty()) {
+			throw new AssertionError(errors.peek());
+		}
+	}
+
+	private static void check(SessionRegistry registry, Queue<SessionRegistry.Session> created) {
+		// Sessions released in an earlier round can be dropped; only the current owners matter
+		created.removeIf(session -> session.released && session.opponent == null);
+		for (String name : NAMES) {
+			SessionRegistry.Session owner = registry.get(name);
+			for (SessionRegistry.Session session : created) {
+				if (session.username.equals(name) && session != owner) {
+					assertTrue(session.released, "second live session for " + name);
+					assertNull(session.opponent, "released session of " + name + " still paired");
+				}
+			}
+			if (owner == null) {
+				continue;
+			}
+			assertTrue(!owner.released, "registered session of " + name + " is released");
+			SessionRegistry.Session opponent = owner.opponent;
+			if (opponent != null) {
+				assertSame(opponent, registry.get(opponent.username), name + " paired with a session that left");
+				assertSame(owner, opponent.opponent, name + " half paired with " + opponent.username);
+				assertSame(owner.game, opponent.game, name + " and " + opponent.username + " in different games");
+			} else {
+				assertNull(owner.game, name + " has a game but no opponent");
+			}
+		}
+	}
+
+	private static void race(SessionRegistry registry, Queue<SessionRegistry.Session> created) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < OPERATIONS; i++) {
+			String name = NAMES[random.nextInt(NAMES.length)];
+			SessionRegistry.Session session = registry.get(name);
+			switch (random.nextInt(4)) {
+				case 0:
+					SessionRegistry.Session claimed = registry.claim(name, new Stub());
+					if (claimed != null) {
+						created.add(claimed);
+					}
+					break;
+				case 1:
+					SessionRegistry.Session other = registry.get(NAMES[random.nextInt(NAMES.length)]);
+					if (session != null && other != null) {
+						registry.pair(session, other, new Game(session.username, other.username));
+					}
+					break;
+				case 2:
+					if (session != null) {
+						SessionRegistry.Session moved = registry.transfer(session, new Stub());
+						if (moved != null) {
+							created.add(moved);
+						}
+					}
+					break;
+				default:
+					if (session != null) {
+						SessionRegistry.Session released = registry.release(name, session.connection);
+						if (released != null) {
+							assertEquals(name, released.username);
+							assertTrue(released.released);
+						}
+					}
+					break;
+			}
+		}
+	}
+}
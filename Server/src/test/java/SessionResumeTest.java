@@ -0,0 +1,138 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+// A player whose connection drops mid-game keeps their seat for the resume window, and only
+// the token from their login takes it back
+class SessionResumeTest {
+	static final long TIMEOUT_MILLIS = 10_000;
+
+	// Keeps every message it is sent; the timer wheel sends from its own thread
+	static final class Recorder extends Connection {
+		private final List<Message> messages = new ArrayList<>();
+
+		@Override
+		void scheduleFlush() {
+			do {
+				ByteBuffer frame;
+				while ((frame = pollFrame()) != null) {
+					byte[] bytes = frame.array();
+					try {
+						Message message = MessageCodec.decode(bytes, MessageCodec.HEADER_BYTES, bytes.length - MessageCodec.HEADER_BYTES);
+						synchronized (messages) {
+							messages.add(message);
+						}
+					} catch (IOException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			} while (finishFlush());
+		}
+
+		@Override
+		void close() {
+		}
+
+		// The first message of type, or null
+		Message first(MessageType type) {
+			synchronized (messages) {
+				for (Message message : messages) {
+					if (message.type == type) {
+						return message;
+					}
+				}
+				return null;
+			}
+		}
+
+		Message await(MessageType type) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+			Message message;
+			while ((message = first(type)) == null) {
+				assertTrue(System.currentTimeMillis() < deadline, "no " + type);
+				Thread.sleep(10);
+			}
+			return message;
+		}
+	}
+
+	private Server server;
+	private Recorder ann;
+	private Recorder bob;
+	private Game game;
+
+	// ann and bob play two moves, then ann's connection drops
+	private long parkAnn(long resumeSeconds) {
+		server = TestServers.start(resumeSeconds);
+		ann = login("ann");
+		bob = login("bob");
+		server.onMessage(bob, new Message(MessageType.CHALLENGE_ACCEPT, "bob", "ann"));
+		game = server.sessions.get("ann").game;
+		assertNotNull(game);
+		server.onMessage(ann, new Message("ann", 3));
+		server.onMessage(bob, new Message("bob", 3));
+		long token = ann.first(MessageType.LOGIN_SUCCESS).token;
+		server.onDisconnect(ann);
+		assertInstanceOf(Server.ParkedSeat.class, server.sessions.get("ann").connection);
+		return token;
+	}
+
+	private Recorder login(String name) {
+		Recorder client = new Recorder();
+		server.onConnect(client);
+		server.onMessage(client, new Message(MessageType.LOGIN, name));
+		assertNotNull(client.first(MessageType.LOGIN_SUCCESS), name + " not logged in");
+		return client;
+	}
+
+	private Recorder resume(long token) {
+		Recorder client = new Recorder();
+		server.onConnect(client);
+		server.onMessage(client, new Message(MessageType.SESSION_RESUME, "ann", token));
+		return client;
+	}
+
+	@Test
+	void aParkedSeatResumesWithAFreshSnapshot() {
+		long token = parkAnn(30);
+		Recorder back = resume(token);
+
+		Message success = back.first(MessageType.LOGIN_SUCCESS);
+		assertNotNull(success);
+		assertEquals("ann", success.username);
+		assertEquals(token, success.token);
+		Message state = back.first(MessageType.GAME_STATE);
+		assertNotNull(state);
+		assertArrayEquals(game.getBoard(), state.board);
+		assertTrue(state.isPlayerTurn);
+		assertEquals(game.getSequence(), state.sequence);
+		assertEquals("bob", back.first(MessageType.NEWUSER).username);
+		assertEquals(0, server.parkedSeats.get());
+
+		// The seat is the same one: the game carries on from the new connection
+		server.onMessage(back, new Message("ann", 4));
+		assertEquals(3, game.getMoveCount());
+	}
+
+	@Test
+	void aWrongTokenOrAnExpiredSeatIsRefused() throws InterruptedException {
+		long token = parkAnn(1);
+		assertNotNull(resume(token + 1).first(MessageType.LOGIN_ERROR));
+		assertInstanceOf(Server.ParkedSeat.class, server.sessions.get("ann").connection);
+
+		// Once the wheel forfeits the seat, bob is told and the right token is too late
+		assertEquals("ann", bob.await(MessageType.DISCONNECT).username);
+		assertEquals(0, server.parkedSeats.get());
+		Recorder late = resume(token);
+		assertNotNull(late.first(MessageType.LOGIN_ERROR));
+		assertEquals(null, late.first(MessageType.GAME_STATE));
+	}
+}
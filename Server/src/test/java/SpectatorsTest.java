@@ -0,0 +1,102 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class SpectatorsTest {
+	// Writes every frame as soon as it is queued, keeping the bytes it was given
+	static final class Reader extends Connection {
+		final List<byte[]> frames = new ArrayList<>();
+
+		@Override
+		void scheduleFlush() {
+			do {
+				ByteBuffer frame;
+				while ((frame = pollFrame()) != null) {
+					frames.add(frame.array());
+				}
+			} while (finishFlush());
+		}
+
+		@Override
+		void close() {
+		}
+
+		Message last() throws IOException {
+			byte[] frame = frames.get(frames.size() - 1);
+			return MessageCodec.decode(frame, MessageCodec.HEADER_BYTES, frame.length - MessageCodec.HEADER_BYTES);
+		}
+	}
+
+	// Never writes, so its queue only fills
+	static final class Stalled extends Connection {
+		boolean closed;
+
+		@Override
+		void scheduleFlush() {
+		}
+
+		@Override
+		void close() {
+			closed = true;
+		}
+	}
+
+	private final SessionRegistry registry = new SessionRegistry();
+
+	@Test
+	void everySpectatorQueuesTheSameEncodedBytes() {
+		Spectators audience = new Spectators();
+		List<Reader> readers = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			Reader reader = new Reader();
+			readers.add(reader);
+			audience.add(registry.claim("watcher" + i, reader));
+		}
+		audience.send(new Message(3, 5, 1, 1, 1, false));
+		byte[] shared = readers.get(0).frames.get(0);
+		for (Reader reader : readers) {
+			assertEquals(1, reader.frames.size());
+			assertSame(shared, reader.frames.get(0));
+		}
+	}
+
+	@Test
+	void aStalledSpectatorIsDroppedWithoutHoldingUpTheOthers() {
+		Spectators audience = new Spectators();
+		Reader reader = new Reader();
+		Stalled stalled = new Stalled();
+		audience.add(registry.claim("stalled", stalled));
+		audience.add(registry.claim("reader", reader));
+		byte[] frame = MessageCodec.encodeBinary(new Message(3, 5, 1, 1, 1, false));
+		int frames = Connection.MAX_QUEUED_FRAMES + 10;
+		for (int i = 0; i < frames; i++) {
+			audience.send(frame, MessageType.GAME_DELTA);
+		}
+		assertTrue(stalled.closed);
+		assertEquals(1, audience.size());
+		assertEquals(frames, reader.frames.size());
+	}
+
+	@Test
+	void theEndOfTheGameReleasesEveryone() throws IOException {
+		Spectators audience = new Spectators();
+		Game game = new Game("ann", "bob");
+		Reader reader = new Reader();
+		SessionRegistry.Session watcher = registry.claim("watcher", reader);
+		watcher.watching = game;
+		audience.add(watcher);
+		audience.end(game);
+		assertNull(watcher.watching);
+		assertEquals(0, audience.size());
+		Message end = reader.last();
+		assertEquals(MessageType.SPECTATE, end.type);
+		assertNull(end.username);
+	}
+}
@@ -0,0 +1,18 @@
+// Servers for tests: ephemeral ports, nothing written to disk, no bots and no opening book
+final class TestServers {
+	private TestServers() {
+	}
+
+	// resumeSeconds is how long a dropped player's seat is held
+	static Server start(long resumeSeconds) {
+		System.setProperty("connect4.port", "0");
+		System.setProperty("connect4.metricsPort", "0");
+		System.setProperty("connect4.journal", "false");
+		System.setProperty("connect4.ratings", "false");
+		System.setProperty("connect4.bots", "");
+		System.setProperty("connect4.openingBook", "no-such.book");
+		System.setProperty("connect4.resumeSeconds", Long.toString(resumeSeconds));
+		return new Server(message -> {
+		});
+	}
+}
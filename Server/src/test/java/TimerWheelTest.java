@@ -0,0 +1,58 @@
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.junit.jupiter.api.Test;
+
+// A wheel of 4 one-millisecond slots, so anything more than 4 ms away goes round several times
+class TimerWheelTest {
+	static final long TIMEOUT_SECONDS = 10;
+
+	private final TimerWheel wheel = new TimerWheel("test-wheel", 1, TimeUnit.MILLISECONDS, 4);
+
+	@Test
+	void timeoutsManyLapsAwayFireNoEarlierThanTheirDelay() throws InterruptedException {
+		int count = 50;
+		AtomicLongArray fired = new AtomicLongArray(count);
+		CountDownLatch done = new CountDownLatch(count);
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			int index = i;
+			wheel.schedule(i, TimeUnit.MILLISECONDS, () -> {
+				fired.set(index, System.nanoTime());
+				done.countDown();
+			});
+		}
+		assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS), "not every timeout fired");
+		for (int i = 0; i < count; i++) {
+			long elapsed = fired.get(i) - start;
+			assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(i), "timeout " + i + " fired after " + elapsed + " ns");
+		}
+	}
+
+	@Test
+	void aCancelledTimeoutNeverFires() throws InterruptedException {
+		AtomicBoolean ran = new AtomicBoolean();
+		TimerWheel.Timeout cancelled = wheel.schedule(10, TimeUnit.MILLISECONDS, () -> ran.set(true));
+		assertTrue(cancelled.cancel());
+		assertFalse(cancelled.cancel());
+
+		// One in the same slot a lap later, and one well past both
+		CountDownLatch later = new CountDownLatch(2);
+		wheel.schedule(14, TimeUnit.MILLISECONDS, later::countDown);
+		wheel.schedule(30, TimeUnit.MILLISECONDS, later::countDown);
+		assertTrue(later.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		assertFalse(ran.get());
+	}
+
+	@Test
+	void aTimeoutThatHasFiredCannotBeCancelled() throws InterruptedException {
+		CountDownLatch fired = new CountDownLatch(1);
+		TimerWheel.Timeout timeout = wheel.schedule(6, TimeUnit.MILLISECONDS, fired::countDown);
+		assertTrue(fired.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		assertFalse(timeout.cancel());
+	}
+}